@@ -15,14 +15,27 @@ import java.util.concurrent.atomic.AtomicBoolean
 class GroovySandbox extends GroovyValueFilter {
     @Override
     Object filter(Object o) {
-        if (o == null || ALLOWED_TYPES.contains(o.class))
+        //ScriptExecutor超时之后会中断执行线程
+        if (Thread.currentThread().isInterrupted())
+            throw new SecurityException("Script has been interrupted")
+        if (o == null || isAllowed(o.getClass()))
             return o;
         if (o instanceof Script || o instanceof Closure)
             return o; // access to properties of compiled groovy script
-        throw new SecurityException("Oops, unexpected type: " + o.class);
+        throw new SecurityException("Oops, unexpected type: " + o.getClass());
     }
 
-    private static final Set<Class> ALLOWED_TYPES = [
+    /**
+     * Map上的o.class会被当作key读取，所以使用getClass()；Map、HttpRequest等接口按实现类判断
+     */
+    private static boolean isAllowed(Class type) {
+        return ALLOWED_TYPES.contains(type) || ALLOWED_TYPES.any { it.isAssignableFrom(type) }
+    }
+
+    /**
+     * StaticSandbox在编译期使用同一份白名单
+     */
+    static final Set<Class> ALLOWED_TYPES = [
             Logger,
             String,
             Integer,
@@ -33,7 +46,10 @@ class GroovySandbox extends GroovyValueFilter {
             Set,
             HttpRequest,
             HttpObject,
-            AtomicBoolean
+            AtomicBoolean,
+            ScriptRequest,
+            ScriptVerdict,
+            ScriptCounters
             // all the primitive types should be OK, but I'm too lazy
 
             // I'm not adding Class, which rules out all the static method calls
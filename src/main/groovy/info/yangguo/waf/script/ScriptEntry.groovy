@@ -1,34 +1,130 @@
 package info.yangguo.waf.script
 
+import com.codahale.metrics.Timer
+import groovy.transform.CompileStatic
+import groovy.transform.ThreadInterrupt
+import info.yangguo.waf.Constant
 import io.netty.handler.codec.http.HttpObject
 import io.netty.handler.codec.http.HttpRequest
+import org.codehaus.groovy.control.CompilationFailedException
 import org.codehaus.groovy.control.CompilerConfiguration
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer
+import org.codehaus.groovy.runtime.InvokerHelper
 import org.kohsuke.groovy.sandbox.SandboxTransformer
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.function.Supplier
 
 /**
+ * 一个脚本文件对应一个ScriptEntry，创建时编译一次，文件变更时重新创建。
+ * Script实例不是线程安全的，每个线程使用自己的实例，每次执行使用新的Binding。
+ * <p>
+ * 脚本同时按两种模式编译：sandbox模式在运行时由GroovySandbox拦截每次调用；
+ * static模式使用CompileStatic，由StaticSandbox在编译期检查白名单，运行时不再拦截，没有通过检查的脚本只能以sandbox模式执行。
+ *
  * @author guo.yang
  */
 class ScriptEntry {
     static Logger logger = LoggerFactory.getLogger(ScriptEntry.class)
+    /**
+     * Binding中的变量及其类型，static模式按这些类型做类型检查
+     */
+    static final Map<String, Class> BINDING_TYPES = [
+            originalRequest: HttpRequest,
+            httpObject     : HttpObject,
+            result         : AtomicBoolean,
+            request        : ScriptRequest,
+            verdict        : ScriptVerdict,
+            counters       : ScriptCounters
+    ]
+    private static final GroovySandbox sandbox = new GroovySandbox()
+    final String name
+    final String script
+    final Timer timer
+    /**
+     * 按脚本名称保存，脚本重新加载之后计数仍然有效
+     */
+    final ScriptCounters counters
+    private final ThreadLocal<Script> instances
+    /**
+     * static模式的实例，脚本没有通过编译期检查时为null
+     */
+    private final ThreadLocal<Script> staticInstances
 
-    void execute(HttpRequest originalRequest, HttpObject httpObject, AtomicBoolean result, String script) {
-        GroovySandbox sandbox = new GroovySandbox()
+    /**
+     * @throws org.codehaus.groovy.control.CompilationFailedException 脚本编译失败
+     */
+    ScriptEntry(String name, String script) {
+        this.name = name
+        this.script = script
+        this.timer = Constant.metrics.timer("ScriptSecurity[" + name + "]")
+        this.counters = ScriptCounters.of(name)
         def cc = new CompilerConfiguration()
         cc.addCompilationCustomizers(new SandboxTransformer())
+        this.instances = instances(new GroovyClassLoader(ScriptEntry.class.classLoader, cc).parseClass(script, name))
+
+        ThreadLocal<Script> staticInstances = null
+        try {
+            def staticCc = new CompilerConfiguration()
+            staticCc.addCompilationCustomizers(
+                    StaticSandbox.secureCustomizer(),
+                    new ASTTransformationCustomizer(ThreadInterrupt),
+                    new ASTTransformationCustomizer([extensions: [StaticSandbox.name]], CompileStatic))
+            staticInstances = instances(new GroovyClassLoader(ScriptEntry.class.classLoader, staticCc).parseClass(script, name))
+        } catch (CompilationFailedException e) {
+            logger.info("Script[{}] is not accepted by static mode, it will be executed in sandbox mode:{}", name, e.getMessage())
+        }
+        this.staticInstances = staticInstances
+    }
+
+    private static ThreadLocal<Script> instances(Class<? extends Script> scriptClass) {
+        return ThreadLocal.withInitial({ InvokerHelper.createScript(scriptClass, new Binding()) } as Supplier<Script>)
+    }
+
+    boolean isStaticCompiled() {
+        return staticInstances != null
+    }
+
+    /**
+     * @param request    预解析的请求
+     * @param verdict    脚本的执行结果
+     * @param staticMode true:脚本通过了static模式的检查时不经过GroovySandbox执行
+     * @return true:脚本调用了verdict.block()或者将result设置为true
+     */
+    boolean execute(ScriptRequest request, HttpObject httpObject, ScriptVerdict verdict, boolean staticMode) {
+        AtomicBoolean result = new AtomicBoolean(false)
         def binding = new Binding()
-        binding.originalRequest = originalRequest
+        binding.originalRequest = request.originalRequest
         binding.httpObject = httpObject
         binding.result = result
-        GroovyShell sh = new GroovyShell(binding, cc)
+        binding.request = request
+        binding.verdict = verdict
+        binding.counters = counters
+        if (staticMode && staticInstances != null) {
+            Script instance = staticInstances.get()
+            instance.binding = binding
+            try {
+                instance.run()
+            } finally {
+                instance.binding = new Binding()
+            }
+            return result.get() || verdict.blocked
+        }
+
+        Script instance = instances.get()
+        instance.binding = binding
         sandbox.register()
         try {
-            sh.evaluate(script)
+            instance.run()
         } catch (SecurityException e) {
             logger.warn("Script execute exception\n-----------------------------------------------\n{}\n-----------------------------------------------", script, e)
+        } finally {
+            sandbox.unregister()
+            //不持有请求对象
+            instance.binding = new Binding()
         }
+        return result.get() || verdict.blocked
     }
 }
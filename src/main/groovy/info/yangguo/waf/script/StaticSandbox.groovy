@@ -0,0 +1,114 @@
+package info.yangguo.waf.script
+
+import org.codehaus.groovy.ast.ClassCodeVisitorSupport
+import org.codehaus.groovy.ast.ClassHelper
+import org.codehaus.groovy.ast.ClassNode
+import org.codehaus.groovy.ast.MethodNode
+import org.codehaus.groovy.ast.expr.AttributeExpression
+import org.codehaus.groovy.ast.expr.ClassExpression
+import org.codehaus.groovy.ast.expr.Expression
+import org.codehaus.groovy.ast.expr.MethodPointerExpression
+import org.codehaus.groovy.ast.expr.PropertyExpression
+import org.codehaus.groovy.ast.expr.VariableExpression
+import org.codehaus.groovy.control.SourceUnit
+import org.codehaus.groovy.control.customizers.SecureASTCustomizer
+import org.codehaus.groovy.transform.stc.AbstractTypeCheckingExtension
+import org.codehaus.groovy.transform.stc.ExtensionMethodNode
+import org.codehaus.groovy.transform.stc.StaticTypeCheckingVisitor
+
+/**
+ * static模式的类型检查扩展，在编译期执行与GroovySandbox相同的白名单，通过检查的脚本运行时不再拦截。
+ * <p>
+ * 只能调用白名单类型、Closure以及脚本自身声明的方法，方法返回值和属性的类型必须是白名单类型、基本类型、void或者Object；
+ * Binding中的变量按ScriptEntry.BINDING_TYPES中的类型解析。
+ *
+ * @author guo.yang
+ */
+class StaticSandbox extends AbstractTypeCheckingExtension {
+    private static final Set<String> ALLOWED_TYPES = GroovySandbox.ALLOWED_TYPES.collect { it.name } as Set
+    /**
+     * ThreadInterrupt插入的中断检查，只对没有源码位置的生成代码放行
+     */
+    private static final Set<String> INTERRUPT_CHECKS = [
+            'java.lang.Thread#currentThread',
+            'java.lang.Thread#isInterrupted',
+            'java.lang.InterruptedException#<init>'
+    ] as Set
+
+    StaticSandbox(StaticTypeCheckingVisitor typeCheckingVisitor) {
+        super(typeCheckingVisitor)
+    }
+
+    /**
+     * 禁止import白名单之外的类型，禁止读写白名单之外类型的静态属性
+     */
+    static SecureASTCustomizer secureCustomizer() {
+        def customizer = new SecureASTCustomizer()
+        customizer.packageAllowed = false
+        customizer.importsWhitelist = ALLOWED_TYPES as List
+        customizer.starImportsWhitelist = []
+        customizer.staticImportsWhitelist = []
+        customizer.staticStarImportsWhitelist = []
+        customizer.addExpressionCheckers({ Expression expression ->
+            if (expression instanceof AttributeExpression || expression instanceof MethodPointerExpression)
+                return false
+            if (expression instanceof PropertyExpression && expression.objectExpression instanceof ClassExpression)
+                return ALLOWED_TYPES.contains(expression.objectExpression.type.name)
+            return true
+        } as SecureASTCustomizer.ExpressionChecker)
+        return customizer
+    }
+
+    @Override
+    boolean handleUnresolvedVariableExpression(VariableExpression vexp) {
+        Class type = ScriptEntry.BINDING_TYPES[vexp.name]
+        if (type == null)
+            return false
+        makeDynamic(vexp, ClassHelper.make(type))
+        return true
+    }
+
+    @Override
+    void onMethodSelection(Expression expression, MethodNode target) {
+        ClassNode declaringClass = target instanceof ExtensionMethodNode ? target.extensionMethodNode.parameters[0].type : target.declaringClass
+        if (expression.lineNumber < 0 && INTERRUPT_CHECKS.contains(declaringClass.name + '#' + target.name))
+            return
+        //groovy.lang.Script中的evaluate、run等方法不在白名单中，只允许脚本自身声明的方法
+        boolean scriptMethod = declaringClass.isScript() && declaringClass.name != Script.name
+        if (!scriptMethod && declaringClass.name != Closure.name && !ALLOWED_TYPES.contains(declaringClass.name)) {
+            addStaticTypeError("Oops, unexpected type: " + declaringClass.name + '#' + target.name, expression)
+            return
+        }
+        ClassNode returnType = target.returnType
+        if (!isAllowed(returnType))
+            addStaticTypeError("Oops, unexpected type: " + returnType.name + " returned by " + declaringClass.name + '#' + target.name, expression)
+    }
+
+    /**
+     * 属性的读写不经过onMethodSelection，方法检查完之后按推断出的类型检查所有属性，例如x.class、x.class.classLoader
+     */
+    @Override
+    void afterVisitMethod(MethodNode node) {
+        if (node.code == null)
+            return
+        SourceUnit sourceUnit = typeCheckingVisitor.sourceUnit
+        node.code.visit(new ClassCodeVisitorSupport() {
+            @Override
+            protected SourceUnit getSourceUnit() {
+                return sourceUnit
+            }
+
+            @Override
+            void visitPropertyExpression(PropertyExpression expression) {
+                super.visitPropertyExpression(expression)
+                ClassNode type = getType(expression)
+                if (!isAllowed(type))
+                    addStaticTypeError("Oops, unexpected type: " + type.name + " of property " + expression.propertyAsString, expression)
+            }
+        })
+    }
+
+    private static boolean isAllowed(ClassNode type) {
+        return type.isGenericsPlaceHolder() || type == ClassHelper.VOID_TYPE || type == ClassHelper.OBJECT_TYPE || ClassHelper.isPrimitiveType(type) || ALLOWED_TYPES.contains(type.name)
+    }
+}
@@ -20,6 +20,7 @@ import com.codahale.metrics.Slf4jReporter;
 import info.yangguo.waf.config.ContextHolder;
 import info.yangguo.waf.model.ServerConfig;
 import info.yangguo.waf.model.WeightedRoundRobinScheduling;
+import info.yangguo.waf.request.TrustedProxies;
 import info.yangguo.waf.service.ClusterService;
 import info.yangguo.waf.util.NetUtils;
 import info.yangguo.waf.util.WafSelfSignedSslEngineSource;
@@ -130,10 +131,11 @@ public class Application {
                                 @Override
                                 public void requestReceivedFromClient(FlowContext flowContext,
                                                                       HttpRequest httpRequest) {
+                                    //只有可信的前端代理设置的x-real-ip才保留，否则按对端地址重写，避免客户端伪造IP绕过IP规则和封禁
                                     String realIp = httpRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP);
-                                    if (realIp == null) {
-                                        String remoteAddress = flowContext.getClientAddress().getAddress().getHostAddress();
-                                        httpRequest.headers().add(WafHttpHeaderNames.X_REAL_IP, remoteAddress);
+                                    String remoteAddress = flowContext.getClientAddress().getAddress().getHostAddress();
+                                    if (realIp == null || !TrustedProxies.isTrusted(remoteAddress)) {
+                                        httpRequest.headers().set(WafHttpHeaderNames.X_REAL_IP, remoteAddress);
                                     }
                                 }
                             }
@@ -144,6 +146,10 @@ public class Application {
                                 @Override
                                 public void requestReceivedFromClient(FlowContext flowContext,
                                                                       HttpRequest httpRequest) {
+                                    //security规则按route生效，除非前端代理可信，否则客户端带来的x-waf-route一律丢弃，避免绕过route规则
+                                    if (!"on".equals(Constant.wafConfs.get("waf.gateway.trust_route_header"))) {
+                                        httpRequest.headers().remove(WafHttpHeaderNames.X_WAF_ROUTE);
+                                    }
                                     if (httpRequest.headers().get(WafHttpHeaderNames.X_WAF_ROUTE) == null) {
                                         //Host包含多个值，只取第一个
                                         List<String> hosts = httpRequest.headers().getAll(HttpHeaderNames.HOST);
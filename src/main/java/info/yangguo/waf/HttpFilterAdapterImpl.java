@@ -20,6 +20,7 @@ import info.yangguo.waf.config.ContextHolder;
 import info.yangguo.waf.model.ForwardConfig;
 import info.yangguo.waf.model.WeightedRoundRobinScheduling;
 import info.yangguo.waf.request.*;
+import info.yangguo.waf.request.security.limiter.GradientLimiter;
 import info.yangguo.waf.response.HttpResponseFilter;
 import info.yangguo.waf.util.ResponseUtil;
 import io.netty.channel.ChannelHandlerContext;
@@ -37,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author:杨果
@@ -46,13 +48,35 @@ import java.util.Map;
  */
 public class HttpFilterAdapterImpl extends HttpFiltersAdapter {
     private static Logger logger = LoggerFactory.getLogger(HttpFilterAdapterImpl.class);
+    /**
+     * 当前请求的解析结果，各个filter共用，同一请求的多个HttpObject也共用
+     */
+    private final RequestView requestView;
+    /**
+     * 当前请求占用的upstream并发名额，释放之后为null
+     */
+    private final AtomicReference<GradientLimiter> upstreamLimiter = new AtomicReference<>();
+    /**
+     * 请求没有得到后端响应而客户端连接已经关闭时释放名额
+     */
+    private final GenericFutureListener<Future<? super Void>> releaseOnClose = future -> releaseUpstream(0, false);
+    private volatile long sendingNanos;
 
     public HttpFilterAdapterImpl(HttpRequest originalRequest, ChannelHandlerContext ctx) {
         super(originalRequest, ctx);
+        this.requestView = new RequestView(originalRequest, ctx == null ? null : ctx.channel().remoteAddress());
+        if (OverloadController.isEnabled())
+            OverloadController.register(ctx.executor());
     }
 
     @Override
     public HttpResponse clientToProxyRequest(HttpObject httpObject) {
+        //过载时在所有filter之前丢弃低优先级的请求
+        if (httpObject instanceof HttpRequest && OverloadController.isEnabled()) {
+            HttpResponse shedResponse = OverloadController.shed(ctx.executor(), UpstreamLimiters.upstreamKey(originalRequest));
+            if (shedResponse != null)
+                return shedResponse;
+        }
         //放到里面主要是为了线程安全，由于一条链路不断的情况下，多个请求过来都在一个ClientToProxy线程中，但是对于Filter来说确实多线程处理的，
         //不放在里面就会报对List操作的操作异常。
         List<RequestFilter> requestFilters = Lists.newArrayList();
@@ -65,7 +89,7 @@ public class HttpFilterAdapterImpl extends HttpFiltersAdapter {
         HttpResponse response = null;
         for (RequestFilter filter : requestFilters) {
             try {
-                response = filter.doFilter(originalRequest, httpObject);
+                response = filter.doFilter(requestView, httpObject);
             } catch (Exception e) {
                 logger.warn("request client to proxy failed", e);
                 response = ResponseUtil.createResponse(HttpResponseStatus.BAD_GATEWAY, originalRequest, null);
@@ -74,10 +98,50 @@ public class HttpFilterAdapterImpl extends HttpFiltersAdapter {
                 break;
             }
         }
+        //HttpContent被拦截时请求不会再发往upstream，HttpRequest上占用的名额在这里释放
+        if (response != null)
+            releaseUpstream(0, false);
+        if (response == null && httpObject instanceof HttpRequest && UpstreamLimiters.isEnabled()) {
+            response = acquireUpstream();
+        }
 
         return response;
     }
 
+    /**
+     * @return 超出upstream并发上限时返回503，否则返回null
+     */
+    private HttpResponse acquireUpstream() {
+        String upstream = UpstreamLimiters.upstreamKey(originalRequest);
+        if (upstream == null || !ContextHolder.getClusterService().getUpstreamConfig().containsKey(upstream))
+            return null;
+        GradientLimiter limiter = UpstreamLimiters.get(upstream);
+        if (!limiter.tryAcquire()) {
+            UpstreamLimiters.rejected(upstream);
+            return ResponseUtil.createResponse(HttpResponseStatus.SERVICE_UNAVAILABLE, originalRequest, null);
+        }
+        upstreamLimiter.set(limiter);
+        ctx.channel().closeFuture().addListener(releaseOnClose);
+        return null;
+    }
+
+    /**
+     * 释放upstream并发名额，多个回调中只有第一次调用生效
+     *
+     * @param rttNanos 响应时间，小于等于0时不作为样本
+     * @param dropped  true:超时或者连接失败
+     */
+    private void releaseUpstream(long rttNanos, boolean dropped) {
+        GradientLimiter limiter = upstreamLimiter.getAndSet(null);
+        if (limiter == null)
+            return;
+        ctx.channel().closeFuture().removeListener(releaseOnClose);
+        if (rttNanos <= 0 && !dropped)
+            limiter.release();
+        else
+            limiter.release(rttNanos, dropped);
+    }
+
     @Override
     public void proxyToServerResolutionSucceeded(String serverHostAndPort,
                                                  InetSocketAddress resolvedRemoteAddress) {
@@ -102,6 +166,7 @@ public class HttpFilterAdapterImpl extends HttpFiltersAdapter {
      */
     @Override
     public void proxyToServerRequestSending() {
+        sendingNanos = System.nanoTime();
         ClientToProxyConnection clientToProxyConnection = (ClientToProxyConnection) ctx.handler();
         ProxyConnection proxyConnection = clientToProxyConnection.getProxyToServerConnection();
         logger.debug("client channel:{}-{}", clientToProxyConnection.getChannel().localAddress().toString(), clientToProxyConnection.getChannel().remoteAddress().toString());
@@ -119,6 +184,22 @@ public class HttpFilterAdapterImpl extends HttpFiltersAdapter {
         });
     }
 
+    @Override
+    public void serverToProxyResponseReceiving() {
+        long sending = sendingNanos;
+        releaseUpstream(sending == 0 ? 0 : System.nanoTime() - sending, false);
+    }
+
+    @Override
+    public void serverToProxyResponseTimedOut() {
+        releaseUpstream(0, true);
+    }
+
+    @Override
+    public void proxyToServerResolutionFailed(String hostAndPort) {
+        releaseUpstream(0, false);
+    }
+
     @Override
     public HttpObject proxyToClientResponse(HttpObject httpObject) {
         HttpResponseFilter httpResponseFilter = new HttpResponseFilter();
@@ -134,6 +215,7 @@ public class HttpFilterAdapterImpl extends HttpFiltersAdapter {
 
     @Override
     public void proxyToServerConnectionFailed() {
+        releaseUpstream(0, true);
         if ("on".equals(Constant.wafConfs.get("waf.lb"))) {
             try {
                 ClientToProxyConnection clientToProxyConnection = (ClientToProxyConnection) ctx.handler();
@@ -19,6 +19,10 @@ import com.google.common.collect.Maps;
 import info.yangguo.waf.config.ContextHolder;
 import info.yangguo.waf.dto.*;
 import info.yangguo.waf.model.*;
+import info.yangguo.waf.request.HeavyHitterDetector;
+import info.yangguo.waf.request.SecurityFilterScheduler;
+import info.yangguo.waf.request.security.RuleGuard;
+import info.yangguo.waf.request.security.ScriptSecurity;
 import info.yangguo.waf.validator.ExistSequence;
 import info.yangguo.waf.validator.NotExistSequence;
 import io.swagger.annotations.Api;
@@ -59,6 +63,140 @@ public class ConfigController {
         return resultDto;
     }
 
+    @ApiOperation(value = "获取security filter执行顺序及统计信息")
+    @ResponseBody
+    @GetMapping(value = "security/chain")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "WAFTOKEN", value = "WAFTOKEN",
+                    dataType = "string", paramType = "cookie")
+    })
+    public ResultDto<List<SecurityFilterStat>> getSecurityChain() {
+        ResultDto resultDto = new ResultDto();
+        resultDto.setCode(HttpStatus.OK.value());
+        resultDto.setValue(SecurityFilterScheduler.getStats());
+        return resultDto;
+    }
+
+    @ApiOperation(value = "获取超出步数预算的security item")
+    @ResponseBody
+    @GetMapping(value = "security/guard")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "WAFTOKEN", value = "WAFTOKEN",
+                    dataType = "string", paramType = "cookie")
+    })
+    public ResultDto<List<RuleGuardStat>> getRuleGuards() {
+        ResultDto resultDto = new ResultDto();
+        resultDto.setCode(HttpStatus.OK.value());
+        resultDto.setValue(RuleGuard.getStats());
+        return resultDto;
+    }
+
+    @ApiOperation(value = "重置security item的超时次数并重新启用")
+    @ResponseBody
+    @DeleteMapping(value = "security/guard")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "WAFTOKEN", value = "WAFTOKEN",
+                    dataType = "string", paramType = "cookie")
+    })
+    public ResultDto resetRuleGuard(@RequestBody @Validated RuleGuardDto dto) {
+        ResultDto resultDto = new ResultDto();
+        if (RuleGuard.reset(dto.getFilterName(), dto.getName()))
+            resultDto.setCode(HttpStatus.OK.value());
+        else
+            resultDto.setCode(HttpStatus.NOT_FOUND.value());
+        return resultDto;
+    }
+
+    @ApiOperation(value = "获取当前窗口的高频访问IP和IP+URL")
+    @ResponseBody
+    @GetMapping(value = "security/heavy_hitter")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "WAFTOKEN", value = "WAFTOKEN",
+                    dataType = "string", paramType = "cookie")
+    })
+    public ResultDto<List<HeavyHitterStat>> getHeavyHitters() {
+        ResultDto resultDto = new ResultDto();
+        resultDto.setCode(HttpStatus.OK.value());
+        resultDto.setValue(HeavyHitterDetector.getHeavyHitters());
+        return resultDto;
+    }
+
+    @ApiOperation(value = "获取自动封禁列表")
+    @ResponseBody
+    @GetMapping(value = "security/ban")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "WAFTOKEN", value = "WAFTOKEN",
+                    dataType = "string", paramType = "cookie")
+    })
+    public ResultDto<List<BanStat>> getBans() {
+        ResultDto resultDto = new ResultDto();
+        resultDto.setCode(HttpStatus.OK.value());
+        resultDto.setValue(HeavyHitterDetector.getBans());
+        return resultDto;
+    }
+
+    @ApiOperation(value = "解除自动封禁")
+    @ResponseBody
+    @DeleteMapping(value = "security/ban")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "WAFTOKEN", value = "WAFTOKEN",
+                    dataType = "string", paramType = "cookie")
+    })
+    public ResultDto revokeBan(@RequestBody @Validated BanDto dto) {
+        ResultDto resultDto = new ResultDto();
+        if (HeavyHitterDetector.revoke(dto.getKey()))
+            resultDto.setCode(HttpStatus.OK.value());
+        else
+            resultDto.setCode(HttpStatus.NOT_FOUND.value());
+        return resultDto;
+    }
+
+    @ApiOperation(value = "获取已加载的script")
+    @ResponseBody
+    @GetMapping(value = "security/script")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "WAFTOKEN", value = "WAFTOKEN",
+                    dataType = "string", paramType = "cookie")
+    })
+    public ResultDto<List<ScriptStat>> getScripts() {
+        ResultDto resultDto = new ResultDto();
+        resultDto.setCode(HttpStatus.OK.value());
+        resultDto.setValue(ScriptSecurity.getStats());
+        return resultDto;
+    }
+
+    @ApiOperation(value = "设置script，通过配置中心下发到所有节点")
+    @ResponseBody
+    @PutMapping(value = "security/script")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "WAFTOKEN", value = "WAFTOKEN",
+                    dataType = "string", paramType = "cookie")
+    })
+    public ResultDto setScript(@RequestBody @Validated(ExistSequence.class) ScriptConfigDto dto) {
+        ResultDto resultDto = new ResultDto();
+        resultDto.setCode(HttpStatus.OK.value());
+        ContextHolder.getClusterService().setScriptConfig(Optional.of(dto.getName()), Optional.of(dto.getScript()));
+        return resultDto;
+    }
+
+    @ApiOperation(value = "删除script")
+    @ResponseBody
+    @DeleteMapping(value = "security/script")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "WAFTOKEN", value = "WAFTOKEN",
+                    dataType = "string", paramType = "cookie")
+    })
+    public ResultDto deleteScript(@RequestBody @Validated(NotExistSequence.class) ScriptConfigDto dto) {
+        ResultDto resultDto = new ResultDto();
+        if (ContextHolder.getClusterService().getScriptConfigs().containsKey(dto.getName())) {
+            ContextHolder.getClusterService().deleteScriptConfig(Optional.of(dto.getName()));
+            resultDto.setCode(HttpStatus.OK.value());
+        } else {
+            resultDto.setCode(HttpStatus.NOT_FOUND.value());
+        }
+        return resultDto;
+    }
+
     @ApiOperation(value = "获取response filter配置")
     @ResponseBody
     @GetMapping(value = "response")
@@ -192,7 +330,7 @@ public class ConfigController {
     public ResultDto setRequestConfig(@RequestBody @Validated SecurityConfigDto dto) {
         ResultDto resultDto = new ResultDto();
         resultDto.setCode(HttpStatus.OK.value());
-        ContextHolder.getClusterService().setSecurityConfig(Optional.of(dto.getFilterName()), Optional.of(BasicConfig.builder().isStart(dto.getIsStart()).build()));
+        ContextHolder.getClusterService().setSecurityConfig(Optional.of(dto.getFilterName()), Optional.of(BasicConfig.builder().isStart(dto.getIsStart()).extension(dto.getExtension()).build()));
         return resultDto;
     }
 
@@ -208,7 +346,7 @@ public class ConfigController {
         resultDto.setCode(HttpStatus.OK.value());
 
         ContextHolder.getClusterService().setSecurityConfigItem(Optional.of(dto.getFilterName()),
-                Optional.of(dto.getName()), Optional.of(BasicConfig.builder().isStart(dto.getIsStart()).extension(dto.getExtension()).build()));
+                Optional.of(dto.getName()), Optional.of(SecurityItemBasicConfig.builder().isStart(dto.getIsStart()).extension(dto.getExtension()).wafRoutes(dto.getWafRoutes()).build()));
 
         return resultDto;
     }
@@ -252,7 +390,7 @@ public class ConfigController {
     public ResultDto setUpstreamConfig(@RequestBody @Validated(ExistSequence.class) UpstreamConfigDto dto) {
         ResultDto resultDto = new ResultDto();
         resultDto.setCode(HttpStatus.OK.value());
-        ContextHolder.getClusterService().setUpstreamConfig(Optional.of(dto.getWafRoute()), Optional.of(BasicConfig.builder().isStart(dto.getIsStart()).build()));
+        ContextHolder.getClusterService().setUpstreamConfig(Optional.of(dto.getWafRoute()), Optional.of(BasicConfig.builder().isStart(dto.getIsStart()).extension(dto.getExtension()).build()));
         return resultDto;
     }
 
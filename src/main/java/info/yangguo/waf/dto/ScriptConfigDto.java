@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.dto;
+
+import info.yangguo.waf.validator.Exist;
+import info.yangguo.waf.validator.NotExist;
+import io.swagger.annotations.ApiModelProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.validator.constraints.NotEmpty;
+
+import javax.validation.constraints.Null;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ScriptConfigDto {
+    @NotEmpty
+    @ApiModelProperty(value = "脚本名称，例如login.groovy。", required = true)
+    private String name;
+    @NotEmpty(groups = Exist.class)
+    @Null(groups = NotExist.class)
+    @ApiModelProperty(value = "groovy脚本内容。")
+    private String script;
+}
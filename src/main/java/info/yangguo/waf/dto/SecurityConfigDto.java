@@ -24,6 +24,7 @@ import org.hibernate.validator.constraints.NotEmpty;
 
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
+import java.util.Map;
 
 @Data
 @Builder
@@ -37,4 +38,6 @@ public class SecurityConfigDto {
     @NotNull
     @ApiModelProperty(value = "是否开启，true启用，false关闭。")
     private Boolean isStart;
+    @ApiModelProperty(value = "拦截器扩展信息，engine为dfa时使用DFA匹配引擎，budget为单次正则匹配的步数预算，dimension为CCSecurity的统计维度(route、ip、ip_route、header:名称、cookie:名称)。")
+    private Map<String, Object> extension;
 }
@@ -28,6 +28,7 @@ import org.hibernate.validator.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Null;
 import javax.validation.constraints.Pattern;
+import java.util.List;
 import java.util.Map;
 
 @Data
@@ -50,4 +51,7 @@ public class SecurityConfigItemDto {
     @Null(groups = NotExist.class)
     @ApiModelProperty(value = "item扩展信息，目前只在CCSecurityFilter有使用。")
     private Map<String, Object> extension;
+    @Null(groups = NotExist.class)
+    @ApiModelProperty(value = "生效的wafRoute，为空时对所有wafRoute生效。")
+    private List<String> wafRoutes;
 }
@@ -26,6 +26,7 @@ import org.hibernate.validator.constraints.NotEmpty;
 
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Null;
+import java.util.Map;
 
 @Data
 @Builder
@@ -39,4 +40,6 @@ public class UpstreamConfigDto {
     @Null(groups = NotExist.class)
     @ApiModelProperty(value = "开关，true启用，false关闭。")
     private Boolean isStart;
+    @ApiModelProperty(value = "upstream扩展信息，priority为过载时的优先级(low、normal、critical)，默认为normal。")
+    private Map<String, Object> extension;
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.model;
+
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.request.security.RuleGuard;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Description:
+ * <p>
+ * 预编译之后的CCSecurity规则表，随CompiledSecurityConfig一起构建，不可变。
+ * <p>
+ * CC item的名称为wafRoute，扩展信息的key为url正则，value为阈值。构建时按wafRoute把规则整理成数组并按阈值升序排列，
+ * 请求时顺序匹配，第一个匹配成功的规则即为阈值最小的规则。
+ */
+@Getter
+public class CompiledCCRules {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompiledCCRules.class);
+    private static final Rule[] EMPTY = new Rule[0];
+
+    /**
+     * 统计维度，对应拦截器扩展信息中的dimension
+     */
+    public enum Dimension {
+        ROUTE, IP, IP_ROUTE, HEADER, COOKIE
+    }
+
+    private final Dimension dimension;
+    /**
+     * HEADER、COOKIE维度对应的名称
+     */
+    private final String dimensionName;
+    /**
+     * wafRoute对应的规则
+     */
+    private final Map<String, Rule[]> routes;
+
+    private CompiledCCRules(Dimension dimension, String dimensionName, Map<String, Rule[]> routes) {
+        this.dimension = dimension;
+        this.dimensionName = dimensionName;
+        this.routes = routes;
+    }
+
+    static CompiledCCRules compile(String filterName, Object dimension, CompiledRuleSet globalRules, Map<String, CompiledRuleSet> routeRules, long budget, boolean failClosed) {
+        Map<String, Rule[]> routes = Maps.newHashMap();
+        List<String> wafRoutes = Lists.newArrayList();
+        globalRules.getItems().forEach(item -> wafRoutes.add(item.getName()));
+        wafRoutes.addAll(routeRules.keySet());
+        for (String wafRoute : wafRoutes) {
+            if (routes.containsKey(wafRoute))
+                continue;
+            CompiledRuleSet rules = routeRules.getOrDefault(wafRoute, globalRules);
+            List<Rule> routeTable = Lists.newArrayList();
+            rules.stream().filter(item -> item.getName().equals(wafRoute)).forEach(item -> {
+                for (Map.Entry<String, Object> entry : item.getExtension().entrySet()) {
+                    Pattern pattern = item.getExtensionPatterns().get(entry.getKey());
+                    if (pattern == null)
+                        continue;
+                    if (!(entry.getValue() instanceof Number)) {
+                        LOGGER.warn("Filter[{}]|Route[{}]|Regex[{}] threshold is not a number", filterName, wafRoute, entry.getKey());
+                        continue;
+                    }
+                    routeTable.add(new Rule(filterName, entry.getKey(), pattern, ((Number) entry.getValue()).intValue(), budget, failClosed));
+                }
+            });
+            //排序是稳定的，阈值相同时保持配置顺序
+            routeTable.sort(Comparator.comparingInt(Rule::getThreshold));
+            if (!routeTable.isEmpty())
+                routes.put(wafRoute, routeTable.toArray(EMPTY));
+        }
+
+        Dimension parsedDimension = Dimension.IP_ROUTE;
+        String dimensionName = null;
+        if (dimension == null || "route".equals(dimension)) {
+            parsedDimension = Dimension.ROUTE;
+        } else if ("ip".equals(dimension)) {
+            parsedDimension = Dimension.IP;
+        } else if (dimension.toString().startsWith("header:")) {
+            parsedDimension = Dimension.HEADER;
+            dimensionName = dimension.toString().substring("header:".length());
+        } else if (dimension.toString().startsWith("cookie:")) {
+            parsedDimension = Dimension.COOKIE;
+            dimensionName = dimension.toString().substring("cookie:".length());
+        }
+        return new CompiledCCRules(parsedDimension, dimensionName, Collections.unmodifiableMap(routes));
+    }
+
+    /**
+     * @return wafRoute对应的规则，按阈值升序排列，没有规则时返回空数组
+     */
+    public Rule[] getRules(String wafRoute) {
+        Rule[] rules = wafRoute == null ? null : routes.get(wafRoute);
+        return rules == null ? EMPTY : rules;
+    }
+
+    @Getter
+    public static class Rule {
+        private final String regex;
+        private final Pattern pattern;
+        private final int threshold;
+        /**
+         * 由正则和阈值计算的hash，与统计维度的值一起组成计数key，阈值变化之后自动使用新的计数器
+         */
+        private final long seed;
+        private final Timer timer;
+        private final RuleGuard guard;
+        private final long budget;
+        private final boolean failClosed;
+
+        Rule(String filterName, String regex, Pattern pattern, int threshold, long budget, boolean failClosed) {
+            this.regex = regex;
+            this.pattern = pattern;
+            this.threshold = threshold;
+            this.seed = Hashing.murmur3_128().newHasher().putString(regex, StandardCharsets.UTF_8).putInt(threshold).hash().asLong();
+            this.timer = Constant.metrics.timer("CCSecurity[" + regex + "]");
+            this.guard = RuleGuard.of(filterName, regex);
+            this.budget = budget;
+            this.failClosed = failClosed;
+        }
+
+        /**
+         * 对应Matcher.matches()
+         */
+        public boolean matches(CharSequence path) {
+            Timer.Context context = timer.time();
+            try {
+                return guard.test(path, budget, failClosed, guarded -> pattern.matcher(guarded).matches());
+            } finally {
+                context.stop();
+            }
+        }
+    }
+}
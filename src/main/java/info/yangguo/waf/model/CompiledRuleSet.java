@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.model;
+
+import com.google.common.collect.Lists;
+import info.yangguo.waf.request.security.matcher.CidrTrie;
+import info.yangguo.waf.request.security.matcher.DfaMatcher;
+import info.yangguo.waf.request.security.matcher.ExactMatcher;
+import info.yangguo.waf.request.security.matcher.MultiPatternMatcher;
+import info.yangguo.waf.request.security.matcher.RuleMatcher;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Description:
+ * <p>
+ * 一组预编译之后的item及其匹配器，不可变。
+ * <p>
+ * 全局item组成一个规则集；指定了wafRoutes的item按route组成规则集，parent为全局规则集，匹配时先匹配parent再匹配自身，
+ * 所以一个route的请求只会匹配全局item以及该route的item。
+ */
+@Getter
+public class CompiledRuleSet {
+    /**
+     * 先于自身匹配的规则集，全局规则集为null
+     */
+    private final CompiledRuleSet parent;
+    /**
+     * 本规则集的item，顺序与配置一致
+     */
+    private final List<CompiledSecurityConfigItem> items;
+    /**
+     * 所有item的匹配器，用于find()。拦截器扩展信息中engine为dfa时使用DfaMatcher，否则使用MultiPatternMatcher
+     */
+    private final RuleMatcher matcher;
+    /**
+     * 所有item的整串匹配器，用于matches()
+     */
+    private final ExactMatcher exactMatcher;
+    /**
+     * IP/CIDR item组成的前缀树，value为item下标，没有这类item时为null
+     */
+    private final CidrTrie ipTrie;
+
+    CompiledRuleSet(CompiledRuleSet parent, List<CompiledSecurityConfigItem> items, CidrTrie ipTrie, boolean dfa) {
+        this.parent = parent;
+        this.items = Collections.unmodifiableList(items);
+        this.ipTrie = ipTrie != null && ipTrie.size() > 0 ? ipTrie : null;
+        //IP前缀item的pattern为null，不会进入正则匹配器
+        List<String> regexes = Lists.transform(items, item -> item.getPattern() == null ? null : item.getName());
+        this.matcher = dfa ? DfaMatcher.compile(regexes) : MultiPatternMatcher.compile(regexes);
+        this.exactMatcher = ExactMatcher.compile(regexes);
+    }
+
+    /**
+     * @return 包括parent在内的所有item
+     */
+    public Stream<CompiledSecurityConfigItem> stream() {
+        return parent == null ? items.stream() : Stream.concat(parent.stream(), items.stream());
+    }
+
+    /**
+     * 按配置顺序查找第一个find()成功的item
+     *
+     * @param input 待匹配的内容
+     * @return 匹配成功的item，没有则返回null
+     */
+    public CompiledSecurityConfigItem find(CharSequence input) {
+        if (parent != null) {
+            CompiledSecurityConfigItem item = parent.find(input);
+            if (item != null)
+                return item;
+        }
+        if (items.isEmpty())
+            return null;
+        int index = matcher.find(input, i -> items.get(i).find(input), i -> items.get(i).accept());
+        return index < 0 ? null : items.get(index);
+    }
+
+    /**
+     * 先在IP前缀树中查找最长匹配前缀，没有命中时再按配置顺序匹配正则item
+     *
+     * @param ip IPv4或者IPv6地址
+     * @return 匹配成功的item，没有则返回null
+     */
+    public CompiledSecurityConfigItem findIp(String ip) {
+        if (parent != null) {
+            CompiledSecurityConfigItem item = parent.findIp(ip);
+            if (item != null)
+                return item;
+        }
+        if (ipTrie != null) {
+            int index = ipTrie.lookup(ip);
+            if (index >= 0)
+                return items.get(index);
+        }
+        if (items.isEmpty())
+            return null;
+        int index = matcher.find(ip, i -> items.get(i).find(ip), i -> items.get(i).accept());
+        return index < 0 ? null : items.get(index);
+    }
+
+    /**
+     * 按配置顺序查找第一个matches()成功的item
+     *
+     * @param input 待匹配的内容
+     * @return 匹配成功的item，没有则返回null
+     */
+    public CompiledSecurityConfigItem matches(CharSequence input) {
+        if (parent != null) {
+            CompiledSecurityConfigItem item = parent.matches(input);
+            if (item != null)
+                return item;
+        }
+        if (items.isEmpty())
+            return null;
+        int index = exactMatcher.matches(input, i -> items.get(i).matches(input), i -> items.get(i).accept());
+        return index < 0 ? null : items.get(index);
+    }
+}
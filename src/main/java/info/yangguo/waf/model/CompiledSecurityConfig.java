@@ -0,0 +1,174 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.model;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import info.yangguo.waf.request.security.CCSecurity;
+import info.yangguo.waf.request.security.IpSecurity;
+import info.yangguo.waf.request.security.RuleGuard;
+import info.yangguo.waf.request.security.WIpSecurity;
+import info.yangguo.waf.request.security.matcher.CidrTrie;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Description:
+ * <p>
+ * 预编译之后的security配置，由ClusterService在配置变更时构建，不可变。
+ * 请求过程中只会读取其中的Pattern，不会再有正则编译。
+ * <p>
+ * 没有指定wafRoutes的item组成全局规则集，指定了wafRoutes的item按route分别组成规则集，
+ * 请求时通过getRules()一次hash查找得到该route需要匹配的规则集。
+ */
+@Getter
+public class CompiledSecurityConfig {
+    public static final String ENGINE = "engine";
+    public static final String ENGINE_DFA = "dfa";
+    /**
+     * 拦截器扩展信息中单次正则匹配的步数预算，没有配置时使用RuleGuard.DEFAULT_BUDGET
+     */
+    public static final String BUDGET = "budget";
+    /**
+     * IpSecurity/WIpSecurity的item扩展信息中为true时，该item同时在连接建立时按TCP对端地址生效
+     */
+    public static final String CONNECTION = "connection";
+    /**
+     * 这些拦截器中合法的IP/CIDR item放入CidrTrie，其余item仍然按照正则匹配。
+     * IP item按精确地址匹配，不再是正则find，例如10.0.0.1不会命中10.0.0.10~10.0.0.19，需要按前缀匹配时使用CIDR或者写成正则(例如10\.0\.0\.1\d*)
+     */
+    private static final Set<String> IP_FILTERS = ImmutableSet.of(IpSecurity.class.getName(), WIpSecurity.class.getName());
+    /**
+     * 拦截器名称
+     */
+    private final String filterName;
+    /**
+     * 配置版本，每次security配置变更都会递增，用于区分缓存的匹配结果
+     */
+    private final long version;
+    /**
+     * 拦截器开关
+     */
+    private final boolean start;
+    /**
+     * 拦截器扩展信息
+     */
+    private final Map<String, Object> extension;
+    /**
+     * 全局规则集
+     */
+    private final CompiledRuleSet globalRules;
+    /**
+     * wafRoute对应的规则集，parent为globalRules
+     */
+    private final Map<String, CompiledRuleSet> routeRules;
+    /**
+     * CCSecurity的规则表，其他拦截器为null
+     */
+    private final CompiledCCRules ccRules;
+    /**
+     * 全局规则中标记了connection的IP规则，供ConnectionFilter按TCP对端地址匹配，其他拦截器为null
+     */
+    private final CompiledRuleSet connectionRules;
+
+    private CompiledSecurityConfig(String filterName, long version, boolean start, Map<String, Object> extension, CompiledRuleSet globalRules, Map<String, CompiledRuleSet> routeRules, CompiledCCRules ccRules, CompiledRuleSet connectionRules) {
+        this.filterName = filterName;
+        this.version = version;
+        this.start = start;
+        this.extension = extension;
+        this.globalRules = globalRules;
+        this.routeRules = routeRules;
+        this.ccRules = ccRules;
+        this.connectionRules = connectionRules;
+    }
+
+    public static CompiledSecurityConfig compile(SecurityConfig config, long version) {
+        BasicConfig basicConfig = config.getConfig();
+        boolean start = basicConfig != null && Boolean.TRUE.equals(basicConfig.getIsStart());
+        Map<String, Object> extension = Collections.emptyMap();
+        if (basicConfig != null && basicConfig.getExtension() != null)
+            extension = Collections.unmodifiableMap(basicConfig.getExtension());
+        boolean dfa = ENGINE_DFA.equals(extension.get(ENGINE));
+        boolean ipFilter = IP_FILTERS.contains(config.getFilterName());
+        long budget = extension.get(BUDGET) instanceof Number ? ((Number) extension.get(BUDGET)).longValue() : RuleGuard.DEFAULT_BUDGET;
+        boolean failClosed = RuleGuard.isFailClosed(extension.get(RuleGuard.FAIL), RuleGuard.DEFAULT_FAIL_CLOSED);
+
+        //按route分组，没有指定wafRoutes的item放在key为null的分组
+        Map<String, List<SecurityConfigItem>> groups = Maps.newLinkedHashMap();
+        groups.put(null, Lists.newArrayList());
+        if (config.getSecurityConfigItems() != null) {
+            for (SecurityConfigItem item : config.getSecurityConfigItems()) {
+                if (item.getConfig() != null && Boolean.TRUE.equals(item.getConfig().getIsStart())) {
+                    List<String> wafRoutes = item.getConfig().getWafRoutes();
+                    if (wafRoutes == null || wafRoutes.isEmpty()) {
+                        groups.get(null).add(item);
+                    } else {
+                        for (String wafRoute : wafRoutes) {
+                            groups.computeIfAbsent(wafRoute, key -> Lists.newArrayList()).add(item);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<SecurityConfigItem> globalItems = groups.remove(null);
+        CompiledRuleSet globalRules = compileRules(config.getFilterName(), null, globalItems, ipFilter, dfa, budget, failClosed);
+        CompiledRuleSet connectionRules = null;
+        if (ipFilter) {
+            List<SecurityConfigItem> connectionItems = Lists.newArrayList();
+            for (SecurityConfigItem item : globalItems) {
+                Map<String, Object> itemExtension = item.getConfig().getExtension();
+                if (itemExtension != null && "true".equals(String.valueOf(itemExtension.get(CONNECTION))))
+                    connectionItems.add(item);
+            }
+            connectionRules = compileRules(config.getFilterName(), null, connectionItems, true, dfa, budget, failClosed);
+        }
+        Map<String, CompiledRuleSet> routeRules = Maps.newHashMapWithExpectedSize(groups.size());
+        for (Map.Entry<String, List<SecurityConfigItem>> entry : groups.entrySet()) {
+            routeRules.put(entry.getKey(), compileRules(config.getFilterName(), globalRules, entry.getValue(), ipFilter, dfa, budget, failClosed));
+        }
+        CompiledCCRules ccRules = null;
+        if (CCSecurity.class.getName().equals(config.getFilterName()))
+            ccRules = CompiledCCRules.compile(config.getFilterName(), extension.get(CCSecurity.DIMENSION), globalRules, routeRules, budget, failClosed);
+        return new CompiledSecurityConfig(config.getFilterName(), version, start, extension, globalRules, Collections.unmodifiableMap(routeRules), ccRules, connectionRules);
+    }
+
+    private static CompiledRuleSet compileRules(String filterName, CompiledRuleSet parent, List<SecurityConfigItem> configItems, boolean ipFilter, boolean dfa, long budget, boolean failClosed) {
+        List<CompiledSecurityConfigItem> items = Lists.newArrayListWithCapacity(configItems.size());
+        CidrTrie ipTrie = ipFilter ? new CidrTrie() : null;
+        for (SecurityConfigItem item : configItems) {
+            if (ipTrie != null && ipTrie.add(item.getName(), items.size()))
+                items.add(CompiledSecurityConfigItem.ipPrefix(item));
+            else
+                items.add(CompiledSecurityConfigItem.compile(filterName, item, budget, failClosed));
+        }
+        return new CompiledRuleSet(parent, items, ipTrie, dfa);
+    }
+
+    /**
+     * @param wafRoute 请求的wafRoute
+     * @return 该wafRoute需要匹配的规则集，没有单独配置的route返回全局规则集
+     */
+    public CompiledRuleSet getRules(String wafRoute) {
+        CompiledRuleSet rules = wafRoute == null ? null : routeRules.get(wafRoute);
+        return rules == null ? globalRules : rules;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.model;
+
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Maps;
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.request.security.RuleGuard;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Description:
+ * <p>
+ * 预编译之后的security item，配置变更时构建，请求过程中只读。
+ */
+@Getter
+public class CompiledSecurityConfigItem {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompiledSecurityConfigItem.class);
+    /**
+     * 名称
+     */
+    private final String name;
+    /**
+     * name对应的正则，name不是合法正则时为null
+     */
+    private final Pattern pattern;
+    /**
+     * 自定义扩展信息
+     */
+    private final Map<String, Object> extension;
+    /**
+     * extension key对应的正则，目前只在CCSecurity有使用
+     */
+    private final Map<String, Pattern> extensionPatterns;
+    /**
+     * item级别的metrics，IP前缀item为null
+     */
+    private final Timer timer;
+    /**
+     * 执行保护，IP前缀item为null
+     */
+    private final RuleGuard guard;
+    /**
+     * 单次匹配的步数预算，小于等于0表示不限制
+     */
+    private final long budget;
+    /**
+     * 超出预算时是否按命中处理，item扩展信息中的fail优先，其次是拦截器扩展信息
+     */
+    private final boolean failClosed;
+
+    private CompiledSecurityConfigItem(String name, Pattern pattern, Map<String, Object> extension, Map<String, Pattern> extensionPatterns, Timer timer, RuleGuard guard, long budget, boolean failClosed) {
+        this.name = name;
+        this.pattern = pattern;
+        this.extension = extension;
+        this.extensionPatterns = extensionPatterns;
+        this.timer = timer;
+        this.guard = guard;
+        this.budget = budget;
+        this.failClosed = failClosed;
+    }
+
+    public static CompiledSecurityConfigItem compile(String filterName, SecurityConfigItem item, long budget, boolean failClosed) {
+        Pattern pattern = compilePattern(filterName, item.getName());
+
+        Map<String, Object> extension = item.getConfig().getExtension();
+        Map<String, Pattern> extensionPatterns = Collections.emptyMap();
+        if (extension != null && !extension.isEmpty()) {
+            extensionPatterns = Maps.newLinkedHashMap();
+            for (String key : extension.keySet()) {
+                Pattern extensionPattern = compilePattern(filterName, key);
+                if (extensionPattern != null)
+                    extensionPatterns.put(key, extensionPattern);
+            }
+            extension = Collections.unmodifiableMap(Maps.newLinkedHashMap(extension));
+            extensionPatterns = Collections.unmodifiableMap(extensionPatterns);
+        } else {
+            extension = Collections.emptyMap();
+        }
+
+        String simpleName = filterName.substring(filterName.lastIndexOf('.') + 1);
+        Timer timer = Constant.metrics.timer(simpleName + "[" + item.getName() + "]");
+        failClosed = RuleGuard.isFailClosed(extension.get(RuleGuard.FAIL), failClosed);
+        return new CompiledSecurityConfigItem(item.getName(), pattern, extension, extensionPatterns, timer, RuleGuard.of(filterName, item.getName()), budget, failClosed);
+    }
+
+    /**
+     * IP/CIDR item由CidrTrie匹配，不需要编译正则，也不单独创建metrics
+     */
+    public static CompiledSecurityConfigItem ipPrefix(SecurityConfigItem item) {
+        Map<String, Object> extension = item.getConfig().getExtension();
+        extension = extension == null ? Collections.emptyMap() : Collections.unmodifiableMap(Maps.newLinkedHashMap(extension));
+        return new CompiledSecurityConfigItem(item.getName(), null, extension, Collections.emptyMap(), null, null, 0, false);
+    }
+
+    private static Pattern compilePattern(String filterName, String regex) {
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            LOGGER.warn("Filter[{}]|Regex[{}] is not a valid regex", filterName, regex);
+            return null;
+        }
+    }
+
+    /**
+     * 匹配器不执行正则就判定命中时(字面量、DFA)调用，计入item的metrics并检查规则是否已被禁用
+     *
+     * @return false:规则不可用或者已被禁用
+     */
+    public boolean accept() {
+        if (pattern == null)
+            return false;
+        timer.update(0, TimeUnit.NANOSECONDS);
+        return !guard.isDisabled();
+    }
+
+    /**
+     * 对应Matcher.find()
+     *
+     * @param input 待匹配的内容
+     * @return true:正则匹配成功或者超出预算且failClosed,false:正则匹配失败、超出预算或者规则已被禁用
+     */
+    public boolean find(CharSequence input) {
+        if (pattern == null)
+            return false;
+        Timer.Context context = timer.time();
+        try {
+            return guard.test(input, budget, failClosed, guarded -> pattern.matcher(guarded).find());
+        } finally {
+            context.stop();
+        }
+    }
+
+    /**
+     * 对应Matcher.matches()
+     *
+     * @param input 待匹配的内容
+     * @return true:正则匹配成功或者超出预算且failClosed,false:正则匹配失败、超出预算或者规则已被禁用
+     */
+    public boolean matches(CharSequence input) {
+        if (pattern == null)
+            return false;
+        Timer.Context context = timer.time();
+        try {
+            return guard.test(input, budget, failClosed, guarded -> pattern.matcher(guarded).matches());
+        } finally {
+            context.stop();
+        }
+    }
+}
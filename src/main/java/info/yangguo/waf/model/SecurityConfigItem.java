@@ -37,5 +37,5 @@ public class SecurityConfigItem implements Serializable {
     /**
      * 配置信息
      */
-    private BasicConfig config;
+    private SecurityItemBasicConfig config;
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SecurityFilterStat {
+    /**
+     * 拦截器名称
+     */
+    private String filterName;
+    /**
+     * 当前执行顺序，从0开始
+     */
+    private Integer order;
+    /**
+     * 是否是黑名单
+     */
+    private Boolean isBlacklist;
+    /**
+     * 是否参与自适应排序
+     */
+    private Boolean isReorderable;
+    /**
+     * 累计执行次数
+     */
+    private Long count;
+    /**
+     * 累计命中次数
+     */
+    private Long hitCount;
+    /**
+     * 平均耗时，单位毫秒
+     */
+    private Double meanCost;
+    /**
+     * 最近一次排序时的得分，即平均耗时/命中率，越小越靠前
+     */
+    private Double score;
+}
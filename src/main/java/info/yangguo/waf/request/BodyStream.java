@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
+import static io.netty.util.CharsetUtil.UTF_8;
+
+/**
+ * Description:
+ * <p>
+ * 请求体跨HttpContent的流式匹配状态，由RequestView持有，同一个请求的chunk按顺序经过，不做同步。
+ * 只保留跨chunk所需的少量内容：不完整的UTF-8字节、上一段内容末尾的overlap窗口以及urlencoded中尚未结束的参数，
+ * 所以不论请求体多大，占用的内存只和chunk大小以及配置的上限有关。
+ * <p>
+ * 长度不超过overlap+1的匹配即使跨越了chunk也能被发现，更长的匹配只能在单个窗口内发现。
+ */
+public class BodyStream {
+    private static final byte[] EMPTY = new byte[0];
+    /**
+     * 上一个chunk末尾不完整的UTF-8字节，最多3个
+     */
+    private byte[] partial = EMPTY;
+    /**
+     * 上一段内容末尾的overlap个字符
+     */
+    private String tail = "";
+    /**
+     * urlencoded中还没有遇到&的参数
+     */
+    private String pending = "";
+
+    /**
+     * 按UTF-8解码chunk，被chunk切断的多字节字符留到下一个chunk一起解码
+     *
+     * @param content chunk内容，不会修改readerIndex
+     * @param last    是否为最后一个chunk，是的话不再保留不完整的字节
+     */
+    public String decode(ByteBuf content, boolean last) {
+        int index = content.readerIndex();
+        int length = content.readableBytes();
+        String head = "";
+        if (partial.length > 0) {
+            int take = Math.min(sequenceLength(partial[0]) - partial.length, length);
+            byte[] bytes = Arrays.copyOf(partial, partial.length + take);
+            content.getBytes(index, bytes, partial.length, take);
+            index += take;
+            length -= take;
+            if (bytes.length < sequenceLength(bytes[0]) && !last) {
+                partial = bytes;
+                return "";
+            }
+            partial = EMPTY;
+            head = new String(bytes, UTF_8);
+        }
+        int complete = last ? length : completeLength(content, index, length);
+        if (complete < length) {
+            partial = new byte[length - complete];
+            content.getBytes(index + complete, partial);
+        }
+        String body = content.toString(index, complete, UTF_8);
+        return head.isEmpty() ? body : head + body;
+    }
+
+    /**
+     * @param text    本chunk解码之后的内容
+     * @param overlap 保留的窗口大小，0表示不保留
+     * @return 上一段末尾的窗口加上本段内容
+     */
+    public String window(String text, int overlap) {
+        String input = tail.isEmpty() ? text : tail + text;
+        tail = suffix(input, overlap);
+        return input;
+    }
+
+    /**
+     * urlencoded请求体按&切分，本段最后一个不完整的参数留到下一段，参数超过maxPending时先交给调用方匹配，
+     * 只保留末尾的overlap个字符，避免超长参数占用内存。
+     *
+     * @param text 本chunk解码之后的内容
+     * @param last 是否为最后一个chunk
+     * @return 可以直接解析的完整参数，没有时返回空串
+     */
+    public String pairs(String text, boolean last, int overlap, int maxPending) {
+        String input = pending.isEmpty() ? text : pending + text;
+        if (last) {
+            pending = "";
+            return input;
+        }
+        int index = input.lastIndexOf('&');
+        if (index < 0) {
+            if (input.length() <= maxPending) {
+                pending = input;
+                return "";
+            }
+            pending = suffix(input, overlap);
+            return input;
+        }
+        String rest = input.substring(index + 1);
+        if (rest.length() > maxPending) {
+            //与没有&时一样，超长的部分也要交给调用方匹配
+            pending = suffix(rest, overlap);
+            return input;
+        }
+        pending = rest;
+        return input.substring(0, index);
+    }
+
+    private static String suffix(String input, int length) {
+        if (length <= 0)
+            return "";
+        if (input.length() <= length)
+            return input;
+        int begin = input.length() - length;
+        //不从代理对中间切开
+        if (Character.isLowSurrogate(input.charAt(begin)))
+            begin--;
+        return input.substring(begin);
+    }
+
+    /**
+     * @return chunk中完整UTF-8字符的字节数，末尾被切断的字符不计入
+     */
+    static int completeLength(ByteBuf content, int index, int length) {
+        for (int i = length - 1; i >= 0 && i >= length - 3; i--) {
+            byte b = content.getByte(index + i);
+            if ((b & 0xC0) != 0x80)
+                return i + sequenceLength(b) > length ? i : length;
+        }
+        return length;
+    }
+
+    /**
+     * @return 以该字节开头的UTF-8字符的字节数，非法的首字节按1处理
+     */
+    static int sequenceLength(byte lead) {
+        if ((lead & 0xE0) == 0xC0)
+            return 2;
+        if ((lead & 0xF0) == 0xE0)
+            return 3;
+        if ((lead & 0xF8) == 0xF0)
+            return 4;
+        return 1;
+    }
+}
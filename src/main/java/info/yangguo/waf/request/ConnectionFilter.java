@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request;
+
+import com.codahale.metrics.Meter;
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.config.ContextHolder;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.request.security.IpSecurity;
+import info.yangguo.waf.request.security.WIpSecurity;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.ipfilter.AbstractRemoteAddressFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description:
+ * <p>
+ * 连接级别的IP拦截，位于client连接pipeline的最前面(包括ssl之前)，连接建立时按对端地址判断一次，
+ * 被拒绝的连接不会进行TLS握手和HTTP解码。判断完成之后从pipeline中移除，不影响后续请求。
+ * <p>
+ * 拒绝条件：HeavyHitterDetector已封禁该IP，或者IpSecurity中扩展信息connection为true的全局规则命中且WIpSecurity的全局规则没有命中。
+ * IpSecurity的规则是针对X-Real-IP编写的，对端地址为前置代理时(例如Nginx)这里看到的是代理的地址，
+ * 所以只有明确标记为连接级别的规则才在这里生效，其余规则仍然由SecurityFilter按X-Real-IP拦截。
+ * 指定了wafRoutes的规则依赖请求中的route，只能在SecurityFilter中判断。
+ */
+@ChannelHandler.Sharable
+public class ConnectionFilter extends AbstractRemoteAddressFilter<InetSocketAddress> {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionFilter.class);
+    public static final ConnectionFilter INSTANCE = new ConnectionFilter();
+    private static final boolean ENABLED = "on".equals(Constant.wafConfs.get("waf.security.connection_filter"));
+    /**
+     * 关闭连接之前的等待时间，单位毫秒，期间不读取数据，用于拖慢重连
+     */
+    private static final long DELAY_MILLIS;
+    private static final Meter rejected = Constant.metrics.meter("ConnectionFilter[rejected]");
+
+    static {
+        String delayConf = Constant.wafConfs.get("waf.security.connection_filter.delay");
+        DELAY_MILLIS = delayConf == null ? 0 : Long.parseLong(delayConf);
+    }
+
+    private ConnectionFilter() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    protected boolean accept(ChannelHandlerContext ctx, InetSocketAddress remoteAddress) {
+        if (remoteAddress.getAddress() == null)
+            return true;
+        String ip = remoteAddress.getAddress().getHostAddress();
+        if (HeavyHitterDetector.isEnabled() && HeavyHitterDetector.isBanned(ip))
+            return false;
+        Map<String, CompiledSecurityConfig> configs = ContextHolder.getClusterService().getCompiledSecurityConfigs();
+        CompiledSecurityConfig blacklist = configs.get(IpSecurity.class.getName());
+        if (blacklist == null || !blacklist.isStart() || blacklist.getConnectionRules() == null || blacklist.getConnectionRules().findIp(ip) == null)
+            return true;
+        CompiledSecurityConfig whitelist = configs.get(WIpSecurity.class.getName());
+        return whitelist != null && whitelist.isStart() && whitelist.getGlobalRules().findIp(ip) != null;
+    }
+
+    @Override
+    protected ChannelFuture channelRejected(ChannelHandlerContext ctx, InetSocketAddress remoteAddress) {
+        rejected.mark();
+        logger.debug("connection from {} is rejected", remoteAddress);
+        if (DELAY_MILLIS <= 0)
+            return null;
+        //本handler返回之后会从pipeline中移除，停止读取保证延迟期间不会解码
+        ctx.channel().config().setAutoRead(false);
+        ChannelPromise promise = ctx.newPromise();
+        ctx.executor().schedule(() -> promise.trySuccess(), DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        return promise;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request;
+
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.model.BanStat;
+import info.yangguo.waf.model.HeavyHitterStat;
+import info.yangguo.waf.request.security.limiter.BanList;
+import info.yangguo.waf.request.security.limiter.HeavyHitters;
+import info.yangguo.waf.request.security.limiter.KeyHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Description:
+ * <p>
+ * 高频访问检测，按客户端IP以及IP+URL两个维度统计每个窗口的请求数，超过阈值时自动封禁一段时间。
+ * 由SecurityFilter在所有security拦截器之前调用，统计和封禁检查都只访问固定大小的内存结构。
+ * 客户端IP取RequestView.getClientIp()，只有可信代理转发的请求才采用X-Real-IP，客户端不能通过伪造X-Real-IP躲避封禁或者让其他IP被封禁。
+ */
+public class HeavyHitterDetector {
+    private static final Logger logger = LoggerFactory.getLogger(HeavyHitterDetector.class);
+    public static final String TYPE_IP = "ip";
+    public static final String TYPE_IP_URL = "ip_url";
+    /**
+     * 两个维度使用不同的hash种子，IP+URL的key为 IP + 空格 + URL
+     */
+    private static final long IP_SEED = 0x2545f4914f6cdd1dL;
+    private static final long IP_URL_SEED = 0x5851f42d4c957f2dL;
+    private static final boolean ENABLED = "on".equals(Constant.wafConfs.get("waf.security.heavy_hitter"));
+    private static final long WINDOW_MILLIS = parse("waf.security.heavy_hitter.window", 10) * 1000L;
+    private static final int IP_THRESHOLD = parse("waf.security.heavy_hitter.ip_threshold", 2000);
+    private static final int IP_URL_THRESHOLD = parse("waf.security.heavy_hitter.ip_url_threshold", 500);
+    private static final long BAN_TTL_MILLIS = parse("waf.security.heavy_hitter.ban_ttl", 600) * 1000L;
+    private static final int WIDTH = parse("waf.security.heavy_hitter.width", 65536);
+    private static final int TOP_K = parse("waf.security.heavy_hitter.top_k", 100);
+    private static final HeavyHitters ipHitters = ENABLED && IP_THRESHOLD > 0 ? new HeavyHitters(WINDOW_MILLIS, WIDTH, TOP_K) : null;
+    private static final HeavyHitters ipUrlHitters = ENABLED && IP_URL_THRESHOLD > 0 ? new HeavyHitters(WINDOW_MILLIS, WIDTH, TOP_K) : null;
+    private static final BanList banList = new BanList();
+
+    private static int parse(String key, int defaultValue) {
+        String conf = Constant.wafConfs.get(key);
+        return conf == null ? defaultValue : Integer.parseInt(conf);
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 计数并检查是否被封禁
+     *
+     * @return true:请求来自已封禁或者刚超过阈值的key，无法得到客户端IP时不统计
+     */
+    public static boolean check(RequestView requestView) {
+        String realIp = requestView.getClientIp();
+        if (realIp == null)
+            return false;
+        String path = requestView.getPath();
+        long now = System.currentTimeMillis();
+        long ipHash = KeyHash.finish(KeyHash.append(IP_SEED, realIp));
+        long ipUrlHash = KeyHash.finish(KeyHash.append(KeyHash.append(KeyHash.append(IP_URL_SEED, realIp), ' '), path));
+        if (!banList.isEmpty() && (banList.isBanned(ipHash, now) || banList.isBanned(ipUrlHash, now)))
+            return true;
+
+        if (ipHitters != null) {
+            int estimate = ipHitters.add(ipHash, now);
+            if (ipHitters.isCandidate(estimate))
+                ipHitters.offer(ipHash, realIp, estimate);
+            if (estimate >= IP_THRESHOLD) {
+                ban(ipHash, TYPE_IP, realIp, estimate, now);
+                return true;
+            }
+        }
+        if (ipUrlHitters != null) {
+            int estimate = ipUrlHitters.add(ipUrlHash, now);
+            if (ipUrlHitters.isCandidate(estimate))
+                ipUrlHitters.offer(ipUrlHash, realIp + " " + path, estimate);
+            if (estimate >= IP_URL_THRESHOLD) {
+                ban(ipUrlHash, TYPE_IP_URL, realIp + " " + path, estimate, now);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 只检查IP维度的封禁，用于连接建立时
+     */
+    public static boolean isBanned(String ip) {
+        return !banList.isEmpty() && banList.isBanned(KeyHash.finish(KeyHash.append(IP_SEED, ip)), System.currentTimeMillis());
+    }
+
+    private static void ban(long hash, String type, String key, int count, long now) {
+        banList.ban(hash, type, key, count, now + BAN_TTL_MILLIS);
+        logger.info("type:ban,key:{},cause:{} requests in {}s", key, count, WINDOW_MILLIS / 1000);
+    }
+
+    /**
+     * @return 当前窗口各维度的高频key
+     */
+    public static List<HeavyHitterStat> getHeavyHitters() {
+        Stream<HeavyHitterStat> ipStats = ipHitters == null ? Stream.empty() : ipHitters.top().stream()
+                .map(hitter -> HeavyHitterStat.builder().type(TYPE_IP).key(hitter.getKey()).count(hitter.getCount()).build());
+        Stream<HeavyHitterStat> ipUrlStats = ipUrlHitters == null ? Stream.empty() : ipUrlHitters.top().stream()
+                .map(hitter -> HeavyHitterStat.builder().type(TYPE_IP_URL).key(hitter.getKey()).count(hitter.getCount()).build());
+        return Stream.concat(ipStats, ipUrlStats).collect(Collectors.toList());
+    }
+
+    public static List<BanStat> getBans() {
+        return banList.list(System.currentTimeMillis()).stream()
+                .map(ban -> BanStat.builder().type(ban.getType()).key(ban.getKey()).count(ban.getCount()).expireAt(ban.getExpireAt()).build())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param key IP或者 IP + 空格 + URL
+     * @return true:存在该封禁并已解除
+     */
+    public static boolean revoke(String key) {
+        return banList.revoke(key);
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.netty.util.CharsetUtil.UTF_8;
+
+/**
+ * Description:
+ * <p>
+ * multipart/form-data请求体的增量解析器，由RequestView持有，同一个请求的chunk按顺序经过，不做同步。
+ * 直接在ByteBuf上通过forEachByte逐字节推进状态机，只识别boundary和part header，
+ * 文件内容不会被复制或者解码，part内容中只需要查找\r，其余字节由ByteProcessor.FIND_CR跳过。
+ * <p>
+ * Content-Disposition header不会整行缓存，而是在字节经过时直接切分参数，只缓存filename/filename*的值，
+ * 所以不论在filename前后填充多长的参数都不会影响提取。值超出缓冲区时只保留末尾(扩展名所在的部分)。
+ */
+public class MultipartParser implements ByteProcessor {
+    private static final byte[] CONTENT_DISPOSITION = "content-disposition:".getBytes(UTF_8);
+    private static final byte[] FILENAME = "filename".getBytes(UTF_8);
+    /**
+     * 在part内容中查找分隔符
+     */
+    private static final int BODY = 0;
+    /**
+     * 分隔符之后到行尾，遇到--表示结束
+     */
+    private static final int DELIMITER = 1;
+    /**
+     * part header
+     */
+    private static final int HEADERS = 2;
+    /**
+     * 结束分隔符之后的内容，不再解析
+     */
+    private static final int EPILOGUE = 3;
+
+    /**
+     * Content-Disposition中第一个;之前的disposition type
+     */
+    private static final int PARAM_TYPE = 0;
+    private static final int PARAM_NAME = 1;
+    /**
+     * =之后、值开始之前的空白
+     */
+    private static final int PARAM_VALUE_START = 2;
+    private static final int PARAM_TOKEN = 3;
+    private static final int PARAM_QUOTED = 4;
+    /**
+     * 引号内的\之后
+     */
+    private static final int PARAM_ESCAPE = 5;
+    /**
+     * 引号结束之后到下一个;
+     */
+    private static final int PARAM_SKIP = 6;
+
+    /**
+     * \r\n--boundary
+     */
+    private final byte[] delimiter;
+    private int state = BODY;
+    /**
+     * 已经匹配的分隔符字节数，请求体以--boundary开头，所以初始时视为已经匹配了\r\n
+     */
+    private int matched = 2;
+    private boolean dash;
+    /**
+     * 当前header行的字节数，不包括还没有确定是否为行尾的\r
+     */
+    private long lineLength;
+    /**
+     * header行中的\r要看到下一个字节才能确定是不是行尾，先记录下来
+     */
+    private boolean pendingCr;
+    /**
+     * 当前header行目前为止是否与content-disposition:一致
+     */
+    private boolean disposition;
+    private int paramState;
+    /**
+     * 当前参数名与filename/filename*的匹配情况，-1表示不是
+     */
+    private int nameMatched;
+    private boolean extValue;
+    /**
+     * 当前参数是否为filename/filename*，是的话值写入value
+     */
+    private boolean capture;
+    /**
+     * filename值的环形缓冲区，valueLength为写入的总字节数
+     */
+    private final byte[] value;
+    private long valueLength;
+    private List<String> filenames;
+
+    /**
+     * @param boundary       Content-Type中的boundary
+     * @param maxValueLength filename值缓冲区大小
+     */
+    public MultipartParser(String boundary, int maxValueLength) {
+        byte[] bytes = boundary.getBytes(UTF_8);
+        this.delimiter = new byte[bytes.length + 4];
+        delimiter[0] = '\r';
+        delimiter[1] = '\n';
+        delimiter[2] = '-';
+        delimiter[3] = '-';
+        System.arraycopy(bytes, 0, delimiter, 4, bytes.length);
+        this.value = new byte[Math.max(maxValueLength, 16)];
+    }
+
+    /**
+     * @param contentType Content-Type header
+     * @return boundary参数，没有时返回null
+     */
+    public static String boundary(String contentType) {
+        if (contentType == null)
+            return null;
+        for (String param : contentType.split(";")) {
+            int index = param.indexOf('=');
+            if (index > 0 && param.substring(0, index).trim().equalsIgnoreCase("boundary")) {
+                String value = param.substring(index + 1).trim();
+                if (value.length() > 1 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"')
+                    value = value.substring(1, value.length() - 1);
+                return value.isEmpty() ? null : value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解析一个chunk，不会修改readerIndex
+     *
+     * @return 本chunk中完整解析出来的part header里的文件名，没有时返回空列表
+     */
+    public List<String> parse(ByteBuf content) {
+        int index = content.readerIndex();
+        int end = content.writerIndex();
+        while (index < end && state != EPILOGUE) {
+            if (state == BODY && matched == 0) {
+                index = content.forEachByte(index, end - index, ByteProcessor.FIND_CR);
+                if (index < 0)
+                    break;
+            }
+            index = content.forEachByte(index, end - index, this);
+            if (index < 0)
+                break;
+            index++;
+        }
+        List<String> result = filenames == null ? Collections.emptyList() : filenames;
+        filenames = null;
+        return result;
+    }
+
+    /**
+     * 返回false时当前字节已经处理完，parse()根据状态决定接下来是跳到下一个\r还是继续逐字节处理
+     */
+    @Override
+    public boolean process(byte value) {
+        switch (state) {
+            case BODY:
+                if (value == delimiter[matched]) {
+                    if (++matched == delimiter.length) {
+                        state = DELIMITER;
+                        matched = 0;
+                        dash = false;
+                    }
+                    return true;
+                }
+                //boundary中不会出现\r，所以失配之后只需要判断当前字节是不是分隔符的开头
+                matched = value == '\r' ? 1 : 0;
+                return matched != 0;
+            case DELIMITER:
+                if (value == '-') {
+                    if (dash) {
+                        state = EPILOGUE;
+                        return false;
+                    }
+                    dash = true;
+                } else if (value == '\n') {
+                    state = HEADERS;
+                    newLine();
+                }
+                return true;
+            case HEADERS:
+                if (value == '\n') {
+                    if (lineLength == 0) {
+                        state = BODY;
+                        return false;
+                    }
+                    if (disposition)
+                        endParam();
+                    newLine();
+                    return true;
+                }
+                if (pendingCr) {
+                    pendingCr = false;
+                    headerByte((byte) '\r');
+                }
+                if (value == '\r')
+                    pendingCr = true;
+                else
+                    headerByte(value);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void newLine() {
+        lineLength = 0;
+        pendingCr = false;
+        disposition = true;
+        paramState = PARAM_TYPE;
+        capture = false;
+    }
+
+    private void headerByte(byte b) {
+        if (lineLength < CONTENT_DISPOSITION.length) {
+            if (disposition && lowerCase(b) != CONTENT_DISPOSITION[(int) lineLength])
+                disposition = false;
+        } else if (disposition) {
+            paramByte(b);
+        }
+        lineLength++;
+    }
+
+    /**
+     * Content-Disposition参数的状态机，引号内的\只在转义引号时才当作转义字符(IE会发送带\的完整路径)
+     */
+    private void paramByte(byte b) {
+        switch (paramState) {
+            case PARAM_TYPE:
+            case PARAM_SKIP:
+                if (b == ';')
+                    startParam();
+                break;
+            case PARAM_NAME:
+                if (b == '=') {
+                    capture = nameMatched == FILENAME.length;
+                    extValue = false;
+                    if (nameMatched == FILENAME.length + 1) {
+                        capture = true;
+                        extValue = true;
+                    }
+                    valueLength = 0;
+                    paramState = PARAM_VALUE_START;
+                } else if (b == ';') {
+                    startParam();
+                } else if (b != ' ' && b != '\t' && nameMatched >= 0) {
+                    if (nameMatched < FILENAME.length && lowerCase(b) == FILENAME[nameMatched])
+                        nameMatched++;
+                    else if (nameMatched == FILENAME.length && b == '*')
+                        nameMatched++;
+                    else
+                        nameMatched = -1;
+                }
+                break;
+            case PARAM_VALUE_START:
+                if (b == '"') {
+                    paramState = PARAM_QUOTED;
+                } else if (b == ';') {
+                    endParam();
+                    startParam();
+                } else if (b != ' ' && b != '\t') {
+                    paramState = PARAM_TOKEN;
+                    append(b);
+                }
+                break;
+            case PARAM_TOKEN:
+                if (b == ';') {
+                    endParam();
+                    startParam();
+                } else {
+                    append(b);
+                }
+                break;
+            case PARAM_QUOTED:
+                if (b == '"') {
+                    endParam();
+                    paramState = PARAM_SKIP;
+                } else if (b == '\\') {
+                    paramState = PARAM_ESCAPE;
+                } else {
+                    append(b);
+                }
+                break;
+            case PARAM_ESCAPE:
+                paramState = PARAM_QUOTED;
+                if (b != '"')
+                    append((byte) '\\');
+                if (b == '\\')
+                    paramState = PARAM_ESCAPE;
+                else
+                    append(b);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void startParam() {
+        paramState = PARAM_NAME;
+        nameMatched = 0;
+        capture = false;
+    }
+
+    private void append(byte b) {
+        if (capture)
+            value[(int) (valueLength++ % value.length)] = b;
+    }
+
+    /**
+     * 参数值结束，filename/filename*的值加入结果，引号没有结束的值在行尾结束
+     */
+    private void endParam() {
+        if (!capture)
+            return;
+        if (paramState == PARAM_ESCAPE)
+            append((byte) '\\');
+        capture = false;
+        byte[] bytes;
+        if (valueLength <= value.length) {
+            bytes = Arrays.copyOf(value, (int) valueLength);
+        } else {
+            //按写入顺序还原末尾部分
+            int start = (int) (valueLength % value.length);
+            bytes = new byte[value.length];
+            System.arraycopy(value, start, bytes, 0, value.length - start);
+            System.arraycopy(value, 0, bytes, value.length - start, start);
+        }
+        String filename = new String(bytes, UTF_8).trim();
+        if (extValue)
+            filename = decodeExtValue(filename);
+        if (filenames == null)
+            filenames = new ArrayList<>(2);
+        filenames.add(filename);
+    }
+
+    private static int lowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    /**
+     * RFC 5987格式：charset'language'percent-encoded
+     */
+    private static String decodeExtValue(String value) {
+        int first = value.indexOf('\'');
+        int second = first < 0 ? -1 : value.indexOf('\'', first + 1);
+        if (second < 0)
+            return value;
+        String charset = value.substring(0, first).isEmpty() ? "UTF-8" : value.substring(0, first);
+        try {
+            return URLDecoder.decode(value.substring(second + 1).replace("+", "%2B"), charset);
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value.substring(second + 1);
+        }
+    }
+
+    /**
+     * @return 文件扩展名，忽略路径以及末尾的.和空格(Windows保存时会去掉)，没有扩展名时返回null
+     */
+    public static String extension(String filename) {
+        int begin = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1;
+        int end = filename.length();
+        while (end > begin && (filename.charAt(end - 1) == '.' || filename.charAt(end - 1) == ' '))
+            end--;
+        int index = filename.lastIndexOf('.', end - 1);
+        return index < begin ? null : filename.substring(index + 1, end);
+    }
+}
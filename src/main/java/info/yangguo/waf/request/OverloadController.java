@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.config.ContextHolder;
+import info.yangguo.waf.model.BasicConfig;
+import info.yangguo.waf.model.WeightedRoundRobinScheduling;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description:
+ * <p>
+ * 过载保护。定时向每个client工作线程(event loop)提交一个探测任务，任务从提交到执行的时间即为排队延迟，
+ * 同时读取任务队列长度。延迟或者队列长度超过阈值时按照请求实际转发的upstream扩展信息中的priority丢弃请求：
+ * 超过阈值丢弃low，超过4倍阈值丢弃low和normal，critical不丢弃，没有配置时为normal。
+ * <p>
+ * 判断在SecurityFilter和upstream连接之前，按请求所在的event loop各自判断，丢弃时返回预先构建的503。
+ * upstream按照UpstreamLimiters.upstreamKey()从Host得到，与实际转发的upstream一致，不能通过X-Waf-Route冒充其他route。
+ */
+public class OverloadController {
+    private static final Logger logger = LoggerFactory.getLogger(OverloadController.class);
+    public static final String PRIORITY = "priority";
+    public static final String PRIORITY_LOW = "low";
+    public static final String PRIORITY_CRITICAL = "critical";
+    private static final boolean ENABLED = "on".equals(Constant.wafConfs.get("waf.overload"));
+    private static final long LAG_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(parse("waf.overload.lag", 50));
+    private static final int PENDING_THRESHOLD = parse("waf.overload.pending", 1000);
+    private static final ConcurrentMap<EventExecutor, Probe> probes = new ConcurrentHashMap<>();
+    private static final FullHttpResponse SHED_RESPONSE = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.SERVICE_UNAVAILABLE, Unpooled.EMPTY_BUFFER);
+    private static final Meter shedLow = Constant.metrics.meter("OverloadController[shed.low]");
+    private static final Meter shedNormal = Constant.metrics.meter("OverloadController[shed.normal]");
+
+    static {
+        SHED_RESPONSE.headers().set(HttpHeaderNames.CONTENT_LENGTH, 0);
+        SHED_RESPONSE.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        if (ENABLED) {
+            Constant.metrics.register("OverloadController[lag]", (Gauge<Double>) () -> probes.values().stream().mapToLong(probe -> probe.lagNanos).max().orElse(0) / 1_000_000.0);
+            Constant.metrics.register("OverloadController[pending]", (Gauge<Integer>) () -> probes.values().stream().mapToInt(probe -> probe.pending).sum());
+            Constant.metrics.register("OverloadController[pressure]", (Gauge<Integer>) () -> probes.values().stream().mapToInt(probe -> probe.pressure).max().orElse(0));
+            int interval = parse("waf.overload.interval", 100);
+            ScheduledThreadPoolExecutor scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
+            scheduledThreadPoolExecutor.scheduleAtFixedRate(() -> {
+                try {
+                    sample(System.nanoTime());
+                } catch (Exception e) {
+                    logger.error("overload sampling is error.", e);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+            logger.info("overload controller is on, lag:{}ms, pending:{}", TimeUnit.NANOSECONDS.toMillis(LAG_THRESHOLD_NANOS), PENDING_THRESHOLD);
+        }
+    }
+
+    private static int parse(String key, int defaultValue) {
+        String conf = Constant.wafConfs.get(key);
+        return conf == null ? defaultValue : Integer.parseInt(conf);
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * 登记处理请求的event loop，之后由采样线程定时探测
+     */
+    public static void register(EventExecutor executor) {
+        if (!probes.containsKey(executor))
+            probes.computeIfAbsent(executor, Probe::new);
+    }
+
+    /**
+     * 探测所有已登记的event loop，由采样线程定时调用
+     *
+     * @param now System.nanoTime()
+     */
+    static void sample(long now) {
+        probes.values().forEach(probe -> probe.sample(now));
+    }
+
+    /**
+     * @param upstream UpstreamLimiters.upstreamKey()得到的upstream key
+     * @return 需要丢弃时返回503，否则返回null
+     */
+    public static HttpResponse shed(EventExecutor executor, String upstream) {
+        Probe probe = probes.get(executor);
+        int pressure = probe == null ? 0 : probe.pressure;
+        if (pressure == 0)
+            return null;
+        String priority = priority(upstream);
+        if (PRIORITY_CRITICAL.equals(priority))
+            return null;
+        if (PRIORITY_LOW.equals(priority)) {
+            shedLow.mark();
+        } else if (pressure >= 2) {
+            shedNormal.mark();
+        } else {
+            return null;
+        }
+        return SHED_RESPONSE.replace(Unpooled.EMPTY_BUFFER);
+    }
+
+    private static String priority(String upstream) {
+        WeightedRoundRobinScheduling scheduling = upstream == null ? null : ContextHolder.getClusterService().getUpstreamConfig().get(upstream);
+        BasicConfig config = scheduling == null ? null : scheduling.getBasicConfig();
+        Object priority = config == null || config.getExtension() == null ? null : config.getExtension().get(PRIORITY);
+        return priority == null ? null : priority.toString();
+    }
+
+    private static class Probe implements Runnable {
+        private final EventExecutor executor;
+        private volatile boolean waiting;
+        private volatile long submittedAt;
+        private volatile long lagNanos;
+        private volatile int pending;
+        private volatile int pressure;
+
+        Probe(EventExecutor executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * 只在采样线程中调用。上一个探测任务还没有执行时，等待的时间就是当前的延迟
+         */
+        void sample(long now) {
+            if (waiting) {
+                lagNanos = Math.max(lagNanos, now - submittedAt);
+            } else {
+                waiting = true;
+                submittedAt = now;
+                executor.execute(this);
+            }
+            pending = executor instanceof SingleThreadEventExecutor ? ((SingleThreadEventExecutor) executor).pendingTasks() : 0;
+            if (lagNanos >= LAG_THRESHOLD_NANOS * 4 || pending >= PENDING_THRESHOLD * 4)
+                pressure = 2;
+            else if (lagNanos >= LAG_THRESHOLD_NANOS || pending >= PENDING_THRESHOLD)
+                pressure = 1;
+            else
+                pressure = 0;
+        }
+
+        @Override
+        public void run() {
+            lagNanos = System.nanoTime() - submittedAt;
+            waiting = false;
+        }
+    }
+}
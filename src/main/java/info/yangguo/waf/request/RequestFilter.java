@@ -19,4 +19,14 @@ import io.netty.handler.codec.http.*;
 
 public interface RequestFilter {
     HttpResponse doFilter(HttpRequest originalRequest, HttpObject httpObject) throws Exception;
+
+    /**
+     * 由HttpFilterAdapterImpl调用，需要使用已解析内容的filter重写此方法
+     *
+     * @param requestView 当前请求的解析结果
+     * @param httpObject  http请求
+     */
+    default HttpResponse doFilter(RequestView requestView, HttpObject httpObject) throws Exception {
+        return doFilter(requestView.getOriginalRequest(), httpObject);
+    }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request;
+
+import info.yangguo.waf.WafHttpHeaderNames;
+import info.yangguo.waf.request.security.Security;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static io.netty.util.CharsetUtil.UTF_8;
+
+/**
+ * Description:
+ * <p>
+ * 单个请求的解析结果，由HttpFilterAdapterImpl持有，各字段第一次使用时才解析，之后直接复用。
+ * 同一个请求的filter都在同一个线程中执行，所以这里不做同步。
+ * 由于RewriteFilter会修改uri，所以uri相关的字段要在rewrite之后才能读取。
+ */
+public class RequestView {
+    private final HttpRequest originalRequest;
+    /**
+     * TCP连接的对端地址，没有时为null
+     */
+    private final SocketAddress clientAddress;
+    private String uri;
+    private String path;
+    private String query;
+    private List<String> args;
+    private List<String> cookies;
+    private String userAgent;
+    private String realIp;
+    private String wafRoute;
+    private boolean headersParsed;
+    private String mimeType;
+    private BodyStream bodyStream;
+    private MultipartParser multipartParser;
+    private boolean multipartParsed;
+    private List<Security> securityFilters;
+
+    public RequestView(HttpRequest originalRequest) {
+        this(originalRequest, null);
+    }
+
+    public RequestView(HttpRequest originalRequest, SocketAddress clientAddress) {
+        this.originalRequest = originalRequest;
+        this.clientAddress = clientAddress;
+    }
+
+    public HttpRequest getOriginalRequest() {
+        return originalRequest;
+    }
+
+    public String getUri() {
+        if (uri == null) {
+            uri = originalRequest.uri();
+            int index = uri.indexOf("?");
+            if (index > -1) {
+                path = uri.substring(0, index);
+                query = uri.substring(index + 1);
+            } else {
+                path = uri;
+            }
+        }
+        return uri;
+    }
+
+    /**
+     * @return uri中?之前的部分
+     */
+    public String getPath() {
+        getUri();
+        return path;
+    }
+
+    /**
+     * @return uri中?之后的部分，没有时返回null
+     */
+    public String getQuery() {
+        getUri();
+        return query;
+    }
+
+    /**
+     * @return query解码之后的参数，格式为小写的name=value
+     */
+    public List<String> getArgs() {
+        if (args == null) {
+            String queryString = getQuery();
+            if (queryString == null) {
+                args = Collections.emptyList();
+            } else {
+                List<NameValuePair> pairs = URLEncodedUtils.parse(queryString, UTF_8);
+                args = new ArrayList<>(pairs.size());
+                for (NameValuePair pair : pairs) {
+                    args.add(lowerCasePair(pair));
+                }
+            }
+        }
+        return args;
+    }
+
+    /**
+     * @return 第一个Cookie header按分号切分之后的小写内容
+     */
+    public List<String> getCookies() {
+        if (cookies == null) {
+            List<String> headerValues = originalRequest.headers().getAll(HttpHeaderNames.COOKIE);
+            if (headerValues.size() > 0 && headerValues.get(0) != null) {
+                String[] values = headerValues.get(0).split(";");
+                cookies = new ArrayList<>(values.length);
+                for (String value : values) {
+                    cookies.add(value.toLowerCase());
+                }
+            } else {
+                cookies = Collections.emptyList();
+            }
+        }
+        return cookies;
+    }
+
+    /**
+     * @param name cookie名称，区分大小写
+     * @return 第一个Cookie header中对应cookie的原始值，没有时返回null
+     */
+    public String getCookie(String name) {
+        String header = originalRequest.headers().get(HttpHeaderNames.COOKIE);
+        if (header != null) {
+            for (String cookie : header.split(";")) {
+                int index = cookie.indexOf('=');
+                if (index > 0 && cookie.substring(0, index).trim().equals(name))
+                    return cookie.substring(index + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    public String getUserAgent() {
+        parseHeaders();
+        return userAgent;
+    }
+
+    public String getRealIp() {
+        parseHeaders();
+        return realIp;
+    }
+
+    /**
+     * 用于计数和封禁的客户端IP，客户端不能伪造
+     *
+     * @return 对端是可信代理并且带有X-Real-IP时返回X-Real-IP，否则返回TCP连接的对端地址；
+     * 没有对端地址时(例如不经过HttpFilterAdapterImpl创建)返回X-Real-IP，都没有时返回null
+     */
+    public String getClientIp() {
+        String peerIp = TrustedProxies.peerIp(clientAddress);
+        if (peerIp == null)
+            return getRealIp();
+        String realIp = getRealIp();
+        return realIp != null && TrustedProxies.isTrusted(peerIp) ? realIp : peerIp;
+    }
+
+    public String getWafRoute() {
+        parseHeaders();
+        return wafRoute;
+    }
+
+    /**
+     * @return Content-Type中;之前的部分，已转小写，没有时返回空串
+     */
+    public String getMimeType() {
+        if (mimeType == null) {
+            String contentType = originalRequest.headers().get(HttpHeaderNames.CONTENT_TYPE);
+            if (contentType == null) {
+                mimeType = "";
+            } else {
+                int index = contentType.indexOf(';');
+                mimeType = (index > -1 ? contentType.substring(0, index) : contentType).trim().toLowerCase();
+            }
+        }
+        return mimeType;
+    }
+
+    /**
+     * @return 请求体跨chunk的匹配状态，第一次使用时创建
+     */
+    public BodyStream getBodyStream() {
+        if (bodyStream == null)
+            bodyStream = new BodyStream();
+        return bodyStream;
+    }
+
+    /**
+     * @param maxValueLength filename值缓冲区大小
+     * @return multipart请求体的解析状态，第一次使用时创建，Content-Type中没有boundary时返回null
+     */
+    public MultipartParser getMultipartParser(int maxValueLength) {
+        if (!multipartParsed) {
+            String boundary = MultipartParser.boundary(originalRequest.headers().get(HttpHeaderNames.CONTENT_TYPE));
+            if (boundary != null)
+                multipartParser = new MultipartParser(boundary, maxValueLength);
+            multipartParsed = true;
+        }
+        return multipartParser;
+    }
+
+    /**
+     * @return 第一次调用时从SecurityFilterScheduler取得的拦截器顺序，之后同一个请求的HttpContent都使用这份顺序
+     */
+    public List<Security> getSecurityFilters() {
+        if (securityFilters == null)
+            securityFilters = SecurityFilterScheduler.getFilters();
+        return securityFilters;
+    }
+
+    private void parseHeaders() {
+        if (!headersParsed) {
+            userAgent = originalRequest.headers().getAsString(HttpHeaderNames.USER_AGENT);
+            realIp = originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP);
+            wafRoute = originalRequest.headers().getAsString(WafHttpHeaderNames.X_WAF_ROUTE);
+            headersParsed = true;
+        }
+    }
+
+    /**
+     * 参数统一转换成小写的name=value，没有值的参数按照空串处理
+     */
+    public static String lowerCasePair(NameValuePair pair) {
+        String value = pair.getValue() == null ? "" : pair.getValue();
+        return pair.getName().toLowerCase() + "=" + value.toLowerCase();
+    }
+}
@@ -16,10 +16,11 @@
 package info.yangguo.waf.request;
 
 import com.codahale.metrics.Timer;
-import info.yangguo.waf.Constant;
 import info.yangguo.waf.config.ContextHolder;
-import info.yangguo.waf.model.SecurityConfig;
-import info.yangguo.waf.request.security.*;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.request.security.CCSecurity;
+import info.yangguo.waf.request.security.Security;
+import info.yangguo.waf.request.security.WIpSecurity;
 import info.yangguo.waf.util.ResponseUtil;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
@@ -28,7 +29,6 @@ import io.netty.handler.codec.http.HttpResponseStatus;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -40,35 +40,30 @@ import java.util.List;
  * 拦截器链
  */
 public class SecurityFilter implements RequestFilter {
-    public List<Security> filters = new ArrayList<>();
 
-    public SecurityFilter() {
-        //要注意顺序，是从上向下执行的
-        filters.add(new WIpSecurity());
-        filters.add(new IpSecurity());
-        filters.add(new CCSecurity());
-        filters.add(new ScannerSecurity());
-        filters.add(new WUrlSecurity());
-        filters.add(new UaSecurity());
-        filters.add(new UrlSecurity());
-        filters.add(new ArgsSecurity());
-        filters.add(new CookieSecurity());
-        filters.add(new PostSecurity());
-        filters.add(new FileSecurity());
-        filters.add(new ScriptSecurity());
+    @Override
+    public HttpResponse doFilter(HttpRequest originalRequest, HttpObject httpObject) {
+        return doFilter(new RequestView(originalRequest), httpObject);
     }
 
     @Override
-    public HttpResponse doFilter(HttpRequest originalRequest, HttpObject httpObject) {
+    public HttpResponse doFilter(RequestView requestView, HttpObject httpObject) {
+        HttpRequest originalRequest = requestView.getOriginalRequest();
+        //封禁检查在所有拦截器之前，被封禁的请求直接返回，IP白名单中的请求不参与统计
+        if (httpObject instanceof HttpRequest && HeavyHitterDetector.isEnabled() && !isWhitelisted(requestView) && HeavyHitterDetector.check(requestView))
+            return ResponseUtil.createResponse(HttpResponseStatus.SERVICE_UNAVAILABLE, originalRequest, null);
         HttpResponse httpResponse = null;
         Pair<Boolean, Security> pair = null;
-        for (Security filter : filters) {
-            Timer filterTimer = Constant.metrics.timer(filter.getClass().getName());
+        //执行顺序由SecurityFilterScheduler决定，保存在RequestView中，请求头和之后的HttpContent使用同一份顺序
+        for (Security filter : requestView.getSecurityFilters()) {
+            Timer filterTimer = SecurityFilterScheduler.getTimer(filter);
             Timer.Context filterContext = filterTimer.time();
             try {
-                SecurityConfig config = ContextHolder.getClusterService().getSecurityConfigs().get(filter.getClass().getName());
-                if (config.getConfig().getIsStart()) {
-                    boolean result = filter.doFilter(originalRequest, httpObject, config.getSecurityConfigItems());
+                CompiledSecurityConfig config = ContextHolder.getClusterService().getCompiledSecurityConfigs().get(filter.getClass().getName());
+                if (config != null && config.isStart()) {
+                    boolean result = filter.doFilter(requestView, httpObject, config);
+                    if (result)
+                        SecurityFilterScheduler.hit(filter);
                     if (result && filter.isBlacklist()) {
                         pair = new ImmutablePair<>(filter.isBlacklist(), filter);
                         break;
@@ -91,4 +86,13 @@ public class SecurityFilter implements RequestFilter {
         }
         return httpResponse;
     }
+
+    /**
+     * @return 请求IP是否命中WIpSecurity白名单
+     */
+    private static boolean isWhitelisted(RequestView requestView) {
+        CompiledSecurityConfig config = ContextHolder.getClusterService().getCompiledSecurityConfigs().get(WIpSecurity.class.getName());
+        String realIp = requestView.getRealIp();
+        return config != null && config.isStart() && realIp != null && config.getRules(requestView.getWafRoute()).findIp(realIp) != null;
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request;
+
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.model.SecurityFilterStat;
+import info.yangguo.waf.request.security.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Description:
+ * <p>
+ * security拦截器链的执行顺序。
+ * <p>
+ * 默认使用固定顺序。waf.security.chain.adaptive=on时，每隔waf.security.chain.interval秒根据每个拦截器的平均耗时和命中率重新排序，
+ * 平均耗时/命中率越小越靠前，这样便宜又经常命中的拦截器先执行。
+ * 白名单以及isReorderable()为false的拦截器位置固定，只在它们之间的区间内排序，所以排序不会改变请求最终是否被拦截。
+ * 每个请求第一次执行时把当时的顺序保存在RequestView中，请求头和之后的HttpContent使用同一份顺序。
+ */
+public class SecurityFilterScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(SecurityFilterScheduler.class);
+    /**
+     * 区间内执行次数少于这个值时不排序，避免样本太少导致顺序来回变化
+     */
+    private static final long MIN_SAMPLES = 100;
+    private static final List<Security> DEFAULT_FILTERS;
+    private static volatile List<Security> filters;
+    /**
+     * 最近一次排序时各拦截器的得分
+     */
+    private static volatile Map<String, Double> scores = Maps.newHashMap();
+    /**
+     * 上一次排序时的累计执行次数和命中次数，只在调度线程中使用
+     */
+    private static final Map<String, long[]> lastCounts = Maps.newHashMap();
+
+    static {
+        //要注意顺序，是从上向下执行的
+        DEFAULT_FILTERS = ImmutableList.of(
+                new WIpSecurity(),
+                new IpSecurity(),
+                new CCSecurity(),
+                new ScannerSecurity(),
+                new WUrlSecurity(),
+                new UaSecurity(),
+                new UrlSecurity(),
+                new ArgsSecurity(),
+                new CookieSecurity(),
+                new PostSecurity(),
+                new FileSecurity(),
+                new ScriptSecurity());
+        filters = DEFAULT_FILTERS;
+
+        if ("on".equals(Constant.wafConfs.get("waf.security.chain.adaptive"))) {
+            String intervalConf = Constant.wafConfs.get("waf.security.chain.interval");
+            int interval = intervalConf == null ? 60 : Integer.parseInt(intervalConf);
+            ScheduledThreadPoolExecutor scheduledThreadPoolExecutor = new ScheduledThreadPoolExecutor(1);
+            scheduledThreadPoolExecutor.scheduleAtFixedRate(() -> {
+                try {
+                    reorder();
+                } catch (Exception e) {
+                    logger.error("security filter chain reorder is error.", e);
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+            logger.info("security filter chain adaptive ordering is on, interval:{}s", interval);
+        }
+    }
+
+    /**
+     * @return 当前的拦截器执行顺序，不可变
+     */
+    public static List<Security> getFilters() {
+        return filters;
+    }
+
+    /**
+     * 拦截器执行耗时，与SecurityFilter中使用的是同一个timer
+     */
+    public static Timer getTimer(Security filter) {
+        return Constant.metrics.timer(filter.getClass().getName());
+    }
+
+    /**
+     * 记录一次拦截器命中
+     */
+    public static void hit(Security filter) {
+        Constant.metrics.counter(filter.getClass().getName() + "[hit]").inc();
+    }
+
+    private static long getHitCount(Security filter) {
+        return Constant.metrics.counter(filter.getClass().getName() + "[hit]").getCount();
+    }
+
+    static synchronized void reorder() {
+        Map<String, Double> newScores = Maps.newHashMap();
+        Map<String, Long> samples = Maps.newHashMap();
+        for (Security filter : DEFAULT_FILTERS) {
+            String name = filter.getClass().getName();
+            Timer timer = getTimer(filter);
+            long count = timer.getCount();
+            long hitCount = getHitCount(filter);
+            long[] last = lastCounts.getOrDefault(name, new long[2]);
+            long calls = count - last[0];
+            long hits = hitCount - last[1];
+            lastCounts.put(name, new long[]{count, hitCount});
+            //命中率做平滑处理，没有命中的拦截器按照耗时排序
+            double hitRate = (hits + 1d) / (calls + 2d);
+            newScores.put(name, timer.getSnapshot().getMean() / hitRate);
+            samples.put(name, calls);
+        }
+
+        List<Security> current = filters;
+        List<Security> reordered = Lists.newArrayListWithCapacity(current.size());
+        List<Security> segment = Lists.newArrayList();
+        for (Security filter : current) {
+            if (filter.isReorderable()) {
+                segment.add(filter);
+            } else {
+                sortSegment(segment, newScores, samples);
+                reordered.addAll(segment);
+                segment.clear();
+                reordered.add(filter);
+            }
+        }
+        sortSegment(segment, newScores, samples);
+        reordered.addAll(segment);
+
+        scores = newScores;
+        if (!reordered.equals(current)) {
+            filters = ImmutableList.copyOf(reordered);
+            logger.info("security filter chain has been reordered:{}", Lists.transform(reordered, filter -> filter.getClass().getSimpleName()));
+        }
+    }
+
+    private static void sortSegment(List<Security> segment, Map<String, Double> scores, Map<String, Long> samples) {
+        long total = segment.stream().mapToLong(filter -> samples.get(filter.getClass().getName())).sum();
+        if (total >= MIN_SAMPLES)
+            segment.sort(Comparator.comparingDouble(filter -> scores.get(filter.getClass().getName())));
+    }
+
+    /**
+     * @return 按照当前执行顺序排列的各拦截器统计信息
+     */
+    public static List<SecurityFilterStat> getStats() {
+        List<Security> current = filters;
+        Map<String, Double> currentScores = scores;
+        List<SecurityFilterStat> stats = Lists.newArrayListWithCapacity(current.size());
+        for (int i = 0; i < current.size(); i++) {
+            Security filter = current.get(i);
+            String name = filter.getClass().getName();
+            Timer timer = getTimer(filter);
+            stats.add(SecurityFilterStat.builder()
+                    .filterName(name)
+                    .order(i)
+                    .isBlacklist(filter.isBlacklist())
+                    .isReorderable(filter.isReorderable())
+                    .count(timer.getCount())
+                    .hitCount(getHitCount(filter))
+                    .meanCost(timer.getSnapshot().getMean() / TimeUnit.MILLISECONDS.toNanos(1))
+                    .score(currentScores.get(name))
+                    .build());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request;
+
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.request.security.matcher.CidrTrie;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Description:
+ * <p>
+ * 可信的前端代理，只有来自这些地址的X-Real-IP才会被采用，其他连接上的X-Real-IP一律按TCP连接的对端地址重写，
+ * 避免客户端伪造X-Real-IP绕过IP规则、CC以及高频封禁，或者让其他IP被封禁。
+ * 配置项waf.gateway.trusted_proxies，逗号分隔的IP或者CIDR，为空表示不信任任何代理。
+ */
+public class TrustedProxies {
+    private static final Logger logger = LoggerFactory.getLogger(TrustedProxies.class);
+    private static final CidrTrie proxies = new CidrTrie();
+    private static final boolean EMPTY;
+
+    static {
+        String conf = Constant.wafConfs.get("waf.gateway.trusted_proxies");
+        if (conf != null) {
+            for (String proxy : conf.split(",")) {
+                proxy = proxy.trim();
+                if (!proxy.isEmpty() && !proxies.add(proxy, 0))
+                    logger.warn("Invalid trusted proxy:{}", proxy);
+            }
+        }
+        EMPTY = proxies.size() == 0;
+    }
+
+    public static boolean isTrusted(String ip) {
+        return !EMPTY && ip != null && proxies.lookup(ip) >= 0;
+    }
+
+    /**
+     * @return TCP连接的对端IP，无法得到时返回null
+     */
+    public static String peerIp(SocketAddress address) {
+        if (address instanceof InetSocketAddress && ((InetSocketAddress) address).getAddress() != null)
+            return ((InetSocketAddress) address).getAddress().getHostAddress();
+        return null;
+    }
+}
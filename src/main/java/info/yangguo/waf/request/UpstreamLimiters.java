@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request;
+
+import com.codahale.metrics.Gauge;
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.request.security.limiter.GradientLimiter;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Description:
+ * <p>
+ * 每个upstream一个GradientLimiter，key与HostResolverImpl中查找upstream配置的key一致。
+ * 后端变慢时并发上限随之下降，超出上限的请求直接返回503，不在LittleProxy中排队。
+ */
+public class UpstreamLimiters {
+    private static final boolean ENABLED = "on".equals(Constant.wafConfs.get("waf.gateway.limiter"));
+    private static final int INITIAL_LIMIT = parse("waf.gateway.limiter.initial_limit", 20);
+    private static final int MIN_LIMIT = parse("waf.gateway.limiter.min_limit", 5);
+    private static final int MAX_LIMIT = parse("waf.gateway.limiter.max_limit", 1000);
+    private static final ConcurrentMap<String, GradientLimiter> limiters = new ConcurrentHashMap<>();
+
+    private static int parse(String key, int defaultValue) {
+        String conf = Constant.wafConfs.get(key);
+        return conf == null ? defaultValue : Integer.parseInt(conf);
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * @return 请求对应的upstream key，没有Host时为null
+     */
+    public static String upstreamKey(HttpRequest request) {
+        String host = request.headers().get(HttpHeaderNames.HOST);
+        if (host != null && host.endsWith(":80"))
+            host = host.substring(0, host.length() - 3);
+        return host;
+    }
+
+    public static GradientLimiter get(String upstream) {
+        GradientLimiter limiter = limiters.get(upstream);
+        if (limiter == null) {
+            limiter = limiters.computeIfAbsent(upstream, key -> {
+                GradientLimiter created = new GradientLimiter(INITIAL_LIMIT, MIN_LIMIT, MAX_LIMIT);
+                Constant.metrics.register("UpstreamLimiter[" + key + "][limit]", (Gauge<Integer>) created::getLimit);
+                Constant.metrics.register("UpstreamLimiter[" + key + "][inflight]", (Gauge<Integer>) created::getInflight);
+                Constant.metrics.register("UpstreamLimiter[" + key + "][rtt]", (Gauge<Double>) created::getRtt);
+                Constant.metrics.register("UpstreamLimiter[" + key + "][longRtt]", (Gauge<Double>) created::getLongRtt);
+                return created;
+            });
+        }
+        return limiter;
+    }
+
+    public static void rejected(String upstream) {
+        Constant.metrics.meter("UpstreamLimiter[" + upstream + "][rejected]").mark();
+    }
+}
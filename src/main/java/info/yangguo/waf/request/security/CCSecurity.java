@@ -15,28 +15,24 @@
  */
 package info.yangguo.waf.request.security;
 
-import com.codahale.metrics.Timer;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.hash.Hashing;
-import com.google.common.util.concurrent.RateLimiter;
+import com.codahale.metrics.Gauge;
 import info.yangguo.waf.Constant;
-import info.yangguo.waf.WafHttpHeaderNames;
-import info.yangguo.waf.config.ContextHolder;
-import info.yangguo.waf.model.SecurityConfigItem;
+import info.yangguo.waf.model.CompiledCCRules;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.request.RequestView;
+import info.yangguo.waf.request.security.limiter.ClusterCounter;
+import info.yangguo.waf.request.security.limiter.CounterTable;
+import info.yangguo.waf.request.security.limiter.KeyHash;
+import info.yangguo.waf.util.NetUtils;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.Map;
+import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.util.Optional;
-import java.util.concurrent.ExecutionException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * @author:杨果
@@ -44,25 +40,68 @@ import java.util.regex.Pattern;
  * <p>
  * Description:
  * cc拦截
+ * <p>
+ * 阈值为每秒允许的请求数，使用滑动窗口计数。统计维度由拦截器扩展信息中的dimension决定：
+ * route(默认)按wafRoute统计，ip按客户端IP统计，ip_route按客户端IP和wafRoute统计，
+ * header:名称、cookie:名称按对应的值和wafRoute统计，请求中没有该header或者cookie时按ip_route统计。
+ * 客户端IP取RequestView.getClientIp()，只有可信代理转发的请求才采用X-Real-IP，客户端不能通过每次更换X-Real-IP绕过按IP的限制。
+ * <p>
+ * 计数器保存在固定容量的CounterTable中，按IP统计时key的数量不会影响堆内存。
+ * waf.security.cc.cluster为on时通过ClusterCounter与其他节点交换计数，阈值在集群范围内生效。
  */
 public class CCSecurity extends Security {
     private static final Logger logger = LoggerFactory.getLogger(CCSecurity.class);
-    private static LoadingCache<String, RateLimiter> loadingCache;
+    public static final String DIMENSION = "dimension";
+    private static final long WINDOW_MILLIS = 1000;
+    private static final CounterTable counterTable;
+    private static final ClusterCounter clusterCounter;
 
     static {
-        loadingCache = CacheBuilder.newBuilder()
-                .maximumSize(1000)
-                .removalListener(notification -> {
-                    logger.debug("key:{} remove from cache", notification.getKey());
-                })
-                .build(new CacheLoader<String, RateLimiter>() {
-                    @Override
-                    public RateLimiter load(String key) {
-                        RateLimiter rateLimiter = RateLimiter.create(Integer.valueOf(key.split(":")[2]));
-                        logger.debug("RateLimiter for key:{} have been created", key);
-                        return rateLimiter;
-                    }
-                });
+        String capacityConf = Constant.wafConfs.get("waf.security.cc.table.capacity");
+        counterTable = new CounterTable(capacityConf == null ? 1 << 20 : Integer.parseInt(capacityConf));
+        Constant.metrics.register("CCSecurity[capacity]", (Gauge<Integer>) () -> counterTable.capacity());
+        Constant.metrics.register("CCSecurity[used]", (Gauge<Long>) () -> counterTable.used());
+        Constant.metrics.register("CCSecurity[live]", (Gauge<Long>) () -> counterTable.live(System.currentTimeMillis(), WINDOW_MILLIS));
+        Constant.metrics.register("CCSecurity[reuses]", (Gauge<Long>) () -> counterTable.reuses());
+        Constant.metrics.register("CCSecurity[evictions]", (Gauge<Long>) () -> counterTable.evictions());
+        clusterCounter = "on".equals(Constant.wafConfs.get("waf.security.cc.cluster")) ? createClusterCounter() : null;
+    }
+
+    /**
+     * 集群计数启动失败时只记录日志，按单节点计数
+     */
+    private static ClusterCounter createClusterCounter() {
+        String hostConf = Constant.wafConfs.get("waf.security.cc.cluster.host");
+        String portConf = Constant.wafConfs.get("waf.security.cc.cluster.port");
+        String intervalConf = Constant.wafConfs.get("waf.security.cc.cluster.interval");
+        try {
+            String host = hostConf == null || hostConf.isEmpty() ? NetUtils.getLocalHost() : hostConf;
+            InetSocketAddress address = new InetSocketAddress(host, portConf == null ? 9191 : Integer.parseInt(portConf));
+            ClusterCounter counter = new ClusterCounter(counterTable, WINDOW_MILLIS, address, intervalConf == null ? 100 : Long.parseLong(intervalConf));
+            Constant.metrics.register("CCSecurity[cluster.peers]", (Gauge<Integer>) () -> counter.getPeers().size());
+            Constant.metrics.register("CCSecurity[cluster.sentPackets]", (Gauge<Long>) () -> counter.getSentPackets());
+            Constant.metrics.register("CCSecurity[cluster.receivedPackets]", (Gauge<Long>) () -> counter.getReceivedPackets());
+            logger.info("cc cluster started at {}", address);
+            return counter;
+        } catch (IOException e) {
+            logger.error("cc cluster start failed, fall back to local counting", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return 集群计数，没有开启时为empty，ClusterService通过它注册本节点并更新peer列表
+     */
+    public static Optional<ClusterCounter> getClusterCounter() {
+        return Optional.ofNullable(clusterCounter);
+    }
+
+    /**
+     * 每次执行都会消耗令牌，位置不能变化，否则被其他拦截器拦截的请求也会计入
+     */
+    @Override
+    public boolean isReorderable() {
+        return false;
     }
 
     public HttpResponseStatus getHttpResponseStatus() {
@@ -70,69 +109,55 @@ public class CCSecurity extends Security {
     }
 
     @Override
-    public boolean doFilter(HttpRequest originalRequest, HttpObject httpObject, List<SecurityConfigItem> items) {
+    public boolean doFilter(RequestView requestView, HttpObject httpObject, CompiledSecurityConfig config) {
         if (httpObject instanceof HttpRequest) {
             logger.debug("filter:{}", this.getClass().getName());
-            HttpRequest httpRequest = (HttpRequest) httpObject;
-            Optional<String> url;
-            int index = httpRequest.uri().indexOf("?");
-            if (index > -1) {
-                url = Optional.ofNullable(httpRequest.uri().substring(0, index));
-            } else {
-                url = Optional.ofNullable(httpRequest.uri());
-            }
-            if (url.isPresent()) {
-                //多个正则表达式匹配，选择值最小的作为阈值
-                Optional<Map.Entry<String, Object>> matching = ContextHolder
-                        .getClusterService()
-                        .getSecurityConfigs()
-                        .get(CCSecurity.class.getName())
-                        .getSecurityConfigItems()
-                        .parallelStream()
-                        .filter(item -> {
-                            if (originalRequest.headers().getAsString(WafHttpHeaderNames.X_WAF_ROUTE).equals(item.getName()) && item.getConfig().getIsStart())
-                                return true;
-                            else
-                                return false;
-                        })
-                        .flatMap(item -> {
-                            return item.getConfig().getExtension().entrySet().parallelStream();
-                        }).filter(entry -> {
-                            Timer itemTimer = Constant.metrics.timer("CCSecurity[" + entry.getKey() + "]");
-                            Timer.Context itemContext = itemTimer.time();
-                            try {
-                                Pattern pattern = Pattern.compile(entry.getKey());
-                                Matcher matcher = pattern.matcher(url.get());
-                                if (matcher.matches()) {
-                                    return true;
-                                } else {
-                                    return false;
-                                }
-                            } finally {
-                                itemContext.stop();
-                            }
-                        }).min((e1, e2) -> ((Integer) e1.getValue()).compareTo(((Integer) e2.getValue())));
-
-                if (matching.isPresent()) {
-                    //由于正则包含各种特色字符，所以直接算了一直hash值，方便loadingCache直接根据冒号切割。
-                    //阈值放到key中原因如下：
-                    //1.由于阈值可能出现变化，从而保证随时阈值实时生效。
-                    //2.rate limiter需要使用。
-                    String key = originalRequest.headers().getAsString(WafHttpHeaderNames.X_WAF_ROUTE).replaceAll(":", "_") + ":" + String.valueOf(Hashing.murmur3_32().hashBytes(matching.get().getKey().getBytes()).padToLong()) + ":" + String.valueOf(matching.get().getValue());
-                    try {
-                        RateLimiter rateLimiter = loadingCache.get(key);
-                        if (rateLimiter.tryAcquire()) {
+            String path = requestView.getPath();
+            CompiledCCRules ccRules = config.getCcRules();
+            if (path != null && ccRules != null) {
+                //规则已按阈值升序排列，第一个匹配成功的规则即为阈值最小的规则
+                for (CompiledCCRules.Rule rule : ccRules.getRules(requestView.getWafRoute())) {
+                    if (rule.matches(path)) {
+                        long keyHash = keyHash(rule.getSeed(), requestView, ccRules);
+                        if (counterTable.tryAcquire(keyHash, System.currentTimeMillis(), WINDOW_MILLIS, rule.getThreshold())) {
+                            if (clusterCounter != null)
+                                clusterCounter.record(keyHash);
                             return false;
                         } else {
-                            hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "cc", String.valueOf(rateLimiter.getRate()));
+                            hackLog(logger, requestView.getRealIp(), "cc", String.valueOf(rule.getThreshold()));
                             return true;
                         }
-                    } catch (ExecutionException e) {
-                        e.printStackTrace();
                     }
                 }
             }
         }
         return false;
     }
+
+    /**
+     * @param seed 规则的hash，包含正则和阈值
+     * @return 按照统计维度生成的计数key
+     */
+    private static long keyHash(long seed, RequestView requestView, CompiledCCRules ccRules) {
+        String wafRoute = requestView.getWafRoute();
+        String value = null;
+        switch (ccRules.getDimension()) {
+            case ROUTE:
+                return KeyHash.finish(KeyHash.append(seed, wafRoute));
+            case IP:
+                return KeyHash.finish(KeyHash.append(seed, requestView.getClientIp()));
+            case HEADER:
+                value = requestView.getOriginalRequest().headers().get(ccRules.getDimensionName());
+                break;
+            case COOKIE:
+                value = requestView.getCookie(ccRules.getDimensionName());
+                break;
+            default:
+                break;
+        }
+        //请求中没有该header或者cookie时按ip_route统计
+        long hash = KeyHash.append(seed, value != null ? value : requestView.getClientIp());
+        hash = KeyHash.append(hash, '_');
+        return KeyHash.finish(KeyHash.append(hash, wafRoute));
+    }
 }
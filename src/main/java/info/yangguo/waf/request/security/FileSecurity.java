@@ -15,58 +15,59 @@
  */
 package info.yangguo.waf.request.security;
 
-import com.codahale.metrics.Timer;
 import info.yangguo.waf.Constant;
-import info.yangguo.waf.WafHttpHeaderNames;
-import info.yangguo.waf.model.SecurityConfigItem;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.model.CompiledSecurityConfigItem;
+import info.yangguo.waf.request.MultipartParser;
+import info.yangguo.waf.request.RequestView;
 import io.netty.handler.codec.http.HttpContent;
-import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import org.apache.http.entity.ContentType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import static io.netty.util.CharsetUtil.UTF_8;
-
 /**
- * 目前这个比较粗糙，只是对multipart/form-data上传的文件名进行了检测。
+ * 对multipart/form-data上传的文件名进行检测，请求体由MultipartParser跨chunk增量解析，文件内容不会被复制。
  * 文件类型应该去读文件头
  * 二进制流上传目前也没有处理
  */
 public class FileSecurity extends Security {
     private static Logger logger = LoggerFactory.getLogger(FileSecurity.class);
-    private static Pattern filePattern = Pattern.compile("Content-Disposition: form-data;(.+)filename=\"(.+)\\.(.*)\"");
+    /**
+     * filename参数值最多缓存的字节数
+     */
+    private static final int MAX_FILENAME;
+
+    static {
+        String filenameConf = Constant.wafConfs.get("waf.security.file.max_filename");
+        MAX_FILENAME = filenameConf == null ? 1024 : Integer.parseInt(filenameConf);
+    }
+
+    /**
+     * MultipartParser需要按顺序经过每个chunk，位置不能变化，否则部分chunk可能不经过这里
+     */
+    @Override
+    public boolean isReorderable() {
+        return false;
+    }
 
     @Override
-    public boolean doFilter(HttpRequest originalRequest, HttpObject httpObject, List<SecurityConfigItem> items) {
+    public boolean doFilter(RequestView requestView, HttpObject httpObject, CompiledSecurityConfig config) {
+        HttpRequest originalRequest = requestView.getOriginalRequest();
         if (originalRequest.method().name().equals("POST")) {
             if (httpObject instanceof HttpContent) {
-                HttpContent httpContent = (HttpContent) httpObject;
-                String contentType = originalRequest.headers().getAsString(HttpHeaderNames.CONTENT_TYPE);
-                if (ContentType.MULTIPART_FORM_DATA.getMimeType().equals(contentType)) {
-                    String contentBody = httpContent.content().toString(UTF_8);
-                    if (contentBody != null) {
-                        Matcher fileMatcher = filePattern.matcher(contentBody);
-                        if (fileMatcher.find()) {
-                            String fileExt = fileMatcher.group(3);
-                            for (SecurityConfigItem item : items) {
-                                if (item.getConfig().getIsStart()) {
-                                    Timer itemTimer = Constant.metrics.timer("FileSecurity[" + item.getName() + "]");
-                                    Timer.Context itemContext = itemTimer.time();
-                                    try {
-                                        Pattern pattern = Pattern.compile(item.getName());
-                                        if (pattern.matcher(fileExt).matches()) {
-                                            hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "File", item.getName());
-                                            return true;
-                                        }
-                                    } finally {
-                                        itemContext.stop();
-                                    }
+                //Content-Type中总是带有boundary参数，所以只比较mime type
+                if (ContentType.MULTIPART_FORM_DATA.getMimeType().equals(requestView.getMimeType())) {
+                    MultipartParser parser = requestView.getMultipartParser(MAX_FILENAME);
+                    if (parser != null) {
+                        for (String filename : parser.parse(((HttpContent) httpObject).content())) {
+                            String fileExt = MultipartParser.extension(filename);
+                            if (fileExt != null) {
+                                CompiledSecurityConfigItem item = config.getRules(requestView.getWafRoute()).matches(fileExt);
+                                if (item != null) {
+                                    hackLog(logger, requestView.getRealIp(), "File", item.getName());
+                                    return true;
                                 }
                             }
                         }
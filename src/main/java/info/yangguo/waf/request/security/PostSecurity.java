@@ -15,14 +15,16 @@
  */
 package info.yangguo.waf.request.security;
 
-import com.codahale.metrics.Timer;
 import info.yangguo.waf.Constant;
-import info.yangguo.waf.WafHttpHeaderNames;
-import info.yangguo.waf.model.SecurityConfigItem;
+import info.yangguo.waf.model.CompiledRuleSet;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.model.CompiledSecurityConfigItem;
+import info.yangguo.waf.request.BodyStream;
+import info.yangguo.waf.request.RequestView;
 import io.netty.handler.codec.http.HttpContent;
-import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.LastHttpContent;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.entity.ContentType;
@@ -30,8 +32,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static io.netty.util.CharsetUtil.UTF_8;
 
@@ -43,57 +43,75 @@ import static io.netty.util.CharsetUtil.UTF_8;
  */
 public class PostSecurity extends Security {
     private static Logger logger = LoggerFactory.getLogger(PostSecurity.class);
+    /**
+     * 开启之后请求体按chunk流式匹配，跨chunk的状态保存在RequestView.getBodyStream()中
+     */
+    private static final boolean STREAMING;
+    /**
+     * 流式匹配时上一个chunk末尾保留的字符数
+     */
+    private static final int OVERLAP;
+    /**
+     * 流式匹配时urlencoded单个参数最多缓存的字符数
+     */
+    private static final int MAX_PENDING;
+
+    static {
+        STREAMING = "on".equals(Constant.wafConfs.get("waf.security.post.streaming"));
+        String overlapConf = Constant.wafConfs.get("waf.security.post.overlap");
+        OVERLAP = overlapConf == null ? 1024 : Integer.parseInt(overlapConf);
+        String pendingConf = Constant.wafConfs.get("waf.security.post.max_pending");
+        MAX_PENDING = pendingConf == null ? 65536 : Integer.parseInt(pendingConf);
+    }
+
+    /**
+     * 流式匹配时跨chunk的状态保存在BodyStream中，位置不能变化，否则部分chunk可能不经过这里
+     */
+    @Override
+    public boolean isReorderable() {
+        return false;
+    }
 
     @Override
-    public boolean doFilter(HttpRequest originalRequest, HttpObject httpObject, List<SecurityConfigItem> items) {
+    public boolean doFilter(RequestView requestView, HttpObject httpObject, CompiledSecurityConfig config) {
+        HttpRequest originalRequest = requestView.getOriginalRequest();
         if (originalRequest.method().name().equals("POST")) {
             if (httpObject instanceof HttpContent) {
                 HttpContent httpContent = (HttpContent) httpObject;
-                String contentBody = httpContent.content().toString(UTF_8);
+                CompiledRuleSet rules = config.getRules(requestView.getWafRoute());
                 //application/x-www-form-urlencoded会对报文进行编码，所以需要解析出来再匹配。
-                String contentType = originalRequest.headers().getAsString(HttpHeaderNames.CONTENT_TYPE);
-                if (contentBody != null) {
-                    if (ContentType.APPLICATION_FORM_URLENCODED.getMimeType().equals(contentType)) {
-                        List<NameValuePair> args = URLEncodedUtils.parse(contentBody, UTF_8);
-                        for (NameValuePair pair : args) {
-                            for (SecurityConfigItem item : items) {
-                                if (item.getConfig().getIsStart()) {
-                                    Timer itemTimer = Constant.metrics.timer("PostHttpRequestFilter[" + item.getName() + "]");
-                                    Timer.Context itemContext = itemTimer.time();
-                                    try {
-                                        Pattern pattern = Pattern.compile(item.getName());
-                                        Matcher matcher = pattern.matcher(pair.getName().toLowerCase() + "=" + pair.getValue().toLowerCase());
-                                        if (matcher.find()) {
-                                            hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "Post", item.getName());
-                                            return true;
-                                        }
-                                    } finally {
-                                        itemContext.stop();
-                                    }
-                                }
-                            }
-                        }
-                    } else {
-                        for (SecurityConfigItem item : items) {
-                            if (item.getConfig().getIsStart()) {
-                                Timer itemTimer = Constant.metrics.timer("PostHttpRequestFilter[" + item.getName() + "]");
-                                Timer.Context itemContext = itemTimer.time();
-                                try {
-                                    Pattern pattern = Pattern.compile(item.getName());
-                                    Matcher matcher = pattern.matcher(contentBody.toLowerCase());
-                                    if (matcher.find()) {
-                                        hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "Post", item.getName());
-                                        return true;
-                                    }
-                                } finally {
-                                    itemContext.stop();
-                                }
-                            }
-                        }
-                    }
+                boolean urlencoded = ContentType.APPLICATION_FORM_URLENCODED.getMimeType().equals(requestView.getMimeType());
+                CompiledSecurityConfigItem item;
+                if (STREAMING) {
+                    BodyStream bodyStream = requestView.getBodyStream();
+                    boolean last = httpObject instanceof LastHttpContent;
+                    String contentBody = bodyStream.decode(httpContent.content(), last);
+                    if (urlencoded)
+                        item = findPairs(rules, bodyStream.pairs(contentBody, last, OVERLAP, MAX_PENDING));
+                    else
+                        item = rules.find(bodyStream.window(contentBody.toLowerCase(), OVERLAP));
+                } else {
+                    String contentBody = httpContent.content().toString(UTF_8);
+                    item = urlencoded ? findPairs(rules, contentBody) : rules.find(contentBody.toLowerCase());
+                }
+                if (item != null) {
+                    hackLog(logger, requestView.getRealIp(), "Post", item.getName());
+                    return true;
                 }
             }
         }
         return false;
     }
+
+    private static CompiledSecurityConfigItem findPairs(CompiledRuleSet rules, String contentBody) {
+        if (contentBody.isEmpty())
+            return null;
+        List<NameValuePair> args = URLEncodedUtils.parse(contentBody, UTF_8);
+        for (NameValuePair pair : args) {
+            CompiledSecurityConfigItem item = rules.find(RequestView.lowerCasePair(pair));
+            if (item != null)
+                return item;
+        }
+        return null;
+    }
 }
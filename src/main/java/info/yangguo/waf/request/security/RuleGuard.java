@@ -0,0 +1,227 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security;
+
+import com.google.common.collect.Lists;
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.model.RuleGuardStat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Description:
+ * <p>
+ * 单条规则的执行保护。
+ * <p>
+ * 匹配时把输入包装成计数的CharSequence，正则引擎每读取一次字符消耗一步，超过预算时中止匹配并记录一次超时，
+ * fail为open(默认)时按未命中处理，为closed时按命中处理。
+ * fail为open的规则超时次数达到waf.security.regex.max_timeouts之后自动禁用，直到通过管理接口重置；
+ * fail为closed的规则超时本身就会拦截，不能通过制造超时绕过，所以不会被禁用。
+ * 状态按拦截器和规则名称保存，配置变更重新编译之后仍然有效。
+ * <p>
+ * 超时的结果依赖输入长度而不是规则本身，VerdictCache通过timeouts()判断本次匹配是否发生过超时，发生过时不缓存；
+ * 规则被禁用或者重置时清空VerdictCache，避免继续使用之前的结果。
+ */
+public class RuleGuard {
+    private static final Logger logger = LoggerFactory.getLogger(RuleGuard.class);
+    private static final ConcurrentMap<String, RuleGuard> guards = new ConcurrentHashMap<>();
+    /**
+     * 拦截器或者item扩展信息中超时的处理策略，item优先
+     */
+    public static final String FAIL = "fail";
+    public static final String FAIL_CLOSED = "closed";
+    public static final String FAIL_OPEN = "open";
+    /**
+     * 当前线程累计的超时次数，VerdictCache在匹配前后比较
+     */
+    private static final ThreadLocal<long[]> threadTimeouts = ThreadLocal.withInitial(() -> new long[1]);
+    /**
+     * 默认的单次匹配步数预算，拦截器扩展信息中的budget优先，0表示不限制
+     */
+    public static final long DEFAULT_BUDGET;
+    private static final long MAX_TIMEOUTS;
+    /**
+     * 默认的超时处理策略，true表示按命中处理
+     */
+    public static final boolean DEFAULT_FAIL_CLOSED;
+
+    static {
+        String budgetConf = Constant.wafConfs.get("waf.security.regex.budget");
+        DEFAULT_BUDGET = budgetConf == null ? 10000000L : Long.parseLong(budgetConf);
+        String maxTimeoutsConf = Constant.wafConfs.get("waf.security.regex.max_timeouts");
+        MAX_TIMEOUTS = maxTimeoutsConf == null ? 10L : Long.parseLong(maxTimeoutsConf);
+        DEFAULT_FAIL_CLOSED = FAIL_CLOSED.equals(Constant.wafConfs.get("waf.security.regex.fail"));
+    }
+
+    private final String filterName;
+    private final String rule;
+    private final AtomicLong timeouts = new AtomicLong();
+    private volatile boolean disabled;
+
+    private RuleGuard(String filterName, String rule) {
+        this.filterName = filterName;
+        this.rule = rule;
+    }
+
+    /**
+     * @param fail         扩展信息中的fail，open或者closed，其他值使用defaultValue
+     * @param defaultValue 没有配置时的策略
+     * @return true表示超时按命中处理
+     */
+    public static boolean isFailClosed(Object fail, boolean defaultValue) {
+        if (FAIL_CLOSED.equals(fail))
+            return true;
+        if (FAIL_OPEN.equals(fail))
+            return false;
+        return defaultValue;
+    }
+
+    /**
+     * @return 当前线程累计的超时次数
+     */
+    public static long timeouts() {
+        return threadTimeouts.get()[0];
+    }
+
+    public static RuleGuard of(String filterName, String rule) {
+        return guards.computeIfAbsent(filterName + "\n" + rule, key -> new RuleGuard(filterName, rule));
+    }
+
+    /**
+     * @return 发生过超时的规则
+     */
+    public static List<RuleGuardStat> getStats() {
+        List<RuleGuardStat> stats = Lists.newArrayList();
+        guards.values().forEach(guard -> {
+            long count = guard.timeouts.get();
+            if (count > 0 || guard.disabled) {
+                stats.add(RuleGuardStat.builder()
+                        .filterName(guard.filterName)
+                        .name(guard.rule)
+                        .timeouts(count)
+                        .isDisabled(guard.disabled)
+                        .build());
+            }
+        });
+        return stats;
+    }
+
+    /**
+     * 清零超时次数并重新启用规则
+     *
+     * @return 规则不存在时返回false
+     */
+    public static boolean reset(String filterName, String rule) {
+        RuleGuard guard = guards.get(filterName + "\n" + rule);
+        if (guard == null)
+            return false;
+        guard.timeouts.set(0);
+        guard.disabled = false;
+        VerdictCache.invalidateAll();
+        logger.info("Filter[{}]|Regex[{}] has been reset", filterName, rule);
+        return true;
+    }
+
+    public boolean isDisabled() {
+        return disabled;
+    }
+
+    /**
+     * 在预算内执行匹配
+     *
+     * @param input   待匹配的内容
+     * @param budget     步数预算，小于等于0表示不限制
+     * @param failClosed 超出预算时是否按命中处理
+     * @param matcher    实际的匹配逻辑
+     * @return 匹配结果，规则已禁用时返回false，超出预算时返回failClosed
+     */
+    public boolean test(CharSequence input, long budget, boolean failClosed, Predicate<CharSequence> matcher) {
+        if (disabled)
+            return false;
+        if (budget <= 0)
+            return matcher.test(input);
+        try {
+            return matcher.test(new BudgetedCharSequence(input, budget));
+        } catch (BudgetExceededException e) {
+            threadTimeouts.get()[0]++;
+            long count = timeouts.incrementAndGet();
+            logger.warn("Filter[{}]|Regex[{}] exceeded budget:{}, timeouts:{}", filterName, rule, budget, count);
+            if (!failClosed && MAX_TIMEOUTS > 0 && count >= MAX_TIMEOUTS && !disabled) {
+                disabled = true;
+                VerdictCache.invalidateAll();
+                logger.error("Filter[{}]|Regex[{}] has been disabled after {} timeouts", filterName, rule, count);
+            }
+            return failClosed;
+        }
+    }
+
+    private static class BudgetExceededException extends RuntimeException {
+        private static final BudgetExceededException INSTANCE = new BudgetExceededException();
+
+        private BudgetExceededException() {
+            super("regex budget exceeded", null, false, false);
+        }
+    }
+
+    /**
+     * 每次charAt消耗一步，超出预算时抛出BudgetExceededException
+     */
+    private static class BudgetedCharSequence implements CharSequence {
+        private final CharSequence input;
+        private final int offset;
+        private final int length;
+        private final long[] remaining;
+
+        BudgetedCharSequence(CharSequence input, long budget) {
+            this(input, 0, input.length(), new long[]{budget});
+        }
+
+        private BudgetedCharSequence(CharSequence input, int offset, int length, long[] remaining) {
+            this.input = input;
+            this.offset = offset;
+            this.length = length;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (--remaining[0] < 0)
+                throw BudgetExceededException.INSTANCE;
+            return input.charAt(offset + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new BudgetedCharSequence(input, offset + start, end - start, remaining);
+        }
+
+        @Override
+        public String toString() {
+            return input.subSequence(offset, offset + length).toString();
+        }
+    }
+}
@@ -15,14 +15,13 @@
  */
 package info.yangguo.waf.request.security;
 
-import info.yangguo.waf.WafHttpHeaderNames;
-import info.yangguo.waf.model.SecurityConfigItem;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.request.RequestView;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,9 +33,11 @@ import java.util.regex.Pattern;
  */
 public class ScannerSecurity extends Security {
     private static final Logger logger = LoggerFactory.getLogger(ScannerSecurity.class);
+    private static final Pattern APPSCAN_PATTERN = Pattern.compile("AppScan_fingerprint");
+    private static final Pattern NETSPARKER_PATTERN = Pattern.compile("netsparker=");
 
     @Override
-    public boolean doFilter(HttpRequest originalRequest, HttpObject httpObject, List<SecurityConfigItem> items) {
+    public boolean doFilter(RequestView requestView, HttpObject httpObject, CompiledSecurityConfig config) {
         if (httpObject instanceof HttpRequest) {
             logger.debug("filter:{}", this.getClass().getName());
             HttpRequest httpRequest = (HttpRequest) httpObject;
@@ -51,36 +52,43 @@ public class ScannerSecurity extends Security {
             boolean xRequestManagerMemo = httpRequest.headers().contains("X-RequestManager-Memo");
             boolean xWIPP = httpRequest.headers().contains("X-WIPP");
 
-            //Appscan
-            Pattern pattern1 = Pattern.compile("AppScan_fingerprint");
-            Matcher matcher1 = pattern1.matcher(httpRequest.uri());
-
-            //Bugscan
-            String bsKey = "--%3E%27%22%3E%3CH1%3EXSS%40HERE%3C%2FH1%3E";
-            boolean matcher2 = httpRequest.uri().contains(bsKey);
-
-            //Netsparker
-            Pattern pattern3 = Pattern.compile("netsparker=");
-            Matcher matcher3 = pattern3.matcher(httpRequest.uri());
-
             if (acunetixAspect || acunetixAspectPassword || acunetixAspectQueries) {
-                hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "scanner", "Acunetix Web Vulnerability");
+                hackLog(logger, requestView.getRealIp(), "scanner", "Acunetix Web Vulnerability");
                 return true;
             } else if (xScanMemo || xRequestMemo || xRequestManagerMemo || xWIPP) {
-                hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "scanner", "HP WebInspect");
-                return true;
-            } else if (matcher1.find()) {
-                hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "scanner", "Appscan");
+                hackLog(logger, requestView.getRealIp(), "scanner", "HP WebInspect");
                 return true;
-            } else if (matcher2) {
-                hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "scanner", "Bugscan");
-                return true;
-            } else if (matcher3.find()) {
-                hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "scanner", "Netsparker");
+            }
+
+            //uri部分的检查结果只与uri有关，可以缓存
+            String scanner = VerdictCache.get(this, requestView, config, () -> scanUri(requestView.getUri()));
+            if (scanner != null) {
+                hackLog(logger, requestView.getRealIp(), "scanner", scanner);
                 return true;
             }
         }
         return false;
     }
+
+    private String scanUri(String uri) {
+        //Appscan
+        Matcher matcher1 = APPSCAN_PATTERN.matcher(uri);
+
+        //Bugscan
+        String bsKey = "--%3E%27%22%3E%3CH1%3EXSS%40HERE%3C%2FH1%3E";
+        boolean matcher2 = uri.contains(bsKey);
+
+        //Netsparker
+        Matcher matcher3 = NETSPARKER_PATTERN.matcher(uri);
+
+        if (matcher1.find()) {
+            return "Appscan";
+        } else if (matcher2) {
+            return "Bugscan";
+        } else if (matcher3.find()) {
+            return "Netsparker";
+        }
+        return null;
+    }
 }
 
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.script.ScriptEntry;
+import info.yangguo.waf.script.ScriptRequest;
+import info.yangguo.waf.script.ScriptVerdict;
+import io.netty.handler.codec.http.HttpObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Description:
+ * <p>
+ * 脚本执行线程池，脚本不在Netty线程和公共ForkJoinPool中执行。
+ * <p>
+ * 一个请求的所有脚本作为一个任务提交，共用一个timeout，Netty线程对每个请求最多等待一次timeout毫秒，与脚本个数无关。
+ * 线程数和队列都有上限，超时、队列已满或者执行异常时按fail策略处理：open表示放行，closed表示拦截。
+ * 超时的任务会被中断，剩余的脚本不再执行，sandbox模式由GroovySandbox在下一次方法调用或属性访问时终止脚本，
+ * static模式由ThreadInterrupt在循环和方法入口插入的检查终止脚本。
+ */
+public class ScriptExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(ScriptExecutor.class);
+    public static final String TIMEOUT = "timeout";
+    public static final String FAIL = "fail";
+    public static final String FAIL_CLOSED = "closed";
+    public static final String MODE = "mode";
+    public static final String MODE_STATIC = "static";
+    /**
+     * 默认的一个请求所有脚本的超时时间，单位毫秒，ScriptSecurity扩展信息中的timeout优先
+     */
+    public static final long DEFAULT_TIMEOUT;
+    /**
+     * 默认的失败策略，ScriptSecurity扩展信息中的fail优先
+     */
+    public static final boolean DEFAULT_FAIL_CLOSED;
+    /**
+     * ScriptSecurity使用的线程池
+     */
+    public static final ScriptExecutor DEFAULT;
+    private static final AtomicInteger index = new AtomicInteger();
+    private static final Meter timeouts = Constant.metrics.meter("ScriptExecutor[timeouts]");
+    private static final Meter rejected = Constant.metrics.meter("ScriptExecutor[rejected]");
+    private static final Meter errors = Constant.metrics.meter("ScriptExecutor[errors]");
+
+    static {
+        String timeoutConf = Constant.wafConfs.get("waf.security.script.timeout");
+        DEFAULT_TIMEOUT = timeoutConf == null ? 50L : Long.parseLong(timeoutConf);
+        DEFAULT_FAIL_CLOSED = FAIL_CLOSED.equals(Constant.wafConfs.get("waf.security.script.fail"));
+        String threadsConf = Constant.wafConfs.get("waf.security.script.threads");
+        int threads = threadsConf == null ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threadsConf);
+        String queueConf = Constant.wafConfs.get("waf.security.script.queue");
+        int queue = queueConf == null ? 1024 : Integer.parseInt(queueConf);
+
+        DEFAULT = new ScriptExecutor(threads, queue);
+        Constant.metrics.register("ScriptExecutor[active]", (Gauge<Integer>) DEFAULT.executor::getActiveCount);
+        Constant.metrics.register("ScriptExecutor[queue]", (Gauge<Integer>) () -> DEFAULT.executor.getQueue().size());
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param threads 线程数
+     * @param queue   等待执行的任务个数上限
+     */
+    public ScriptExecutor(int threads, int queue) {
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queue), runnable -> {
+            Thread thread = new Thread(runnable, "waf-script-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 按顺序执行脚本，遇到第一个拦截的脚本时停止
+     *
+     * @param entries       需要执行的脚本
+     * @param request       预解析的请求，同一个请求的脚本共用
+     * @param staticMode    true:脚本通过了static模式的检查时不经过GroovySandbox执行
+     * @param timeoutMillis 所有脚本的超时时间，小于等于0表示不限制
+     * @param failClosed    true:超时、队列已满或者执行异常时拦截
+     * @return 拦截时返回hack日志中记录的脚本名称和原因，放行时返回null
+     */
+    public String execute(List<ScriptEntry> entries, ScriptRequest request, HttpObject httpObject, boolean staticMode, long timeoutMillis, boolean failClosed) {
+        //超时时记录正在执行的脚本
+        AtomicReference<ScriptEntry> running = new AtomicReference<>();
+        Future<String> future;
+        try {
+            future = executor.submit(() -> {
+                for (ScriptEntry entry : entries) {
+                    if (Thread.currentThread().isInterrupted())
+                        return null;
+                    running.set(entry);
+                    ScriptVerdict verdict = new ScriptVerdict();
+                    Timer.Context itemContext = entry.getTimer().time();
+                    try {
+                        if (entry.execute(request, httpObject, verdict, staticMode)) {
+                            String reason = verdict.getReason();
+                            return reason == null ? entry.getName() : entry.getName() + ":" + reason;
+                        }
+                    } catch (Exception e) {
+                        if (Thread.currentThread().isInterrupted())
+                            return null;
+                        errors.mark();
+                        logger.warn("Script[{}] execute exception", entry.getName(), e);
+                        if (failClosed)
+                            return entry.getName() + ":error";
+                    } finally {
+                        itemContext.stop();
+                    }
+                }
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.mark();
+            logger.warn("Scripts rejected, queue is full");
+            return failClosed ? "rejected" : null;
+        }
+        try {
+            return timeoutMillis > 0 ? future.get(timeoutMillis, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException e) {
+            cancel(future);
+            timeouts.mark();
+            ScriptEntry entry = running.get();
+            String name = entry == null ? "queued" : entry.getName();
+            logger.warn("Script[{}] timed out after {}ms", name, timeoutMillis);
+            return failClosed ? name + ":timeout" : null;
+        } catch (ExecutionException e) {
+            errors.mark();
+            logger.warn("Scripts execute exception", e.getCause());
+            return failClosed ? "error" : null;
+        } catch (InterruptedException e) {
+            cancel(future);
+            Thread.currentThread().interrupt();
+            return failClosed ? "interrupted" : null;
+        }
+    }
+
+    /**
+     * 取消之后的任务仍然留在队列中直到被线程取出，所以同时从队列中移除，否则超时的任务会占满队列
+     */
+    private void cancel(Future<String> future) {
+        future.cancel(true);
+        executor.remove((Runnable) future);
+    }
+}
@@ -15,117 +15,181 @@
  */
 package info.yangguo.waf.request.security;
 
-import com.codahale.metrics.Timer;
+import com.codahale.metrics.Gauge;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import info.yangguo.waf.Constant;
-import info.yangguo.waf.model.SecurityConfigItem;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.model.ScriptStat;
+import info.yangguo.waf.request.RequestView;
 import info.yangguo.waf.script.ScriptEntry;
+import info.yangguo.waf.script.ScriptRequest;
+import info.yangguo.waf.script.ScriptSet;
 import io.netty.handler.codec.http.HttpObject;
-import io.netty.handler.codec.http.HttpRequest;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.filefilter.FileFilterUtils;
-import org.apache.commons.io.filefilter.IOFileFilter;
-import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
-import org.apache.commons.io.monitor.FileAlterationMonitor;
-import org.apache.commons.io.monitor.FileAlterationObserver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Description:
+ * <p>
+ * 脚本拦截，脚本在变更时整体编译为新版本的ScriptSet，通过一次volatile写替换，请求过程中只执行已编译的Script。
+ * 脚本有两个来源：ClusterService中的/waf/config/script，以及本地目录waf.security.script.dir(WatchService监听变更)，同名时cluster优先。
+ * 一个请求的所有脚本在ScriptExecutor中作为一个任务执行，扩展信息中的timeout(所有脚本共用，毫秒)和fail(open|closed)覆盖默认配置。
+ * 扩展信息中mode为static时，通过了编译期白名单检查的脚本不再经过GroovySandbox的运行时拦截。
+ * 脚本通过Binding中的request(ScriptRequest)读取请求，通过verdict(ScriptVerdict)拦截请求，通过counters(ScriptCounters)做有状态的统计。
+ */
 public class ScriptSecurity extends Security {
-    private static final Logger logger = LoggerFactory.getLogger(ScannerSecurity.class);
-    private static ScriptEntry scriptEntry = new ScriptEntry();
-    private static Map<String, String> scripts = Maps.newHashMap();
+    private static final Logger logger = LoggerFactory.getLogger(ScriptSecurity.class);
+    private static final String SUFFIX = ".groovy";
+    private static volatile ScriptSet scriptSet = ScriptSet.EMPTY;
+    private static volatile Map<String, String> localScripts = Collections.emptyMap();
+    private static volatile Map<String, String> clusterScripts = Collections.emptyMap();
 
     static {
+        Constant.metrics.register("ScriptSecurity[version]", (Gauge<Long>) () -> scriptSet.getVersion());
         try {
-            FileAlterationMonitor monitor = new FileAlterationMonitor(1000L);
-            IOFileFilter rule = FileFilterUtils.and(
-                    FileFilterUtils.fileFileFilter(),
-                    FileFilterUtils.suffixFileFilter(".groovy"));
-            IOFileFilter filter = FileFilterUtils.or(rule);
-            File listenFile = new File(ClassLoader.getSystemResource("").getPath() + "/script");
-            FileAlterationObserver observer = new FileAlterationObserver(listenFile, filter);
-            FileListerAdapter listener = new FileListerAdapter(scripts);
-            observer.addListener(listener);
-            monitor.addObserver(observer);
-            monitor.start();
-
-            FileUtils.listFiles(listenFile, rule, null)
-                    .stream()
-                    .forEach(file -> {
-                        String scriptName = file.getName();
-                        try {
-                            String scriptValue = FileUtils.readFileToString(file);
-                            scripts.put(scriptName, scriptValue);
-                        } catch (Exception e) {
-                            logger.warn("script file {} initialization failure", scriptName, e);
-                        }
-                    });
+            File dir = scriptDir();
+            if (dir != null && (dir.isDirectory() || dir.mkdirs())) {
+                localScripts = readDir(dir);
+                reload();
+                Thread watcher = new Thread(() -> watch(dir.toPath()), "waf-script-watcher");
+                watcher.setDaemon(true);
+                watcher.start();
+            }
         } catch (Exception e) {
             logger.warn("script filter initialization failure", e);
         }
     }
 
-    @Override
-    public boolean doFilter(HttpRequest originalRequest, HttpObject httpObject, List<SecurityConfigItem> items) {
-        AtomicBoolean result = new AtomicBoolean(false);
-        scripts.entrySet().parallelStream().anyMatch(entry -> {
-            Timer itemTimer = Constant.metrics.timer("ScriptSecurity[" + entry.getKey() + "]");
-            Timer.Context itemContext = itemTimer.time();
-            try {
-                scriptEntry.execute(originalRequest, httpObject, result, entry.getValue());
-                return result.get();
-            } finally {
-                itemContext.stop();
-            }
-        });
-        return result.get();
+    /**
+     * 没有配置waf.security.script.dir时优先使用classpath中的script目录，打包之后classpath中没有目录时使用~/.waf/script
+     */
+    private static File scriptDir() throws Exception {
+        String dirConf = Constant.wafConfs.get("waf.security.script.dir");
+        if (dirConf != null && !dirConf.isEmpty())
+            return new File(dirConf);
+        URL url = ScriptSecurity.class.getClassLoader().getResource("script");
+        if (url != null && "file".equals(url.getProtocol()))
+            return new File(url.toURI());
+        return new File(System.getProperty("user.home"), ".waf/script");
     }
 
-    static class FileListerAdapter extends FileAlterationListenerAdaptor {
-        private Map<String, String> scripts;
-
-        public FileListerAdapter(Map<String, String> scripts) {
-            this.scripts = scripts;
-        }
-
-        @Override
-        public void onFileChange(File file) {
-            if (!file.exists() || !file.canRead()) {
-                logger.warn("File[{}] is not exists or can not readable!", file);
-            } else {
+    private static Map<String, String> readDir(File dir) {
+        Map<String, String> scripts = Maps.newHashMap();
+        File[] files = dir.listFiles((parent, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            for (File file : files) {
                 try {
-                    scripts.put(file.getName(), FileUtils.readFileToString(file));
-                } catch (IOException e) {
-                    logger.warn("An exception occurs when read file[{}]", file);
+                    if (file.isFile())
+                        scripts.put(file.getName(), FileUtils.readFileToString(file, "UTF-8"));
+                } catch (Exception e) {
+                    logger.warn("An exception occurs when read file[{}]", file, e);
                 }
-                logger.info("File[{}] has been changed.", file);
             }
         }
+        return Collections.unmodifiableMap(scripts);
+    }
 
-        @Override
-        public void onFileCreate(File file) {
-            if (!file.exists() || !file.canRead()) {
-                logger.warn("File[{}] is not exists or can not readable!", file);
-            } else {
-                try {
-                    scripts.put(file.getName(), FileUtils.readFileToString(file));
-                } catch (IOException e) {
-                    logger.warn("An exception occurs when read file[{}]", file);
+    /**
+     * 目录中有任何变更时重新读取整个目录，同一批事件只触发一次重新编译
+     */
+    private static void watch(Path dir) {
+        try (WatchService watchService = dir.getFileSystem().newWatchService()) {
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            while (true) {
+                WatchKey key = watchService.take();
+                //编辑器保存文件时通常会产生多个事件，稍等一下合并处理
+                Thread.sleep(100);
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || event.context().toString().endsWith(SUFFIX))
+                        changed = true;
+                }
+                if (changed) {
+                    localScripts = readDir(dir.toFile());
+                    reload();
+                    logger.info("Dir[{}] has been changed.", dir);
+                }
+                if (!key.reset()) {
+                    logger.warn("Dir[{}] is no longer accessible, local scripts will not be reloaded", dir);
+                    return;
                 }
-                logger.info("File[{}] has been created.", file);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("script dir watcher failure", e);
         }
+    }
+
+    /**
+     * ClusterService中的脚本变更时调用
+     *
+     * @param scripts 脚本名称和内容
+     */
+    public static void setClusterScripts(Map<String, String> scripts) {
+        clusterScripts = Collections.unmodifiableMap(Maps.newHashMap(scripts));
+        reload();
+    }
+
+    /**
+     * 编译在调用线程(配置监听线程或者目录监听线程)中完成，不在请求过程中
+     */
+    private static synchronized void reload() {
+        Map<String, String> sources = Maps.newHashMap(localScripts);
+        sources.putAll(clusterScripts);
+        ScriptSet current = scriptSet;
+        scriptSet = ScriptSet.compile(current.getVersion() + 1, sources, current);
+        logger.info("script set version:{} has been loaded, scripts:{}", scriptSet.getVersion(), sources.keySet());
+    }
+
+    public static List<ScriptStat> getStats() {
+        ScriptSet current = scriptSet;
+        Map<String, String> cluster = clusterScripts;
+        List<ScriptStat> stats = Lists.newArrayList();
+        for (ScriptEntry entry : current.getEntries()) {
+            stats.add(ScriptStat.builder()
+                    .name(entry.getName())
+                    .origin(cluster.containsKey(entry.getName()) ? "cluster" : "local")
+                    .isStatic(entry.isStaticCompiled())
+                    .version(current.getVersion())
+                    .build());
+        }
+        return stats;
+    }
+
+    /**
+     * 脚本会通过ScriptCounters累计计数，位置不能变化，否则被其他拦截器拦截的请求是否计入会随排序变化
+     */
+    @Override
+    public boolean isReorderable() {
+        return false;
+    }
 
-        @Override
-        public void onFileDelete(File file) {
-            scripts.remove(file.getName());
+    @Override
+    public boolean doFilter(RequestView requestView, HttpObject httpObject, CompiledSecurityConfig config) {
+        ScriptSet scriptSet = ScriptSecurity.scriptSet;
+        if (scriptSet.isEmpty())
+            return false;
+        Object timeoutConf = config.getExtension().get(ScriptExecutor.TIMEOUT);
+        long timeout = timeoutConf instanceof Number ? ((Number) timeoutConf).longValue() : ScriptExecutor.DEFAULT_TIMEOUT;
+        Object failConf = config.getExtension().get(ScriptExecutor.FAIL);
+        boolean failClosed = failConf == null ? ScriptExecutor.DEFAULT_FAIL_CLOSED : ScriptExecutor.FAIL_CLOSED.equals(failConf);
+        boolean staticMode = ScriptExecutor.MODE_STATIC.equals(config.getExtension().get(ScriptExecutor.MODE));
+        ScriptRequest request = new ScriptRequest(requestView);
+        String hit = ScriptExecutor.DEFAULT.execute(scriptSet.getEntries(), request, httpObject, staticMode, timeout, failClosed);
+        if (hit != null) {
+            hackLog(logger, request.getRealIp(), "Script", hit);
+            return true;
         }
+        return false;
     }
 }
@@ -15,14 +15,13 @@
  */
 package info.yangguo.waf.request.security;
 
-import info.yangguo.waf.model.SecurityConfigItem;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.request.RequestView;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import org.slf4j.Logger;
 
-import java.util.List;
-
 /**
  * @author:杨果
  * @date:2017/4/11 上午11:28
@@ -37,9 +36,22 @@ public abstract class Security {
      *
      * @param originalRequest original request
      * @param httpObject      http请求
+     * @param config          预编译之后的配置
+     * @return true:正则匹配成功,false:正则匹配失败
+     */
+    public boolean doFilter(HttpRequest originalRequest, HttpObject httpObject, CompiledSecurityConfig config) {
+        return doFilter(new RequestView(originalRequest), httpObject, config);
+    }
+
+    /**
+     * httpRequest拦截逻辑，uri、参数、cookie等内容从requestView中读取，不再重复解析
+     *
+     * @param requestView 当前请求的解析结果
+     * @param httpObject  http请求
+     * @param config      预编译之后的配置
      * @return true:正则匹配成功,false:正则匹配失败
      */
-    public abstract boolean doFilter(HttpRequest originalRequest, HttpObject httpObject, List<SecurityConfigItem> items);
+    public abstract boolean doFilter(RequestView requestView, HttpObject httpObject, CompiledSecurityConfig config);
 
     /**
      * 是否是黑名单
@@ -50,6 +62,15 @@ public abstract class Security {
         return true;
     }
 
+    /**
+     * 是否可以参与拦截器链的自适应排序
+     *
+     * @return 默认只有黑名单可以排序，有状态的拦截器要重写此方法返回false
+     */
+    public boolean isReorderable() {
+        return isBlacklist();
+    }
+
     /**
      * 被拦截是返回的HttpResponseStatus
      *
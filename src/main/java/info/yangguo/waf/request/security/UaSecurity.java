@@ -15,20 +15,14 @@
  */
 package info.yangguo.waf.request.security;
 
-import com.codahale.metrics.Timer;
-import info.yangguo.waf.Constant;
-import info.yangguo.waf.WafHttpHeaderNames;
-import info.yangguo.waf.model.SecurityConfigItem;
-import io.netty.handler.codec.http.HttpHeaderNames;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.model.CompiledSecurityConfigItem;
+import info.yangguo.waf.request.RequestView;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * @author:杨果
  * @date:2017/5/11 下午2:39
@@ -41,27 +35,15 @@ public class UaSecurity extends Security {
     private static final Logger logger = LoggerFactory.getLogger(UaSecurity.class);
 
     @Override
-    public boolean doFilter(HttpRequest originalRequest, HttpObject httpObject, List<SecurityConfigItem> items) {
+    public boolean doFilter(RequestView requestView, HttpObject httpObject, CompiledSecurityConfig config) {
         if (httpObject instanceof HttpRequest) {
             logger.debug("filter:{}", this.getClass().getName());
-            HttpRequest httpRequest = (HttpRequest) httpObject;
-            String userAgent = originalRequest.headers().getAsString(HttpHeaderNames.USER_AGENT);
+            String userAgent = requestView.getUserAgent();
             if (userAgent != null) {
-                for (SecurityConfigItem item : items) {
-                    if (item.getConfig().getIsStart()) {
-                        Timer itemTimer = Constant.metrics.timer("UaSecurity[" + item.getName() + "]");
-                        Timer.Context itemContext = itemTimer.time();
-                        try {
-                            Pattern pattern = Pattern.compile(item.getName());
-                            Matcher matcher = pattern.matcher(userAgent);
-                            if (matcher.find()) {
-                                hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "UserAgent", item.getName());
-                                return true;
-                            }
-                        } finally {
-                            itemContext.stop();
-                        }
-                    }
+                CompiledSecurityConfigItem item = config.getRules(requestView.getWafRoute()).find(userAgent);
+                if (item != null) {
+                    hackLog(logger, requestView.getRealIp(), "UserAgent", item.getName());
+                    return true;
                 }
             }
         }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security;
+
+import com.codahale.metrics.Gauge;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.request.RequestView;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Description:
+ * <p>
+ * 只依赖uri的拦截器的匹配结果缓存，key为拦截器、配置版本、wafRoute、method和原始uri，value为命中的规则。
+ * <p>
+ * 配置版本是key的一部分，拦截器重新编译之后旧的结果不会再被使用，由LRU淘汰；规则被RuleGuard禁用或者重置时调用invalidateAll()。
+ * 缓存大小由waf.security.verdict_cache.size配置，为0时不缓存。
+ * 匹配过程中有规则超出RuleGuard预算时结果取决于输入而不是规则，不缓存。
+ */
+public class VerdictCache {
+    /**
+     * 超过这个长度的uri不缓存，避免少量超长uri占用大量内存
+     */
+    private static final int MAX_URI_LENGTH = 1024;
+    private static final Cache<String, Optional<String>> cache;
+
+    static {
+        String sizeConf = Constant.wafConfs.get("waf.security.verdict_cache.size");
+        long size = sizeConf == null ? 10000 : Long.parseLong(sizeConf);
+        if (size > 0) {
+            cache = CacheBuilder.newBuilder()
+                    .maximumSize(size)
+                    .recordStats()
+                    .build();
+            Constant.metrics.register("VerdictCache[hitRate]", (Gauge<Double>) () -> cache.stats().hitRate());
+            Constant.metrics.register("VerdictCache[hitCount]", (Gauge<Long>) () -> cache.stats().hitCount());
+            Constant.metrics.register("VerdictCache[missCount]", (Gauge<Long>) () -> cache.stats().missCount());
+            Constant.metrics.register("VerdictCache[evictionCount]", (Gauge<Long>) () -> cache.stats().evictionCount());
+            Constant.metrics.register("VerdictCache[size]", (Gauge<Long>) () -> cache.size());
+        } else {
+            cache = null;
+        }
+    }
+
+    /**
+     * 先查缓存，没有时执行匹配并缓存结果
+     *
+     * @param filter      拦截器
+     * @param requestView 当前请求的解析结果
+     * @param config      预编译之后的配置
+     * @param evaluator   实际的匹配逻辑，返回命中的规则，没有命中时返回null
+     * @return 命中的规则，没有命中时返回null
+     */
+    public static String get(Security filter, RequestView requestView, CompiledSecurityConfig config, Supplier<String> evaluator) {
+        String uri = requestView.getUri();
+        if (cache == null || uri.length() > MAX_URI_LENGTH)
+            return evaluator.get();
+
+        String key = filter.getClass().getSimpleName() + "\n" + config.getVersion() + "\n" + requestView.getWafRoute() + "\n" + requestView.getOriginalRequest().method().name() + "\n" + uri;
+        Optional<String> verdict = cache.getIfPresent(key);
+        if (verdict == null) {
+            long timeouts = RuleGuard.timeouts();
+            verdict = Optional.ofNullable(evaluator.get());
+            if (RuleGuard.timeouts() == timeouts)
+                cache.put(key, verdict);
+        }
+        return verdict.orElse(null);
+    }
+
+    public static void invalidateAll() {
+        if (cache != null)
+            cache.invalidateAll();
+    }
+}
@@ -15,19 +15,14 @@
  */
 package info.yangguo.waf.request.security;
 
-import com.codahale.metrics.Timer;
-import info.yangguo.waf.Constant;
-import info.yangguo.waf.WafHttpHeaderNames;
-import info.yangguo.waf.model.SecurityConfigItem;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.model.CompiledSecurityConfigItem;
+import info.yangguo.waf.request.RequestView;
 import io.netty.handler.codec.http.HttpObject;
 import io.netty.handler.codec.http.HttpRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * @author:杨果
  * @date:2017/5/15 上午9:27
@@ -43,32 +38,16 @@ public class WUrlSecurity extends Security {
     }
 
     @Override
-    public boolean doFilter(HttpRequest originalRequest, HttpObject httpObject, List<SecurityConfigItem> items) {
+    public boolean doFilter(RequestView requestView, HttpObject httpObject, CompiledSecurityConfig config) {
         if (httpObject instanceof HttpRequest) {
             logger.debug("filter:{}", this.getClass().getName());
-            HttpRequest httpRequest = (HttpRequest) httpObject;
-            String url;
-            int index = httpRequest.uri().indexOf("?");
-            if (index > -1) {
-                url = httpRequest.uri().substring(0, index);
-            } else {
-                url = httpRequest.uri();
-            }
-            for (SecurityConfigItem item : items) {
-                if (item.getConfig().getIsStart()) {
-                    Timer itemTimer = Constant.metrics.timer("WUrlSecurity[" + item.getName() + "]");
-                    Timer.Context itemContext = itemTimer.time();
-                    try {
-                        Pattern pattern = Pattern.compile(item.getName());
-                        Matcher matcher = pattern.matcher(url);
-                        if (matcher.find()) {
-                            hackLog(logger, originalRequest.headers().getAsString(WafHttpHeaderNames.X_REAL_IP), "WUrl", item.getName());
-                            return true;
-                        }
-                    } finally {
-                        itemContext.stop();
-                    }
-                }
+            String rule = VerdictCache.get(this, requestView, config, () -> {
+                CompiledSecurityConfigItem item = config.getRules(requestView.getWafRoute()).find(requestView.getPath());
+                return item == null ? null : item.getName();
+            });
+            if (rule != null) {
+                hackLog(logger, requestView.getRealIp(), "WUrl", rule);
+                return true;
             }
         }
         return false;
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.limiter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Description:
+ * <p>
+ * 带过期时间的封禁列表，按key的64位hash查找。没有封禁时只需要一次isEmpty()判断。
+ */
+public final class BanList {
+    private final Map<Long, Ban> bans = new ConcurrentHashMap<>();
+
+    public boolean isEmpty() {
+        return bans.isEmpty();
+    }
+
+    /**
+     * 过期的封禁在查找时删除
+     */
+    public boolean isBanned(long hash, long now) {
+        Ban ban = bans.get(hash);
+        if (ban == null)
+            return false;
+        if (ban.expireAt > now)
+            return true;
+        bans.remove(hash, ban);
+        return false;
+    }
+
+    public void ban(long hash, String type, String key, int count, long expireAt) {
+        bans.put(hash, new Ban(type, key, count, expireAt));
+    }
+
+    /**
+     * @return true:存在该key的封禁并已解除
+     */
+    public boolean revoke(String key) {
+        return bans.values().removeIf(ban -> ban.key.equals(key));
+    }
+
+    /**
+     * @return 没有过期的封禁
+     */
+    public List<Ban> list(long now) {
+        bans.values().removeIf(ban -> ban.expireAt <= now);
+        return new ArrayList<>(bans.values());
+    }
+
+    public static final class Ban {
+        private final String type;
+        private final String key;
+        private final int count;
+        private final long expireAt;
+
+        Ban(String type, String key, int count, long expireAt) {
+            this.type = type;
+            this.key = key;
+            this.count = count;
+            this.expireAt = expireAt;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return 封禁时窗口内的估算次数
+         */
+        public int getCount() {
+            return count;
+        }
+
+        public long getExpireAt() {
+            return expireAt;
+        }
+    }
+}
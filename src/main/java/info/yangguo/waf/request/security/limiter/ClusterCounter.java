@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.limiter;
+
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Description:
+ * <p>
+ * 集群CC计数，节点之间通过UDP交换计数增量，使阈值在整个集群范围内生效。
+ * <p>
+ * 本节点通过的请求先记录在pending中，每隔interval把增量发送给所有peer，收到的增量直接合并到本地CounterTable。
+ * 请求过程中只访问本地内存，不增加网络开销，误差为各节点一个interval内的请求数，丢包时误差会相应增大。
+ * <p>
+ * 报文格式：MAGIC(4字节)，之后是若干个entry，每个entry为key hash(8字节)、窗口编号(4字节)、增量(4字节)。
+ * 只接受来自peer IP的报文，peer列表由ClusterService根据zookeeper中的节点维护。
+ */
+public final class ClusterCounter {
+    private static final Logger logger = LoggerFactory.getLogger(ClusterCounter.class);
+    private static final int MAGIC = 0x57414643;
+    private static final int ENTRY_BYTES = 16;
+    /**
+     * 小于以太网MTU，避免IP分片
+     */
+    private static final int MAX_PACKET = 1400;
+    private final CounterTable table;
+    private final long windowMillis;
+    private final InetSocketAddress address;
+    private final DatagramChannel channel;
+    private final ScheduledExecutorService scheduler;
+    private volatile Set<InetSocketAddress> peers = ImmutableSet.of();
+    private volatile Set<InetAddress> peerHosts = ImmutableSet.of();
+    /**
+     * 已经从pending中移除的计数槽，record()遇到时换一个新的槽重试
+     */
+    private static final int REMOVED = Integer.MIN_VALUE;
+    private final Map<Long, AtomicInteger> pending = new ConcurrentHashMap<>();
+    private final LongAdder sentPackets = new LongAdder();
+    private final LongAdder receivedPackets = new LongAdder();
+
+    /**
+     * @param table          本地计数表
+     * @param windowMillis   窗口长度，单位毫秒
+     * @param address        本节点的UDP地址，其他节点通过该地址发送增量
+     * @param intervalMillis 发送增量的间隔，单位毫秒
+     */
+    public ClusterCounter(CounterTable table, long windowMillis, InetSocketAddress address, long intervalMillis) throws IOException {
+        this.table = table;
+        this.windowMillis = windowMillis;
+        this.address = address;
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(address.getPort()));
+
+        Thread receiver = new Thread(this::receive, "cc-cluster-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cc-cluster-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                logger.warn("cc cluster flush error:{}", e.getMessage());
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录本节点通过的一次请求
+     */
+    public void record(long keyHash) {
+        while (true) {
+            AtomicInteger delta = pending.get(keyHash);
+            if (delta == null)
+                delta = pending.computeIfAbsent(keyHash, key -> new AtomicInteger());
+            if (delta.getAndIncrement() >= 0)
+                return;
+        }
+    }
+
+    /**
+     * @param peers 集群中所有节点的地址，可以包含本节点
+     */
+    public void setPeers(Collection<InetSocketAddress> peers) {
+        Set<InetSocketAddress> others = peers.stream().filter(peer -> !peer.equals(address)).collect(Collectors.toSet());
+        this.peers = ImmutableSet.copyOf(others);
+        this.peerHosts = ImmutableSet.copyOf(others.stream().map(InetSocketAddress::getAddress).collect(Collectors.toSet()));
+        logger.info("cc cluster peers:{}", others);
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    public Set<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    public long getSentPackets() {
+        return sentPackets.sum();
+    }
+
+    public long getReceivedPackets() {
+        return receivedPackets.sum();
+    }
+
+    /**
+     * 每个计数槽通过getAndAdd(-delta)取走增量，与record()并发时增量要么本次发送，要么留到下次发送，不会丢失。
+     * 上次发送之后没有增量的槽标记为REMOVED之后移除，避免pending无限增长。
+     * 增量按发送时的窗口编号发送，跨窗口时会计入下一个窗口，只会让限流略微偏严。
+     */
+    void flush() throws IOException {
+        if (pending.isEmpty())
+            return;
+        Set<InetSocketAddress> targets = peers;
+        int window = (int) (System.currentTimeMillis() / windowMillis);
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET);
+        buffer.putInt(MAGIC);
+        boolean hasEntry = false;
+        for (Map.Entry<Long, AtomicInteger> entry : pending.entrySet()) {
+            AtomicInteger slot = entry.getValue();
+            //只有这里会减少计数，减去读到的值之后并发的record()仍然保留在槽中，已移除的槽为负数直接跳过
+            int delta = slot.get();
+            if (delta < 0)
+                continue;
+            if (delta == 0) {
+                if (slot.compareAndSet(0, REMOVED))
+                    pending.remove(entry.getKey(), slot);
+                continue;
+            }
+            slot.getAndAdd(-delta);
+            if (targets.isEmpty())
+                continue;
+            if (buffer.remaining() < ENTRY_BYTES) {
+                send(buffer, targets);
+                buffer.clear();
+                buffer.putInt(MAGIC);
+            }
+            buffer.putLong(entry.getKey()).putInt(window).putInt(delta);
+            hasEntry = true;
+        }
+        if (hasEntry)
+            send(buffer, targets);
+    }
+
+    private void send(ByteBuffer buffer, Set<InetSocketAddress> targets) throws IOException {
+        buffer.flip();
+        for (InetSocketAddress target : targets) {
+            channel.send(buffer.duplicate(), target);
+            sentPackets.increment();
+        }
+    }
+
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET);
+        while (channel.isOpen()) {
+            try {
+                buffer.clear();
+                SocketAddress from = channel.receive(buffer);
+                if (!(from instanceof InetSocketAddress) || !peerHosts.contains(((InetSocketAddress) from).getAddress()))
+                    continue;
+                buffer.flip();
+                if (buffer.remaining() < 4 || buffer.getInt() != MAGIC)
+                    continue;
+                receivedPackets.increment();
+                long now = System.currentTimeMillis();
+                while (buffer.remaining() >= ENTRY_BYTES) {
+                    long keyHash = buffer.getLong();
+                    int window = buffer.getInt();
+                    int delta = buffer.getInt();
+                    if (delta > 0)
+                        table.add(keyHash, now, windowMillis, window, delta);
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                logger.warn("cc cluster receive error:{}", e.getMessage());
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        channel.close();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.limiter;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Description:
+ * <p>
+ * count-min sketch，DEPTH行计数器，每个key在每行对应一个计数器，估算值为各行计数的最小值，只会高估不会低估。
+ * 内存固定为 DEPTH * width * 4 字节，与key的数量无关。key需要事先hash成64位，各行下标由hash的高低32位做double hashing得到。
+ */
+public final class CountMinSketch {
+    private static final int DEPTH = 4;
+    private final AtomicIntegerArray counts;
+    private final int width;
+    private final int mask;
+
+    /**
+     * @param width 每行计数器个数，会向上取整为2的幂
+     */
+    public CountMinSketch(int width) {
+        if (width <= 0 || width > 1 << 26)
+            throw new IllegalArgumentException("width must be in (0, 2^26]");
+        int size = Integer.highestOneBit(width);
+        if (size < width)
+            size <<= 1;
+        this.width = size;
+        this.mask = size - 1;
+        this.counts = new AtomicIntegerArray(DEPTH * size);
+    }
+
+    /**
+     * @return 计数之后的估算值
+     */
+    public int add(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int count = counts.incrementAndGet(row * width + ((h1 + row * h2) & mask));
+            if (count < estimate)
+                estimate = count;
+        }
+        return estimate;
+    }
+
+    public int estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int count = counts.get(row * width + ((h1 + row * h2) & mask));
+            if (count < estimate)
+                estimate = count;
+        }
+        return estimate;
+    }
+
+    public void clear() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+}
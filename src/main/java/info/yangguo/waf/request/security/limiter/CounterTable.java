@@ -0,0 +1,238 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.limiter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Description:
+ * <p>
+ * 固定容量的滑动窗口计数表，用于大量key(例如按IP统计)的CC计数。
+ * <p>
+ * 所有数据保存在一个AtomicLongArray中，每个entry占两个long：key的64位hash和SlidingWindow的状态。
+ * 使用开放寻址(线性探测)，创建之后不再分配内存，没有GC压力，10M个entry约占用160MB。
+ * 状态中带有窗口编号，超过一个窗口没有访问的entry即为过期，探测时直接复用，不需要单独的过期线程。
+ * 探测范围内都是有效entry时淘汰当前计数最小的一个，并记录淘汰次数。
+ * 有效key数量超过容量的一半之后淘汰会明显增多，容量应该按照预期key数量的两倍配置。
+ * <p>
+ * 复用和淘汰时与旧key的并发更新之间没有加锁，最多导致新key多计或者少计一次，对限流没有影响。
+ */
+public final class CounterTable {
+    /**
+     * 最大探测长度
+     */
+    private static final int MAX_PROBE = 32;
+    private final AtomicLongArray slab;
+    private final int mask;
+    private final LongAdder used = new LongAdder();
+    private final LongAdder reuses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity entry个数，会向上取整为2的幂
+     */
+    public CounterTable(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 29)
+            throw new IllegalArgumentException("capacity must be in (0, 2^29]");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.slab = new AtomicLongArray(size << 1);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param keyHash      key的64位hash
+     * @param now          当前时间，单位毫秒
+     * @param windowMillis 窗口长度，单位毫秒
+     * @param limit        一个窗口内允许的次数
+     * @return true:通过,false:超过阈值
+     */
+    public boolean tryAcquire(long keyHash, long now, long windowMillis, int limit) {
+        int stateIndex = stateIndex(keyHash, now, windowMillis);
+        if (stateIndex < 0)
+            return true;
+        while (true) {
+            long state = slab.get(stateIndex);
+            long next = SlidingWindow.next(state, now, windowMillis, limit);
+            if (next == SlidingWindow.REJECTED)
+                return false;
+            if (slab.compareAndSet(stateIndex, state, next))
+                return true;
+        }
+    }
+
+    /**
+     * 合并其他节点的计数
+     *
+     * @param keyHash      key的64位hash
+     * @param now          当前时间，单位毫秒
+     * @param windowMillis 窗口长度，单位毫秒
+     * @param deltaWindow  delta所属的窗口编号
+     * @param delta        其他节点通过的次数
+     */
+    public void add(long keyHash, long now, long windowMillis, long deltaWindow, long delta) {
+        int stateIndex = stateIndex(keyHash, now, windowMillis);
+        if (stateIndex < 0)
+            return;
+        while (true) {
+            long state = slab.get(stateIndex);
+            if (slab.compareAndSet(stateIndex, state, SlidingWindow.merge(state, now, windowMillis, deltaWindow, delta)))
+                return;
+        }
+    }
+
+    /**
+     * 计数并返回估算值，不做阈值判断
+     *
+     * @param keyHash      key的64位hash
+     * @param now          当前时间，单位毫秒
+     * @param windowMillis 窗口长度，单位毫秒
+     * @param delta        增加的次数
+     * @return 计数之后滑动窗口内的估算值
+     */
+    public long addAndEstimate(long keyHash, long now, long windowMillis, long delta) {
+        int stateIndex = stateIndex(keyHash, now, windowMillis);
+        if (stateIndex < 0)
+            return 0;
+        while (true) {
+            long state = slab.get(stateIndex);
+            long next = SlidingWindow.merge(state, now, windowMillis, now / windowMillis, delta);
+            if (slab.compareAndSet(stateIndex, state, next))
+                return SlidingWindow.estimate(next, now, windowMillis);
+        }
+    }
+
+    /**
+     * 只读查找，不占用entry
+     *
+     * @return 滑动窗口内的估算值，key不存在时返回0
+     */
+    public long estimate(long keyHash, long now, long windowMillis) {
+        if (keyHash == 0)
+            keyHash = 1;
+        int start = (int) (keyHash ^ (keyHash >>> 32)) & mask;
+        for (int probe = 0; probe < MAX_PROBE; probe++) {
+            int keyIndex = ((start + probe) & mask) << 1;
+            long key = slab.get(keyIndex);
+            if (key == 0)
+                return 0;
+            if (key == keyHash)
+                return SlidingWindow.estimate(slab.get(keyIndex + 1), now, windowMillis);
+        }
+        return 0;
+    }
+
+    /**
+     * 查找key对应的entry，不存在时占用空闲、过期或者计数最小的entry
+     *
+     * @return 状态在slab中的下标，探测范围内的entry都在被并发修改时返回-1
+     */
+    private int stateIndex(long keyHash, long now, long windowMillis) {
+        if (keyHash == 0)
+            keyHash = 1;
+        int start = (int) (keyHash ^ (keyHash >>> 32)) & mask;
+        int victim = -1;
+        long victimCount = Long.MAX_VALUE;
+        for (int probe = 0; probe < MAX_PROBE; probe++) {
+            int slot = (start + probe) & mask;
+            int keyIndex = slot << 1;
+            long key = slab.get(keyIndex);
+            if (key == keyHash)
+                return keyIndex + 1;
+            if (key == 0) {
+                if (slab.compareAndSet(keyIndex, 0, keyHash)) {
+                    used.increment();
+                    return keyIndex + 1;
+                }
+                if (slab.get(keyIndex) == keyHash)
+                    return keyIndex + 1;
+                continue;
+            }
+            long state = slab.get(keyIndex + 1);
+            if (SlidingWindow.isExpired(state, now, windowMillis)) {
+                //过期entry的状态在SlidingWindow中会被重置，只需要替换key
+                if (slab.compareAndSet(keyIndex, key, keyHash)) {
+                    reuses.increment();
+                    return keyIndex + 1;
+                }
+                if (slab.get(keyIndex) == keyHash)
+                    return keyIndex + 1;
+                continue;
+            }
+            long count = SlidingWindow.count(state);
+            if (count < victimCount) {
+                victim = slot;
+                victimCount = count;
+            }
+        }
+
+        if (victim >= 0) {
+            int keyIndex = victim << 1;
+            long key = slab.get(keyIndex);
+            if (slab.compareAndSet(keyIndex, key, keyHash)) {
+                slab.set(keyIndex + 1, 0);
+                evictions.increment();
+            }
+            return keyIndex + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return entry个数
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return 使用过的entry个数
+     */
+    public long used() {
+        return used.sum();
+    }
+
+    /**
+     * @return 复用过期entry的次数
+     */
+    public long reuses() {
+        return reuses.sum();
+    }
+
+    /**
+     * @return 淘汰有效entry的次数
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * 遍历整个表，只用于监控
+     *
+     * @return 没有过期的entry个数
+     */
+    public long live(long now, long windowMillis) {
+        long live = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+            int keyIndex = slot << 1;
+            if (slab.get(keyIndex) != 0 && !SlidingWindow.isExpired(slab.get(keyIndex + 1), now, windowMillis))
+                live++;
+        }
+        return live;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.limiter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Description:
+ * <p>
+ * 根据响应时间自适应调整的并发上限，算法参考Netflix concurrency-limits中的Gradient2。
+ * <p>
+ * longRtt为响应时间的长期平均，代表后端正常时的水平；每个样本计算gradient = tolerance * longRtt / rtt，限定在[0.5, 1]，
+ * 新的上限为 limit * gradient + sqrt(limit)。响应时间稳定时上限按sqrt(limit)增长，后端变慢时按比例收缩，
+ * 超时或者连接失败时直接乘以BACKOFF。并发不到上限一半时说明流量本身不大，不增长上限。
+ */
+public final class GradientLimiter {
+    private static final double SMOOTHING = 0.2;
+    private static final double TOLERANCE = 1.5;
+    private static final double BACKOFF = 0.9;
+    /**
+     * longRtt的EMA权重，约等于最近600个样本的平均
+     */
+    private static final double LONG_WEIGHT = 2.0 / 601;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile double limit;
+    private volatile double longRtt;
+    private volatile double shortRtt;
+
+    public GradientLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > maxLimit)
+            throw new IllegalArgumentException("limit must satisfy 0 < minLimit <= maxLimit");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * @return true:获得一个并发名额，之后必须调用release,false:已达到上限
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inflight.get();
+            if (current >= (int) limit)
+                return false;
+            if (inflight.compareAndSet(current, current + 1))
+                return true;
+        }
+    }
+
+    /**
+     * 释放名额，不作为样本，例如请求在发往后端之前就结束了
+     */
+    public void release() {
+        inflight.decrementAndGet();
+    }
+
+    /**
+     * 释放名额，并根据本次请求的结果调整上限
+     *
+     * @param rttNanos 从发送请求到收到响应的时间，单位纳秒
+     * @param dropped  true:超时或者连接失败
+     */
+    public void release(long rttNanos, boolean dropped) {
+        int sampleInflight = inflight.getAndDecrement();
+        synchronized (this) {
+            if (dropped) {
+                limit = Math.max(minLimit, limit * BACKOFF);
+                return;
+            }
+            if (rttNanos <= 0)
+                return;
+            double rtt = rttNanos;
+            shortRtt = rtt;
+            if (longRtt == 0) {
+                longRtt = rtt;
+            } else {
+                longRtt = longRtt * (1 - LONG_WEIGHT) + rtt * LONG_WEIGHT;
+                //后端恢复之后longRtt中还留有变慢期间的样本，让它尽快回落，否则会长时间放行过多请求
+                if (longRtt / rtt > 2)
+                    longRtt *= 0.95;
+            }
+            if (sampleInflight * 2 < limit)
+                return;
+            double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / rtt));
+            double newLimit = limit * gradient + Math.sqrt(limit);
+            newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+            limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        }
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    /**
+     * @return 最近一个样本的响应时间，单位毫秒
+     */
+    public double getRtt() {
+        return shortRtt / 1_000_000;
+    }
+
+    /**
+     * @return 响应时间的长期平均，单位毫秒
+     */
+    public double getLongRtt() {
+        return longRtt / 1_000_000;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.limiter;
+
+import com.google.common.collect.Maps;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Description:
+ * <p>
+ * 按固定窗口统计高频key，计数使用两个交替的CountMinSketch，进入新窗口时清空较旧的一个，内存固定。
+ * <p>
+ * 同时保留当前窗口估算值最大的k个key用于展示。top-k未满或者估算值超过其中最小值时才需要提供key字符串，
+ * 调用方先用isCandidate()判断，避免每个请求都拼接字符串。
+ */
+public final class HeavyHitters {
+    private final long windowMillis;
+    private final int k;
+    private final CountMinSketch[] sketches;
+    private volatile long window;
+    private final Map<Long, Hitter> top;
+    private volatile int floor;
+
+    public HeavyHitters(long windowMillis, int width, int k) {
+        this.windowMillis = windowMillis;
+        this.k = k;
+        this.sketches = new CountMinSketch[]{new CountMinSketch(width), new CountMinSketch(width)};
+        this.top = Maps.newHashMapWithExpectedSize(k);
+    }
+
+    /**
+     * @param hash key的64位hash
+     * @param now  当前时间，单位毫秒
+     * @return 当前窗口内key的估算次数
+     */
+    public int add(long hash, long now) {
+        long current = now / windowMillis;
+        if (current != window)
+            rotate(current);
+        return sketches[(int) (current & 1)].add(hash);
+    }
+
+    private synchronized void rotate(long current) {
+        //时间回退或者其他线程已经切换过
+        if (current <= window)
+            return;
+        sketches[(int) (current & 1)].clear();
+        top.clear();
+        floor = 0;
+        window = current;
+    }
+
+    /**
+     * @return true:需要调用offer()
+     */
+    public boolean isCandidate(int estimate) {
+        return k > 0 && estimate > floor;
+    }
+
+    public synchronized void offer(long hash, String key, int estimate) {
+        Hitter hitter = top.get(hash);
+        if (hitter != null) {
+            hitter.count = Math.max(hitter.count, estimate);
+        } else if (top.size() < k) {
+            top.put(hash, new Hitter(key, estimate));
+        } else {
+            Map.Entry<Long, Hitter> min = null;
+            for (Map.Entry<Long, Hitter> entry : top.entrySet()) {
+                if (min == null || entry.getValue().count < min.getValue().count)
+                    min = entry;
+            }
+            if (min.getValue().count >= estimate)
+                return;
+            top.remove(min.getKey());
+            top.put(hash, new Hitter(key, estimate));
+        }
+        if (top.size() >= k) {
+            int minCount = Integer.MAX_VALUE;
+            for (Hitter value : top.values()) {
+                minCount = Math.min(minCount, value.count);
+            }
+            floor = minCount;
+        }
+    }
+
+    /**
+     * @return 当前窗口的top-k，按次数降序排列
+     */
+    public synchronized List<Hitter> top() {
+        List<Hitter> hitters = new ArrayList<>(top.size());
+        for (Hitter hitter : top.values()) {
+            hitters.add(new Hitter(hitter.key, hitter.count));
+        }
+        hitters.sort(Comparator.comparingInt(Hitter::getCount).reversed());
+        return hitters;
+    }
+
+    public static final class Hitter {
+        private final String key;
+        private int count;
+
+        Hitter(String key, int count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.limiter;
+
+/**
+ * Description:
+ * <p>
+ * 计数key的64位hash，可以分段追加，不需要拼接字符串。
+ * FNV-1a按char累加，最后用murmur3的fmix64打散，各节点结果一致，可以用于集群计数。
+ */
+public final class KeyHash {
+    private static final long PRIME = 0x100000001b3L;
+    /**
+     * null与空串区分开
+     */
+    private static final long NULL = 0x9e3779b97f4a7c15L;
+
+    private KeyHash() {
+    }
+
+    public static long append(long hash, CharSequence value) {
+        if (value == null)
+            return (hash ^ NULL) * PRIME;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * PRIME;
+        }
+        return hash;
+    }
+
+    public static long append(long hash, char value) {
+        return (hash ^ value) * PRIME;
+    }
+
+    public static long finish(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
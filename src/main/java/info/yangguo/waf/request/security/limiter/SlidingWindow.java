@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.limiter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Description:
+ * <p>
+ * 滑动窗口计数，一个计数器的全部状态压缩在一个long中，通过CAS更新，不需要加锁。
+ * <p>
+ * 状态布局(最高位固定为0)：bit 40-62为窗口编号，bit 20-39为上一个窗口的计数，bit 0-19为当前窗口的计数。
+ * 估算值为 上一个窗口计数 * 上一个窗口在滑动窗口内的占比 + 当前窗口计数，估算值小于阈值时通过并计数，否则拒绝且不计数。
+ */
+public final class SlidingWindow {
+    /**
+     * 单个窗口计数的上限，阈值超过该值时按该值处理
+     */
+    public static final int MAX_COUNT = (1 << 20) - 1;
+    /**
+     * next()返回该值表示拒绝
+     */
+    public static final long REJECTED = -1L;
+    private static final long WINDOW_MASK = (1L << 23) - 1;
+    private static final long COUNT_MASK = MAX_COUNT;
+
+    private SlidingWindow() {
+    }
+
+    /**
+     * @param state        当前状态，0表示新计数器
+     * @param now          当前时间，单位毫秒
+     * @param windowMillis 窗口长度，单位毫秒
+     * @param limit        一个窗口内允许的次数
+     * @return 通过时返回计数之后的状态，拒绝时返回REJECTED
+     */
+    public static long next(long state, long now, long windowMillis, int limit) {
+        long window = now / windowMillis;
+        long elapsed = now - window * windowMillis;
+        long rolled = roll(state, window);
+        if (window(rolled) != (window & WINDOW_MASK)) {
+            //其他线程已经进入了下一个窗口，当前时间稍旧，按照状态中的窗口处理
+            elapsed = 0;
+        }
+        long previous = (rolled >>> 20) & COUNT_MASK;
+        long current = rolled & COUNT_MASK;
+        long cap = Math.min(limit, MAX_COUNT);
+        //previous * (windowMillis - elapsed) / windowMillis + current < limit，两边同乘windowMillis避免浮点运算
+        if (previous * (windowMillis - elapsed) + current * windowMillis >= cap * windowMillis)
+            return REJECTED;
+        return rolled + 1;
+    }
+
+    /**
+     * 合并其他节点的计数，不做阈值判断。delta所属窗口超前时计入当前窗口，过旧时丢弃
+     *
+     * @param state        当前状态，0表示新计数器
+     * @param now          当前时间，单位毫秒
+     * @param windowMillis 窗口长度，单位毫秒
+     * @param deltaWindow  delta所属的窗口编号
+     * @param delta        其他节点通过的次数
+     * @return 合并之后的状态
+     */
+    public static long merge(long state, long now, long windowMillis, long deltaWindow, long delta) {
+        long rolled = roll(state, now / windowMillis);
+        long window = window(rolled);
+        long previous = (rolled >>> 20) & COUNT_MASK;
+        long current = rolled & COUNT_MASK;
+        long diff = (window - deltaWindow) & WINDOW_MASK;
+        if (diff == 0 || diff > WINDOW_MASK >>> 1)
+            current = Math.min(current + delta, COUNT_MASK);
+        else if (diff == 1)
+            previous = Math.min(previous + delta, COUNT_MASK);
+        else
+            return state;
+        return (window << 40) | (previous << 20) | current;
+    }
+
+    /**
+     * @param state        当前状态，0表示新计数器
+     * @param now          当前时间，单位毫秒
+     * @param windowMillis 窗口长度，单位毫秒
+     * @return 滑动窗口内的估算值，向下取整
+     */
+    public static long estimate(long state, long now, long windowMillis) {
+        long window = now / windowMillis;
+        long elapsed = now - window * windowMillis;
+        long rolled = roll(state, window);
+        if (window(rolled) != (window & WINDOW_MASK))
+            elapsed = 0;
+        long previous = (rolled >>> 20) & COUNT_MASK;
+        long current = rolled & COUNT_MASK;
+        return (previous * (windowMillis - elapsed) + current * windowMillis) / windowMillis;
+    }
+
+    /**
+     * 把状态滚动到指定窗口，状态中的窗口比指定窗口新时保持不变
+     */
+    private static long roll(long state, long window) {
+        long diff = (window - (state >>> 40)) & WINDOW_MASK;
+        if (state != 0 && diff > WINDOW_MASK >>> 1)
+            return state;
+        if (state == 0 || diff > 1)
+            return (window & WINDOW_MASK) << 40;
+        if (diff == 1)
+            return ((window & WINDOW_MASK) << 40) | ((state & COUNT_MASK) << 20);
+        return state;
+    }
+
+    /**
+     * @return true:通过,false:超过阈值
+     */
+    public static boolean tryAcquire(AtomicLong counter, long now, long windowMillis, int limit) {
+        while (true) {
+            long state = counter.get();
+            long next = next(state, now, windowMillis, limit);
+            if (next == REJECTED)
+                return false;
+            if (counter.compareAndSet(state, next))
+                return true;
+        }
+    }
+
+    /**
+     * @return 状态对应的窗口编号，用于判断计数器是否过期
+     */
+    public static long window(long state) {
+        return state >>> 40;
+    }
+
+    /**
+     * @return 状态对应的当前窗口计数
+     */
+    public static long count(long state) {
+        return state & COUNT_MASK;
+    }
+
+    /**
+     * 过期的状态在next()中会被当作新计数器处理，所以可以直接复用
+     *
+     * @return true:状态为空或者距离当前时间超过一个窗口
+     */
+    public static boolean isExpired(long state, long now, long windowMillis) {
+        if (state == 0)
+            return true;
+        long diff = (now / windowMillis - window(state)) & WINDOW_MASK;
+        return diff > 1 && diff <= WINDOW_MASK >>> 1;
+    }
+}
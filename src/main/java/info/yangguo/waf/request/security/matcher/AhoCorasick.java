@@ -0,0 +1,191 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Description:
+ * <p>
+ * Aho-Corasick多模式匹配自动机，转移使用稀疏表示：根状态的ASCII转移直接查表，其他转移按字符排序后存放在连续数组中，
+ * 没有转移时沿失败链接回退，每个字符均摊O(1)。内存与trie的边数成正比，不再是状态数乘以字母表大小。
+ */
+final class AhoCorasick {
+    /**
+     * 分支数超过这个值时二分查找，否则顺序查找
+     */
+    private static final int LINEAR_SEARCH = 8;
+    /**
+     * 根状态的ASCII转移，没有转移时为0
+     */
+    private final int[] rootAscii = new int[128];
+    /**
+     * 状态state的转移为edgeChars/edgeTargets中[edgeStart[state], edgeStart[state + 1])的部分，按字符升序
+     */
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] fail;
+    /**
+     * 每个状态自身命中的字面量对应的值，没有命中时为null
+     */
+    private final int[][] outputs;
+    /**
+     * 失败链上最近的有输出的状态，没有时为-1
+     */
+    private final int[] outputLinks;
+
+    /**
+     * @param literals 字面量
+     * @param values   字面量对应的值，扫描命中时回传给调用方
+     */
+    AhoCorasick(List<String> literals, int[] values) {
+        //构建trie
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<TreeSet<Integer>> stateValues = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        stateValues.add(new TreeSet<>());
+        int edgeCount = 0;
+        for (int i = 0; i < literals.size(); i++) {
+            String literal = literals.get(i);
+            int state = 0;
+            for (int j = 0; j < literal.length(); j++) {
+                Integer next = trie.get(state).get(literal.charAt(j));
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(literal.charAt(j), next);
+                    trie.add(new TreeMap<>());
+                    stateValues.add(new TreeSet<>());
+                    edgeCount++;
+                }
+                state = next;
+            }
+            stateValues.get(state).add(values[i]);
+        }
+
+        int stateCount = trie.size();
+        edgeStart = new int[stateCount + 1];
+        edgeChars = new char[edgeCount];
+        edgeTargets = new int[edgeCount];
+        int edge = 0;
+        for (int state = 0; state < stateCount; state++) {
+            edgeStart[state] = edge;
+            for (Map.Entry<Character, Integer> entry : trie.get(state).entrySet()) {
+                edgeChars[edge] = entry.getKey();
+                edgeTargets[edge] = entry.getValue();
+                edge++;
+            }
+        }
+        edgeStart[stateCount] = edge;
+        for (Map.Entry<Character, Integer> entry : trie.get(0).entrySet()) {
+            if (entry.getKey() < 128)
+                rootAscii[entry.getKey()] = entry.getValue();
+        }
+
+        //按BFS顺序计算失败链接和输出链接
+        fail = new int[stateCount];
+        outputs = new int[stateCount][];
+        outputLinks = new int[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            outputs[state] = toArray(stateValues.get(state));
+        }
+        outputLinks[0] = -1;
+        Deque<Integer> queue = new ArrayDeque<>(trie.get(0).values());
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            int link = fail[state];
+            outputLinks[state] = outputs[link] != null ? link : outputLinks[link];
+            for (Map.Entry<Character, Integer> entry : trie.get(state).entrySet()) {
+                int next = entry.getValue();
+                fail[next] = next(fail[state], entry.getKey());
+                queue.add(next);
+            }
+        }
+    }
+
+    private static int[] toArray(TreeSet<Integer> set) {
+        if (set.isEmpty())
+            return null;
+        int[] array = new int[set.size()];
+        int i = 0;
+        for (Integer value : set) {
+            array[i++] = value;
+        }
+        return array;
+    }
+
+    /**
+     * @return state经过字符c的转移，没有时返回-1
+     */
+    private int child(int state, char c) {
+        int from = edgeStart[state];
+        int to = edgeStart[state + 1];
+        if (to - from <= LINEAR_SEARCH) {
+            for (int i = from; i < to; i++) {
+                if (edgeChars[i] == c)
+                    return edgeTargets[i];
+            }
+            return -1;
+        }
+        to--;
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            char midChar = edgeChars[mid];
+            if (midChar < c) {
+                from = mid + 1;
+            } else if (midChar > c) {
+                to = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private int next(int state, char c) {
+        while (state != 0) {
+            int next = child(state, c);
+            if (next >= 0)
+                return next;
+            state = fail[state];
+        }
+        if (c < 128)
+            return rootAscii[c];
+        int next = child(0, c);
+        return next < 0 ? 0 : next;
+    }
+
+    /**
+     * 扫描input，把命中字面量对应的值写入位图hits
+     */
+    void scan(CharSequence input, long[] hits) {
+        int state = 0;
+        for (int i = 0, length = input.length(); i < length; i++) {
+            state = next(state, input.charAt(i));
+            for (int output = outputs[state] != null ? state : outputLinks[state]; output >= 0; output = outputLinks[output]) {
+                for (int value : outputs[output]) {
+                    hits[value >>> 6] |= 1L << value;
+                }
+            }
+        }
+    }
+}
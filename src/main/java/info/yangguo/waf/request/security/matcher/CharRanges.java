@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+import java.util.Arrays;
+
+/**
+ * Description:
+ * <p>
+ * 字符集合工具，集合用升序、互不相交的闭区间表示：[lo0, hi0, lo1, hi1, ...]，只覆盖BMP。
+ */
+final class CharRanges {
+    static final char[] EMPTY = new char[0];
+    static final char[] ANY = {Character.MIN_VALUE, Character.MAX_VALUE};
+    static final char[] DIGIT = {'0', '9'};
+    static final char[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+    static final char[] SPACE = {'\t', '\r', ' ', ' '};
+    /**
+     * "."默认不匹配的行结束符：\n、\r、\u0085、\u2028、\u2029
+     */
+    static final char[] LINE_TERMINATOR = {'\n', '\n', '\r', '\r', '\u0085', '\u0085', '\u2028', '\u2029'};
+    static final char[] DOT = negate(LINE_TERMINATOR);
+
+    private CharRanges() {
+    }
+
+    static char[] of(char c) {
+        return new char[]{c, c};
+    }
+
+    static char[] range(char lo, char hi) {
+        return new char[]{lo, hi};
+    }
+
+    static char[] union(char[] a, char[] b) {
+        if (a.length == 0)
+            return b;
+        if (b.length == 0)
+            return a;
+        char[] all = new char[a.length + b.length];
+        System.arraycopy(a, 0, all, 0, a.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        //按区间起点排序之后合并重叠或相邻的区间
+        int n = all.length / 2;
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            packed[i] = ((long) all[2 * i] << 16) | all[2 * i + 1];
+        }
+        Arrays.sort(packed);
+        char[] result = new char[all.length];
+        int size = 0;
+        for (long p : packed) {
+            char lo = (char) (p >>> 16);
+            char hi = (char) p;
+            if (size > 0 && lo <= result[size - 1] + 1) {
+                if (hi > result[size - 1])
+                    result[size - 1] = hi;
+            } else {
+                result[size++] = lo;
+                result[size++] = hi;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    static char[] negate(char[] a) {
+        char[] result = new char[a.length + 2];
+        int size = 0;
+        int next = Character.MIN_VALUE;
+        for (int i = 0; i < a.length; i += 2) {
+            if (a[i] > next) {
+                result[size++] = (char) next;
+                result[size++] = (char) (a[i] - 1);
+            }
+            next = a[i + 1] + 1;
+        }
+        if (next <= Character.MAX_VALUE) {
+            result[size++] = (char) next;
+            result[size++] = Character.MAX_VALUE;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    static boolean contains(char[] a, char c) {
+        for (int i = 0; i < a.length; i += 2) {
+            if (c < a[i])
+                return false;
+            if (c <= a[i + 1])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * 集合中字符的个数
+     */
+    static int size(char[] a) {
+        int size = 0;
+        for (int i = 0; i < a.length; i += 2) {
+            size += a[i + 1] - a[i] + 1;
+        }
+        return size;
+    }
+}
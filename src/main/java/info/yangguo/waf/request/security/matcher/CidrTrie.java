@@ -0,0 +1,285 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+import com.google.common.net.InetAddresses;
+
+import java.util.Arrays;
+
+/**
+ * Description:
+ * <p>
+ * IP前缀的压缩二叉基数树(Patricia trie)，IPv4按照IPv4-mapped IPv6地址(::ffff:0:0/96)存储，与IPv6共用一棵树。
+ * 节点全部存放在基本类型数组中，配置变更时构建，构建之后只读，查找代价与前缀长度成正比，返回最长匹配前缀。
+ */
+public final class CidrTrie {
+    private static final long IPV4_MAPPED = 0xFFFF00000000L;
+
+    /**
+     * 节点前缀的高64位和低64位，前缀长度之外的位都是0
+     */
+    private long[] his;
+    private long[] los;
+    private byte[] lengths;
+    private int[] lefts;
+    private int[] rights;
+    /**
+     * 节点对应的值，-1表示该节点只是分叉点
+     */
+    private int[] values;
+    private int size;
+
+    public CidrTrie() {
+        int capacity = 16;
+        his = new long[capacity];
+        los = new long[capacity];
+        lengths = new byte[capacity];
+        lefts = new int[capacity];
+        rights = new int[capacity];
+        values = new int[capacity];
+        //根节点，长度为0的前缀
+        newNode(0, 0, 0, -1);
+    }
+
+    /**
+     * 添加IP或者CIDR，同一个前缀重复添加时保留第一次的值
+     *
+     * @param cidr  例如"10.0.0.1"、"10.0.0.0/8"、"2001:db8::/32"
+     * @param value 非负数，查找命中时返回
+     * @return false:cidr不是合法的IP或者CIDR，没有添加
+     */
+    public boolean add(String cidr, int value) {
+        String address = cidr;
+        int length = -1;
+        int slash = cidr.indexOf('/');
+        if (slash >= 0) {
+            address = cidr.substring(0, slash);
+            try {
+                length = Integer.parseInt(cidr.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (length < 0)
+                return false;
+        }
+        long hi;
+        long lo;
+        long ipv4 = parseIpv4(address);
+        if (ipv4 >= 0) {
+            if (length > 32)
+                return false;
+            hi = 0;
+            lo = IPV4_MAPPED | ipv4;
+            length = length < 0 ? 128 : length + 96;
+        } else {
+            long[] ipv6 = parseIpv6(address);
+            if (ipv6 == null || length > 128)
+                return false;
+            hi = ipv6[0];
+            lo = ipv6[1];
+            length = length < 0 ? 128 : length;
+        }
+        insert(mask(hi, length, true), mask(lo, length, false), length, value);
+        return true;
+    }
+
+    /**
+     * 查找包含ip的最长前缀
+     *
+     * @param ip IPv4或者IPv6地址
+     * @return 最长前缀对应的值，没有命中或者ip不合法时返回-1
+     */
+    public int lookup(String ip) {
+        long hi;
+        long lo;
+        long ipv4 = parseIpv4(ip);
+        if (ipv4 >= 0) {
+            hi = 0;
+            lo = IPV4_MAPPED | ipv4;
+        } else {
+            long[] ipv6 = parseIpv6(ip);
+            if (ipv6 == null)
+                return -1;
+            hi = ipv6[0];
+            lo = ipv6[1];
+        }
+        int best = -1;
+        int node = 0;
+        while (node >= 0) {
+            int length = lengths[node] & 0xFF;
+            if (mask(hi, length, true) != his[node] || mask(lo, length, false) != los[node])
+                break;
+            if (values[node] >= 0)
+                best = values[node];
+            if (length == 128)
+                break;
+            node = bit(hi, lo, length) == 0 ? lefts[node] : rights[node];
+        }
+        return best;
+    }
+
+    /**
+     * 前缀个数
+     */
+    public int size() {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (values[i] >= 0)
+                count++;
+        }
+        return count;
+    }
+
+    private void insert(long hi, long lo, int length, int value) {
+        int node = 0;
+        while (true) {
+            int nodeLength = lengths[node] & 0xFF;
+            if (length == nodeLength) {
+                if (values[node] < 0)
+                    values[node] = value;
+                return;
+            }
+            int bit = bit(hi, lo, nodeLength);
+            int child = bit == 0 ? lefts[node] : rights[node];
+            if (child < 0) {
+                setChild(node, bit, newNode(hi, lo, length, value));
+                return;
+            }
+            int childLength = lengths[child] & 0xFF;
+            int common = Math.min(Math.min(length, childLength), commonPrefix(hi, lo, his[child], los[child]));
+            if (common == childLength) {
+                node = child;
+                continue;
+            }
+            //在node和child之间插入分叉点
+            int fork = newNode(mask(hi, common, true), mask(lo, common, false), common, -1);
+            setChild(fork, bit(his[child], los[child], common), child);
+            setChild(node, bit, fork);
+            if (common == length) {
+                values[fork] = value;
+            } else {
+                setChild(fork, bit(hi, lo, common), newNode(hi, lo, length, value));
+            }
+            return;
+        }
+    }
+
+    private int newNode(long hi, long lo, int length, int value) {
+        if (size == values.length) {
+            int capacity = size * 2;
+            his = Arrays.copyOf(his, capacity);
+            los = Arrays.copyOf(los, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lefts = Arrays.copyOf(lefts, capacity);
+            rights = Arrays.copyOf(rights, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        his[size] = hi;
+        los[size] = lo;
+        lengths[size] = (byte) length;
+        lefts[size] = -1;
+        rights[size] = -1;
+        values[size] = value;
+        return size++;
+    }
+
+    private void setChild(int node, int bit, int child) {
+        if (bit == 0) {
+            lefts[node] = child;
+        } else {
+            rights[node] = child;
+        }
+    }
+
+    private static int bit(long hi, long lo, int index) {
+        return index < 64 ? (int) (hi >>> (63 - index)) & 1 : (int) (lo >>> (127 - index)) & 1;
+    }
+
+    private static int commonPrefix(long hi1, long lo1, long hi2, long lo2) {
+        long diff = hi1 ^ hi2;
+        if (diff != 0)
+            return Long.numberOfLeadingZeros(diff);
+        diff = lo1 ^ lo2;
+        return diff != 0 ? 64 + Long.numberOfLeadingZeros(diff) : 128;
+    }
+
+    /**
+     * 只保留前length位
+     *
+     * @param high true:value为高64位，false:value为低64位
+     */
+    private static long mask(long value, int length, boolean high) {
+        int bits = high ? length : length - 64;
+        if (bits <= 0)
+            return 0;
+        if (bits >= 64)
+            return value;
+        return value & ~(-1L >>> bits);
+    }
+
+    /**
+     * @return 32位无符号整数，不是点分十进制的IPv4地址时返回-1
+     */
+    static long parseIpv4(String ip) {
+        int length = ip.length();
+        if (length < 7 || length > 15)
+            return -1;
+        long result = 0;
+        int octet = -1;
+        int dots = 0;
+        for (int i = 0; i < length; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255)
+                    return -1;
+            } else if (c == '.' && octet >= 0 && dots < 3) {
+                result = (result << 8) | octet;
+                octet = -1;
+                dots++;
+            } else {
+                return -1;
+            }
+        }
+        if (dots != 3 || octet < 0)
+            return -1;
+        return (result << 8) | octet;
+    }
+
+    /**
+     * @return 高64位和低64位，不是合法的IPv6地址时返回null
+     */
+    static long[] parseIpv6(String ip) {
+        int scope = ip.indexOf('%');
+        if (scope >= 0)
+            ip = ip.substring(0, scope);
+        if (ip.indexOf(':') < 0 || !InetAddresses.isInetAddress(ip))
+            return null;
+        byte[] bytes = InetAddresses.forString(ip).getAddress();
+        if (bytes.length == 4) {
+            //IPv4-mapped地址会被解析成Inet4Address
+            long ipv4 = ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16) | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+            return new long[]{0, IPV4_MAPPED | ipv4};
+        }
+        long hi = 0;
+        long lo = 0;
+        for (int i = 0; i < 8; i++) {
+            hi = (hi << 8) | (bytes[i] & 0xFF);
+            lo = (lo << 8) | (bytes[i + 8] & 0xFF);
+        }
+        return new long[]{hi, lo};
+    }
+}
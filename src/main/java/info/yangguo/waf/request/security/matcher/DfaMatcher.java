@@ -0,0 +1,509 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Description:
+ * <p>
+ * 基于惰性DFA的匹配器。所有规则合并为一个Thompson NFA，匹配时按需做子集构造并缓存DFA状态，
+ * 每个输入字符只做一次状态转移，耗时与输入长度成线性关系，不存在回溯。
+ * DFA状态中记录已经命中的最小规则下标，下标更大的规则会被剪枝，因此直接得到第一个命中的规则。
+ * <p>
+ * 反向引用、lookaround、\b等无法用自动机表达的规则回退到java.util.regex。
+ * <p>
+ * 与java.util.regex一样按code point匹配：规则中不允许出现代理字符，也不允许跨过代理区的区间，
+ * 所以每个字符集合要么包含全部代理字符和增补字符，要么都不包含。代理对作为一个字符按其高位代理字符的等价类转移，
+ * 单独的代理字符按自身转移，任何输入都不会回退。
+ */
+public final class DfaMatcher implements RuleMatcher {
+    /**
+     * 每个线程缓存的DFA状态上限，超过之后清空重建
+     */
+    static final int MAX_STATES = 2000;
+    /**
+     * NFA状态上限，超出之后的规则回退到java.util.regex
+     */
+    static final int MAX_NFA_STATES = 20000;
+
+    private static final byte CHAR = 0;
+    private static final byte SPLIT = 1;
+    private static final byte BEGIN = 2;
+    private static final byte END = 3;
+    private static final byte END_INPUT = 4;
+    private static final byte MATCH = 5;
+
+    private final byte[] types;
+    private final int[] out1;
+    private final int[] out2;
+    /**
+     * NFA状态所属的规则(DFA内部下标)
+     */
+    private final int[] rules;
+    /**
+     * CHAR状态接受的字符等价类位图
+     */
+    private final long[][] accepts;
+    /**
+     * 每条规则的起始状态
+     */
+    private final int[] starts;
+    /**
+     * DFA内部下标对应的规则下标
+     */
+    private final int[] ruleIndexes;
+    /**
+     * 回退到java.util.regex的规则下标，升序
+     */
+    private final int[] fallbacks;
+    /**
+     * 所有可用的规则下标，升序
+     */
+    private final int[] valids;
+    /**
+     * 字符等价类的分界点，字符c的等价类为分界点中不大于c的个数
+     */
+    private final char[] boundaries;
+    private final int[] asciiClasses = new int[128];
+    private final int classCount;
+    private final ThreadLocal<Cache> caches;
+
+    private DfaMatcher(NfaBuilder builder, int[] starts, int[] ruleIndexes, int[] fallbacks, int[] valids) {
+        int size = builder.size;
+        this.types = Arrays.copyOf(builder.types, size);
+        this.out1 = Arrays.copyOf(builder.out1, size);
+        this.out2 = Arrays.copyOf(builder.out2, size);
+        this.rules = Arrays.copyOf(builder.rules, size);
+        this.starts = starts;
+        this.ruleIndexes = ruleIndexes;
+        this.fallbacks = fallbacks;
+        this.valids = valids;
+
+        TreeSet<Integer> points = new TreeSet<>();
+        for (int n = 0; n < size; n++) {
+            if (types[n] == CHAR) {
+                char[] ranges = builder.ranges[n];
+                for (int i = 0; i < ranges.length; i += 2) {
+                    points.add((int) ranges[i]);
+                    points.add(ranges[i + 1] + 1);
+                }
+            }
+        }
+        points.remove(0);
+        points.remove(Character.MAX_VALUE + 1);
+        boundaries = new char[points.size()];
+        int i = 0;
+        for (Integer point : points) {
+            boundaries[i++] = (char) point.intValue();
+        }
+        classCount = boundaries.length + 1;
+        for (char c = 0; c < 128; c++) {
+            asciiClasses[c] = upperBound(c);
+        }
+
+        accepts = new long[size][];
+        for (int n = 0; n < size; n++) {
+            if (types[n] == CHAR) {
+                long[] bits = new long[(classCount + 63) >>> 6];
+                for (int cls = 0; cls < classCount; cls++) {
+                    char representative = cls == 0 ? 0 : boundaries[cls - 1];
+                    if (CharRanges.contains(builder.ranges[n], representative))
+                        bits[cls >>> 6] |= 1L << cls;
+                }
+                accepts[n] = bits;
+            }
+        }
+        caches = ThreadLocal.withInitial(Cache::new);
+    }
+
+    /**
+     * @param regexes 按配置顺序排列的正则，null表示该规则不可用，永远不会命中
+     */
+    public static DfaMatcher compile(List<String> regexes) {
+        NfaBuilder builder = new NfaBuilder();
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> ruleIndexes = new ArrayList<>();
+        List<Integer> fallbacks = new ArrayList<>();
+        List<Integer> valids = new ArrayList<>();
+        for (int i = 0; i < regexes.size(); i++) {
+            String regex = regexes.get(i);
+            if (regex == null)
+                continue;
+            valids.add(i);
+            int mark = builder.size;
+            try {
+                RegexNode node = RegexParser.parseRegular(regex);
+                int rule = ruleIndexes.size();
+                int match = builder.add(MATCH, -1, -1, null, rule);
+                starts.add(builder.build(node, match, rule));
+                ruleIndexes.add(i);
+            } catch (UnsupportedRegexException e) {
+                builder.size = mark;
+                fallbacks.add(i);
+            }
+        }
+        return new DfaMatcher(builder, toArray(starts), toArray(ruleIndexes), toArray(fallbacks), toArray(valids));
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * 由DFA处理的规则个数
+     */
+    public int getDfaRuleCount() {
+        return ruleIndexes.length;
+    }
+
+    @Override
+    public int find(CharSequence input, IntPredicate confirm, IntPredicate accept) {
+        int best = -1;
+        if (ruleIndexes.length > 0) {
+            int rule = search(input);
+            if (rule < ruleIndexes.length)
+                best = ruleIndexes[rule];
+        }
+        for (int index : fallbacks) {
+            if (best >= 0 && index > best)
+                break;
+            if (confirm.test(index))
+                return index;
+        }
+        if (best >= 0 && !accept.test(best)) {
+            //DFA只给出最小的命中规则，该规则不能命中时后面的规则逐个确认，只在规则被禁用时发生
+            for (int index : valids) {
+                if (index > best && confirm.test(index))
+                    return index;
+            }
+            return -1;
+        }
+        return best;
+    }
+
+    /**
+     * @return 命中的最小DFA内部规则下标，没有命中返回规则个数
+     */
+    private int search(CharSequence input) {
+        Cache cache = caches.get();
+        int length = input.length();
+        //"$"只可能在最后两个字符的位置成立，这部分交给NFA精确计算，之前的部分走DFA
+        int tail = Math.max(0, length - 2);
+        if (tail == 0)
+            return cache.simulate(input, 0, starts, ruleIndexes.length);
+        State state = cache.initial();
+        int position = 0;
+        while (position < tail && state.best > 0) {
+            char c = input.charAt(position);
+            position = next(input, position, c);
+            int cls = classOf(c);
+            State next = state.next[cls];
+            if (next == null)
+                next = cache.step(state, cls);
+            state = next;
+        }
+        if (state.best == 0)
+            return 0;
+        return cache.simulate(input, position, state.nfa, state.best);
+    }
+
+    /**
+     * @return 下一个code point的位置，代理对一次跳过两个字符
+     */
+    private static int next(CharSequence input, int position, char c) {
+        if (Character.isHighSurrogate(c) && position + 1 < input.length() && Character.isLowSurrogate(input.charAt(position + 1)))
+            return position + 2;
+        return position + 1;
+    }
+
+    private int classOf(char c) {
+        return c < 128 ? asciiClasses[c] : upperBound(c);
+    }
+
+    private int upperBound(char c) {
+        int low = 0;
+        int high = boundaries.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (boundaries[middle] <= c) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean accept(int n, int cls) {
+        return (accepts[n][cls >>> 6] & (1L << cls)) != 0;
+    }
+
+    /**
+     * 默认模式下的"$"：输入结尾，或者结尾的行结束符之前
+     */
+    private static boolean isEnd(CharSequence input, int position) {
+        int length = input.length();
+        if (position == length)
+            return true;
+        if (position == length - 1) {
+            char c = input.charAt(position);
+            if (c == '\n')
+                return position == 0 || input.charAt(position - 1) != '\r';
+            return c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+        }
+        return position == length - 2 && input.charAt(position) == '\r' && input.charAt(position + 1) == '\n';
+    }
+
+    /**
+     * DFA状态：NFA状态集合(只保留CHAR以及待定的结尾断言)以及已经命中的最小规则
+     */
+    private static final class State {
+        final int[] nfa;
+        final int best;
+        final State[] next;
+        final int hash;
+
+        State(int[] nfa, int best, int classCount) {
+            this.nfa = nfa;
+            this.best = best;
+            this.next = new State[classCount];
+            this.hash = 31 * Arrays.hashCode(nfa) + best;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof State))
+                return false;
+            State other = (State) obj;
+            return best == other.best && Arrays.equals(nfa, other.nfa);
+        }
+    }
+
+    /**
+     * 线程私有的DFA状态缓存以及计算闭包用的临时空间
+     */
+    private final class Cache {
+        private final Map<State, State> states = new HashMap<>();
+        private State initial;
+        private final int[] marks = new int[types.length];
+        private int generation;
+        private final int[] stack = new int[types.length * 3 + 1];
+        private final int[] buffer = new int[types.length];
+        private final int[] seeds = new int[types.length + starts.length];
+
+        State initial() {
+            if (initial == null)
+                initial = intern(closure(starts, starts.length, true, false, false, ruleIndexes.length));
+            return initial;
+        }
+
+        State step(State from, int cls) {
+            int count = collectSeeds(from.nfa, cls, from.best);
+            State next = intern(closure(seeds, count, false, false, false, from.best));
+            from.next[cls] = next;
+            return next;
+        }
+
+        /**
+         * 从position开始逐个字符模拟NFA，精确计算所有断言
+         */
+        int simulate(CharSequence input, int position, int[] nfa, int best) {
+            int length = input.length();
+            State current = closure(nfa, nfa.length, position == 0, isEnd(input, position), position == length, best);
+            while (position < length && current.best > 0) {
+                char c = input.charAt(position);
+                position = next(input, position, c);
+                int count = collectSeeds(current.nfa, classOf(c), current.best);
+                current = closure(seeds, count, false, isEnd(input, position), position == length, current.best);
+            }
+            return current.best;
+        }
+
+        /**
+         * 消费一个字符之后的NFA状态，以及在下一个位置重新开始匹配的规则起始状态
+         */
+        private int collectSeeds(int[] nfa, int cls, int best) {
+            int count = 0;
+            for (int n : nfa) {
+                if (types[n] == CHAR && accept(n, cls))
+                    seeds[count++] = out1[n];
+            }
+            for (int rule = 0; rule < best; rule++) {
+                seeds[count++] = starts[rule];
+            }
+            return count;
+        }
+
+        private State closure(int[] from, int count, boolean begin, boolean end, boolean endInput, int best) {
+            if (++generation == 0) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+            int top = 0;
+            for (int i = 0; i < count; i++) {
+                stack[top++] = from[i];
+            }
+            int size = 0;
+            while (top > 0) {
+                int n = stack[--top];
+                if (marks[n] == generation)
+                    continue;
+                marks[n] = generation;
+                switch (types[n]) {
+                    case CHAR:
+                        buffer[size++] = n;
+                        break;
+                    case SPLIT:
+                        stack[top++] = out2[n];
+                        stack[top++] = out1[n];
+                        break;
+                    case BEGIN:
+                        if (begin)
+                            stack[top++] = out1[n];
+                        break;
+                    case END:
+                        buffer[size++] = n;
+                        if (end)
+                            stack[top++] = out1[n];
+                        break;
+                    case END_INPUT:
+                        buffer[size++] = n;
+                        if (endInput)
+                            stack[top++] = out1[n];
+                        break;
+                    default:
+                        best = Math.min(best, rules[n]);
+                }
+            }
+            //命中规则之后，下标更大的规则已经没有意义
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (rules[buffer[i]] < best)
+                    buffer[kept++] = buffer[i];
+            }
+            int[] nfa = Arrays.copyOf(buffer, kept);
+            Arrays.sort(nfa);
+            return new State(nfa, best, classCount);
+        }
+
+        private State intern(State state) {
+            State existing = states.get(state);
+            if (existing != null)
+                return existing;
+            if (states.size() >= MAX_STATES) {
+                states.clear();
+                initial = null;
+            }
+            states.put(state, state);
+            return state;
+        }
+    }
+
+    /**
+     * Thompson构造，从后往前生成，每个节点直接连接到后继状态
+     */
+    private static final class NfaBuilder {
+        byte[] types = new byte[64];
+        int[] out1 = new int[64];
+        int[] out2 = new int[64];
+        int[] rules = new int[64];
+        char[][] ranges = new char[64][];
+        int size;
+
+        int add(byte type, int next1, int next2, char[] chars, int rule) {
+            if (size >= MAX_NFA_STATES)
+                throw new UnsupportedRegexException("", size, "too many nfa states");
+            if (size == types.length) {
+                int capacity = size * 2;
+                types = Arrays.copyOf(types, capacity);
+                out1 = Arrays.copyOf(out1, capacity);
+                out2 = Arrays.copyOf(out2, capacity);
+                rules = Arrays.copyOf(rules, capacity);
+                ranges = Arrays.copyOf(ranges, capacity);
+            }
+            types[size] = type;
+            out1[size] = next1;
+            out2[size] = next2;
+            rules[size] = rule;
+            ranges[size] = chars;
+            return size++;
+        }
+
+        int build(RegexNode node, int next, int rule) {
+            switch (node.type) {
+                case EMPTY:
+                    return next;
+                case CHARS:
+                    return add(CHAR, next, -1, node.ranges, rule);
+                case CONCAT:
+                    for (int i = node.children.size() - 1; i >= 0; i--) {
+                        next = build(node.children.get(i), next, rule);
+                    }
+                    return next;
+                case ALTERNATE:
+                    int last = node.children.size() - 1;
+                    int alternate = build(node.children.get(last), next, rule);
+                    for (int i = last - 1; i >= 0; i--) {
+                        int branch = build(node.children.get(i), next, rule);
+                        alternate = add(SPLIT, branch, alternate, null, rule);
+                    }
+                    return alternate;
+                case REPEAT:
+                    RegexNode child = node.children.get(0);
+                    int start = next;
+                    if (node.max < 0) {
+                        int loop = add(SPLIT, -1, next, null, rule);
+                        int body = build(child, loop, rule);
+                        out1[loop] = body;
+                        start = loop;
+                    } else {
+                        for (int i = node.min; i < node.max; i++) {
+                            int body = build(child, start, rule);
+                            start = add(SPLIT, body, next, null, rule);
+                        }
+                    }
+                    for (int i = 0; i < node.min; i++) {
+                        start = build(child, start, rule);
+                    }
+                    return start;
+                case BEGIN:
+                    return add(BEGIN, next, -1, null, rule);
+                case END:
+                    return add(END, next, -1, null, rule);
+                case END_INPUT:
+                    return add(END_INPUT, next, -1, null, rule);
+                default:
+                    throw new UnsupportedRegexException("", size, "assertion " + node.type);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Description:
+ * <p>
+ * 一个filter下所有规则的整串匹配器，对应Matcher.matches()。
+ * 去掉首尾锚点之后是字面量的规则放入HashMap，一次查找即可得到命中的规则；
+ * 其余规则按配置顺序执行完整正则，只检查排在字面量命中规则之前的部分，因此返回的规则与逐条匹配时完全一致。
+ */
+public final class ExactMatcher {
+    /**
+     * 字面量对应的所有规则下标，升序，前面的规则被禁用时后面相同字面量的规则仍然可以命中
+     */
+    private final Map<String, int[]> literals;
+    /**
+     * 需要执行完整正则的规则下标，升序
+     */
+    private final int[] regexIndexes;
+
+    private ExactMatcher(Map<String, int[]> literals, int[] regexIndexes) {
+        this.literals = literals;
+        this.regexIndexes = regexIndexes;
+    }
+
+    /**
+     * @param regexes 按配置顺序排列的正则，null表示该规则不可用，永远不会命中
+     */
+    public static ExactMatcher compile(List<String> regexes) {
+        Map<String, List<Integer>> literalIndexes = new HashMap<>();
+        List<Integer> regexIndexes = new ArrayList<>();
+        for (int i = 0; i < regexes.size(); i++) {
+            String regex = regexes.get(i);
+            if (regex == null)
+                continue;
+            String literal = null;
+            try {
+                literal = LiteralExtractor.anchoredLiteral(RegexParser.parse(regex));
+            } catch (UnsupportedRegexException e) {
+                //不支持的语法，执行完整正则
+            }
+            if (literal != null)
+                literalIndexes.computeIfAbsent(literal, key -> new ArrayList<>()).add(i);
+            else
+                regexIndexes.add(i);
+        }
+        Map<String, int[]> literals = new HashMap<>();
+        literalIndexes.forEach((literal, indexes) -> literals.put(literal, toArray(indexes)));
+        return new ExactMatcher(literals, toArray(regexIndexes));
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * @param input   待匹配的内容
+     * @param confirm 对非字面量规则执行完整正则匹配，参数为规则下标
+     * @return 按配置顺序第一个整串匹配成功的规则下标，没有则返回-1
+     */
+    public int matches(CharSequence input, IntPredicate confirm) {
+        return matches(input, confirm, index -> true);
+    }
+
+    /**
+     * @param input   待匹配的内容
+     * @param confirm 对非字面量规则执行完整正则匹配，参数为规则下标
+     * @param accept  字面量命中时调用，返回false表示该规则不能命中(例如已被RuleGuard禁用)，继续匹配其他规则
+     * @return 按配置顺序第一个整串匹配成功的规则下标，没有则返回-1
+     */
+    public int matches(CharSequence input, IntPredicate confirm, IntPredicate accept) {
+        int[] candidates = literals.isEmpty() ? null : literals.get(input.toString());
+        int literal = -1;
+        if (candidates != null) {
+            for (int index : candidates) {
+                if (accept.test(index)) {
+                    literal = index;
+                    break;
+                }
+            }
+        }
+        int limit = literal < 0 ? Integer.MAX_VALUE : literal;
+        for (int index : regexIndexes) {
+            if (index > limit)
+                break;
+            if (confirm.test(index))
+                return index;
+        }
+        return literal;
+    }
+}
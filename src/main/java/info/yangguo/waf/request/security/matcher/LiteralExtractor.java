@@ -0,0 +1,212 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Description:
+ * <p>
+ * 从正则语法树中提取必需字面量：任何能被正则匹配的字符串都至少包含集合中的一个字面量。
+ * 提取不出来时返回null，调用方需要对该正则每次都执行完整匹配。
+ */
+final class LiteralExtractor {
+    /**
+     * 精确集合的最大元素个数，超过之后退化为必需字面量集合
+     */
+    private static final int EXACT_LIMIT = 16;
+    /**
+     * 字符类的字符个数不超过该值时展开为精确集合
+     */
+    private static final int CLASS_LIMIT = 8;
+    private static final Info EMPTY = new Info(Collections.singleton(""), null);
+    private static final Info UNKNOWN = new Info(null, null);
+
+    private LiteralExtractor() {
+    }
+
+    /**
+     * @param node 正则语法树
+     * @return 必需字面量集合，返回null表示无法提取
+     */
+    static Set<String> extract(RegexNode node) {
+        return analyze(node).required();
+    }
+
+    /**
+     * @param node 正则语法树
+     * @return 正则只由单个字符顺序组成时返回对应的字面量，此时find()等价于indexOf()，其余情况返回null
+     */
+    static String literal(RegexNode node) {
+        if (node.type == RegexNode.Type.CONCAT)
+            return literal(node.children, 0, node.children.size());
+        return literal(Collections.singletonList(node), 0, 1);
+    }
+
+    /**
+     * 与literal()相同，但是允许开头的^、\A以及结尾的$、\Z、\z，它们在matches()中总是成立，此时matches()等价于equals()
+     */
+    static String anchoredLiteral(RegexNode node) {
+        List<RegexNode> children = node.type == RegexNode.Type.CONCAT ? node.children : Collections.singletonList(node);
+        int from = 0;
+        int to = children.size();
+        while (from < to && children.get(from).type == RegexNode.Type.BEGIN) {
+            from++;
+        }
+        while (to > from && (children.get(to - 1).type == RegexNode.Type.END || children.get(to - 1).type == RegexNode.Type.END_INPUT)) {
+            to--;
+        }
+        return literal(children, from, to);
+    }
+
+    private static String literal(List<RegexNode> nodes, int from, int to) {
+        if (from >= to)
+            return null;
+        StringBuilder literal = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            RegexNode node = nodes.get(i);
+            if (node.type != RegexNode.Type.CHARS || node.ranges.length != 2 || node.ranges[0] != node.ranges[1])
+                return null;
+            literal.append(node.ranges[0]);
+        }
+        return literal.toString();
+    }
+
+    private static Info analyze(RegexNode node) {
+        switch (node.type) {
+            case CHARS:
+                if (CharRanges.size(node.ranges) > CLASS_LIMIT)
+                    return UNKNOWN;
+                Set<String> chars = new LinkedHashSet<>();
+                for (int i = 0; i < node.ranges.length; i += 2) {
+                    for (int c = node.ranges[i]; c <= node.ranges[i + 1]; c++) {
+                        chars.add(String.valueOf((char) c));
+                    }
+                }
+                return new Info(chars, null);
+            case CONCAT:
+                Info concat = EMPTY;
+                for (RegexNode child : node.children) {
+                    concat = concat(concat, analyze(child));
+                }
+                return concat;
+            case ALTERNATE:
+                Info alternate = null;
+                for (RegexNode child : node.children) {
+                    Info info = analyze(child);
+                    alternate = alternate == null ? info : alternate(alternate, info);
+                }
+                return alternate;
+            case REPEAT:
+                if (node.max == 0)
+                    return EMPTY;
+                Info child = analyze(node.children.get(0));
+                Info once = child;
+                if (node.max != 1) {
+                    if (child.exact != null && node.min == node.max && node.min <= EXACT_LIMIT) {
+                        once = EMPTY;
+                        for (int i = 0; i < node.min; i++) {
+                            once = concat(once, child);
+                        }
+                    } else {
+                        //重复至少一次，必然包含子表达式的必需字面量
+                        once = new Info(null, child.required());
+                    }
+                }
+                return node.min == 0 ? alternate(once, EMPTY) : once;
+            default:
+                //空串以及零宽断言
+                return EMPTY;
+        }
+    }
+
+    private static Info concat(Info a, Info b) {
+        if (a.exact != null && b.exact != null && a.exact.size() * b.exact.size() <= EXACT_LIMIT) {
+            Set<String> exact = new LinkedHashSet<>();
+            for (String x : a.exact) {
+                for (String y : b.exact) {
+                    exact.add(x + y);
+                }
+            }
+            return new Info(exact, null);
+        }
+        return new Info(null, better(a.required(), b.required()));
+    }
+
+    private static Info alternate(Info a, Info b) {
+        if (a.exact != null && b.exact != null) {
+            Set<String> exact = new LinkedHashSet<>(a.exact);
+            exact.addAll(b.exact);
+            if (exact.size() <= EXACT_LIMIT)
+                return new Info(exact, null);
+        }
+        Set<String> ra = a.required();
+        Set<String> rb = b.required();
+        if (ra == null || rb == null)
+            return UNKNOWN;
+        Set<String> any = new LinkedHashSet<>(ra);
+        any.addAll(rb);
+        return new Info(null, any);
+    }
+
+    /**
+     * 选择过滤效果更好的集合：最短字面量越长越好，其次元素越少越好
+     */
+    private static Set<String> better(Set<String> a, Set<String> b) {
+        if (a == null)
+            return b;
+        if (b == null)
+            return a;
+        int la = minLength(a);
+        int lb = minLength(b);
+        if (la != lb)
+            return la > lb ? a : b;
+        return a.size() <= b.size() ? a : b;
+    }
+
+    private static int minLength(Set<String> set) {
+        int min = Integer.MAX_VALUE;
+        for (String s : set) {
+            min = Math.min(min, s.length());
+        }
+        return min;
+    }
+
+    private static final class Info {
+        /**
+         * 匹配内容的精确集合，null表示无法穷举
+         */
+        final Set<String> exact;
+        /**
+         * 匹配内容必然包含其中之一的字面量集合，null表示没有约束
+         */
+        final Set<String> any;
+
+        Info(Set<String> exact, Set<String> any) {
+            this.exact = exact;
+            this.any = any;
+        }
+
+        Set<String> required() {
+            if (exact != null)
+                return exact.contains("") ? null : exact;
+            return any;
+        }
+    }
+}
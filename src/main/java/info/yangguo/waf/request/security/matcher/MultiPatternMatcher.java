@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * Description:
+ * <p>
+ * 一个filter下所有规则的多模式匹配器。
+ * 构建时从每条正则中提取必需字面量放入Aho-Corasick自动机，匹配时先扫描一遍输入得到候选规则，
+ * 再按配置顺序只对候选规则执行完整正则确认，因此返回的规则与逐条匹配时完全一致。
+ * 提取不出字面量的规则每次都会作为候选。
+ * 正则本身就是字面量的规则，自动机命中即代表匹配成功，不再执行正则确认。
+ */
+public final class MultiPatternMatcher implements RuleMatcher {
+    private final AhoCorasick automaton;
+    /**
+     * 每次都需要执行完整正则的规则位图，按内部下标
+     */
+    private final long[] alwaysRun;
+    /**
+     * 正则本身就是字面量的规则位图，按内部下标
+     */
+    private final long[] exact;
+    /**
+     * 内部下标对应的规则下标，只包含可用的规则
+     */
+    private final int[] ruleIndexes;
+
+    private MultiPatternMatcher(AhoCorasick automaton, long[] alwaysRun, long[] exact, int[] ruleIndexes) {
+        this.automaton = automaton;
+        this.alwaysRun = alwaysRun;
+        this.exact = exact;
+        this.ruleIndexes = ruleIndexes;
+    }
+
+    /**
+     * @param regexes 按配置顺序排列的正则，null表示该规则不可用，永远不会命中
+     */
+    public static MultiPatternMatcher compile(List<String> regexes) {
+        List<Integer> ruleIndexes = new ArrayList<>();
+        for (int i = 0; i < regexes.size(); i++) {
+            if (regexes.get(i) != null)
+                ruleIndexes.add(i);
+        }
+        long[] alwaysRun = new long[(ruleIndexes.size() + 63) >>> 6];
+        long[] exact = new long[alwaysRun.length];
+        List<String> literals = new ArrayList<>();
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < ruleIndexes.size(); i++) {
+            String regex = regexes.get(ruleIndexes.get(i));
+            Set<String> required = null;
+            try {
+                RegexNode node = RegexParser.parse(regex);
+                String literal = LiteralExtractor.literal(node);
+                if (literal != null) {
+                    exact[i >>> 6] |= 1L << i;
+                    required = Collections.singleton(literal);
+                } else {
+                    required = LiteralExtractor.extract(node);
+                }
+            } catch (UnsupportedRegexException e) {
+                //不支持的语法，每次都执行完整正则
+            }
+            if (required == null) {
+                alwaysRun[i >>> 6] |= 1L << i;
+            } else {
+                for (String literal : required) {
+                    literals.add(literal);
+                    values.add(i);
+                }
+            }
+        }
+        AhoCorasick automaton = null;
+        if (!literals.isEmpty()) {
+            int[] array = new int[values.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = values.get(i);
+            }
+            automaton = new AhoCorasick(literals, array);
+        }
+        int[] indexes = new int[ruleIndexes.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = ruleIndexes.get(i);
+        }
+        return new MultiPatternMatcher(automaton, alwaysRun, exact, indexes);
+    }
+
+    @Override
+    public int find(CharSequence input, IntPredicate confirm, IntPredicate accept) {
+        long[] candidates = alwaysRun.clone();
+        if (automaton != null)
+            automaton.scan(input, candidates);
+        for (int word = 0; word < candidates.length; word++) {
+            long bits = candidates[word];
+            while (bits != 0) {
+                long lowest = bits & -bits;
+                int index = ruleIndexes[(word << 6) + Long.numberOfTrailingZeros(bits)];
+                if ((exact[word] & lowest) != 0 ? accept.test(index) : confirm.test(index))
+                    return index;
+                bits ^= lowest;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Description:
+ * <p>
+ * 正则语法树节点，由RegexParser生成。
+ */
+final class RegexNode {
+    enum Type {
+        /**
+         * 空串
+         */
+        EMPTY,
+        /**
+         * 单个字符，字符范围见ranges
+         */
+        CHARS,
+        CONCAT,
+        ALTERNATE,
+        /**
+         * 重复，次数为[min, max]，max为-1表示无上限
+         */
+        REPEAT,
+        /**
+         * ^、\A
+         */
+        BEGIN,
+        /**
+         * $、\Z，默认模式下匹配输入结尾或者结尾的行结束符之前
+         */
+        END,
+        /**
+         * \z
+         */
+        END_INPUT,
+        /**
+         * \b、\B以及lookaround等其他零宽断言
+         */
+        ASSERT
+    }
+
+    static final RegexNode EMPTY = new RegexNode(Type.EMPTY, null, Collections.emptyList(), 0, 0);
+
+    final Type type;
+    final char[] ranges;
+    final List<RegexNode> children;
+    final int min;
+    final int max;
+
+    private RegexNode(Type type, char[] ranges, List<RegexNode> children, int min, int max) {
+        this.type = type;
+        this.ranges = ranges;
+        this.children = children;
+        this.min = min;
+        this.max = max;
+    }
+
+    static RegexNode chars(char[] ranges) {
+        return new RegexNode(Type.CHARS, ranges, Collections.emptyList(), 0, 0);
+    }
+
+    static RegexNode concat(List<RegexNode> children) {
+        if (children.isEmpty())
+            return EMPTY;
+        if (children.size() == 1)
+            return children.get(0);
+        return new RegexNode(Type.CONCAT, null, Collections.unmodifiableList(children), 0, 0);
+    }
+
+    static RegexNode alternate(List<RegexNode> children) {
+        if (children.size() == 1)
+            return children.get(0);
+        return new RegexNode(Type.ALTERNATE, null, Collections.unmodifiableList(children), 0, 0);
+    }
+
+    static RegexNode repeat(RegexNode child, int min, int max) {
+        return new RegexNode(Type.REPEAT, null, Collections.singletonList(child), min, max);
+    }
+
+    static RegexNode assertion(Type type) {
+        return new RegexNode(type, null, Collections.emptyList(), 0, 0);
+    }
+}
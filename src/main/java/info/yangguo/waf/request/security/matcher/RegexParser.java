@@ -0,0 +1,415 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Description:
+ * <p>
+ * java.util.regex语法子集的解析器，只处理默认flag下的正则，输入需要已经通过Pattern.compile校验。
+ * inline flag、反向引用、\p{..}、嵌套字符类等语法直接抛出UnsupportedRegexException。
+ */
+final class RegexParser {
+    private final String regex;
+    /**
+     * true:只接受正则语言范围内的语法，结果可以直接构建自动机
+     */
+    private final boolean regular;
+    private int index;
+
+    private RegexParser(String regex, boolean regular) {
+        this.regex = regex;
+        this.regular = regular;
+    }
+
+    /**
+     * 解析结果用于字面量提取，\b、lookaround按零宽断言处理，原子分组和占有量词按普通语法处理
+     */
+    static RegexNode parse(String regex) {
+        return new RegexParser(regex, false).parse();
+    }
+
+    /**
+     * 解析结果用于构建自动机，\b、lookaround、原子分组、占有量词都会抛出UnsupportedRegexException
+     */
+    static RegexNode parseRegular(String regex) {
+        return new RegexParser(regex, true).parse();
+    }
+
+    private RegexNode parse() {
+        RegexNode node = parseAlternate();
+        if (index < regex.length())
+            throw unsupported("unexpected ')'");
+        return node;
+    }
+
+    private RegexNode parseAlternate() {
+        List<RegexNode> branches = new ArrayList<>();
+        branches.add(parseConcat());
+        while (more() && peek() == '|') {
+            index++;
+            branches.add(parseConcat());
+        }
+        return RegexNode.alternate(branches);
+    }
+
+    private RegexNode parseConcat() {
+        List<RegexNode> nodes = new ArrayList<>();
+        while (more() && peek() != '|' && peek() != ')') {
+            if (regex.startsWith("\\Q", index)) {
+                //\Q...\E中的内容全部按照字面量处理
+                int end = regex.indexOf("\\E", index + 2);
+                String quoted = end < 0 ? regex.substring(index + 2) : regex.substring(index + 2, end);
+                index = end < 0 ? regex.length() : end + 2;
+                if (quoted.isEmpty())
+                    throw unsupported("empty quote");
+                for (int i = 0; i < quoted.length(); i++) {
+                    nodes.add(RegexNode.chars(literal(quoted.charAt(i))));
+                }
+                //量词只作用于最后一个字符
+                nodes.add(parseQuantifier(nodes.remove(nodes.size() - 1)));
+                continue;
+            }
+            nodes.add(parseQuantifier(parseAtom()));
+        }
+        return RegexNode.concat(nodes);
+    }
+
+    private RegexNode parseQuantifier(RegexNode atom) {
+        if (!more())
+            return atom;
+        int min;
+        int max;
+        char c = peek();
+        if (c == '*') {
+            min = 0;
+            max = -1;
+            index++;
+        } else if (c == '+') {
+            min = 1;
+            max = -1;
+            index++;
+        } else if (c == '?') {
+            min = 0;
+            max = 1;
+            index++;
+        } else if (c == '{') {
+            index++;
+            min = parseNumber();
+            max = min;
+            if (peek() == ',') {
+                index++;
+                max = peek() == '}' ? -1 : parseNumber();
+            }
+            expect('}');
+        } else {
+            return atom;
+        }
+        //懒惰量词不影响能否匹配，按贪婪量词处理
+        if (more() && peek() == '?') {
+            index++;
+        } else if (more() && peek() == '+') {
+            if (regular)
+                throw unsupported("possessive quantifier");
+            index++;
+        }
+        if (more() && (peek() == '{' || peek() == '*' || peek() == '+' || peek() == '?'))
+            throw unsupported("stacked quantifier");
+        //java.util.regex遇到空串迭代会直接结束循环，与自动机语义不一致
+        if (regular && max != 1 && nullable(atom))
+            throw unsupported("repeated nullable group");
+        return RegexNode.repeat(atom, min, max);
+    }
+
+    private static boolean nullable(RegexNode node) {
+        switch (node.type) {
+            case CHARS:
+                return false;
+            case CONCAT:
+                for (RegexNode child : node.children) {
+                    if (!nullable(child))
+                        return false;
+                }
+                return true;
+            case ALTERNATE:
+                for (RegexNode child : node.children) {
+                    if (nullable(child))
+                        return true;
+                }
+                return false;
+            case REPEAT:
+                return node.min == 0 || nullable(node.children.get(0));
+            default:
+                return true;
+        }
+    }
+
+    private RegexNode parseAtom() {
+        char c = regex.charAt(index++);
+        switch (c) {
+            case '(':
+                return parseGroup();
+            case '[':
+                return RegexNode.chars(parseClass());
+            case '.':
+                return RegexNode.chars(CharRanges.DOT);
+            case '^':
+                return RegexNode.assertion(RegexNode.Type.BEGIN);
+            case '$':
+                return RegexNode.assertion(RegexNode.Type.END);
+            case '\\':
+                return parseEscape();
+            default:
+                return RegexNode.chars(literal(c));
+        }
+    }
+
+    private RegexNode parseGroup() {
+        boolean lookaround = false;
+        if (peek() == '?') {
+            index++;
+            char c = regex.charAt(index++);
+            if (c == '=' || c == '!') {
+                lookaround = true;
+            } else if (c == '<' && (peek() == '=' || peek() == '!')) {
+                index++;
+                lookaround = true;
+            } else if (c == '<') {
+                //命名分组
+                int end = regex.indexOf('>', index);
+                if (end < 0)
+                    throw unsupported("unclosed group name");
+                index = end + 1;
+            } else if (c == '>') {
+                if (regular)
+                    throw unsupported("atomic group");
+            } else if (c != ':') {
+                throw unsupported("inline flag");
+            }
+            if (lookaround && regular)
+                throw unsupported("lookaround");
+        }
+        RegexNode node = parseAlternate();
+        expect(')');
+        return lookaround ? RegexNode.assertion(RegexNode.Type.ASSERT) : node;
+    }
+
+    private RegexNode parseEscape() {
+        char c = regex.charAt(index++);
+        switch (c) {
+            case 'd':
+                return RegexNode.chars(CharRanges.DIGIT);
+            case 'D':
+                return RegexNode.chars(CharRanges.negate(CharRanges.DIGIT));
+            case 'w':
+                return RegexNode.chars(CharRanges.WORD);
+            case 'W':
+                return RegexNode.chars(CharRanges.negate(CharRanges.WORD));
+            case 's':
+                return RegexNode.chars(CharRanges.SPACE);
+            case 'S':
+                return RegexNode.chars(CharRanges.negate(CharRanges.SPACE));
+            case 'b':
+            case 'B':
+                if (regular)
+                    throw unsupported("word boundary");
+                return RegexNode.assertion(RegexNode.Type.ASSERT);
+            case 'A':
+                return RegexNode.assertion(RegexNode.Type.BEGIN);
+            case 'Z':
+                return RegexNode.assertion(RegexNode.Type.END);
+            case 'z':
+                return RegexNode.assertion(RegexNode.Type.END_INPUT);
+            default:
+                index--;
+                return RegexNode.chars(literal(parseEscapedChar()));
+        }
+    }
+
+    /**
+     * 解析转义得到的单个字符，index指向反斜杠之后的字符
+     */
+    private char parseEscapedChar() {
+        char c = regex.charAt(index++);
+        switch (c) {
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case 'a':
+                return '\u0007';
+            case 'e':
+                return '\u001B';
+            case 'c':
+                return (char) (regex.charAt(index++) ^ 64);
+            case '0':
+                return parseOctal();
+            case 'x':
+                if (peek() == '{') {
+                    int end = regex.indexOf('}', index);
+                    int value = Integer.parseInt(regex.substring(index + 1, end), 16);
+                    index = end + 1;
+                    if (value > Character.MAX_VALUE)
+                        throw unsupported("supplementary character");
+                    return (char) value;
+                }
+                return parseHex(2);
+            case 'u':
+                return parseHex(4);
+            default:
+                if (Character.isLetterOrDigit(c))
+                    throw unsupported("escape \\" + c);
+                return c;
+        }
+    }
+
+    private char parseOctal() {
+        int value = 0;
+        int digits = 0;
+        int maxDigits = more() && peek() <= '3' ? 3 : 2;
+        while (digits < maxDigits && more() && peek() >= '0' && peek() <= '7') {
+            value = value * 8 + (regex.charAt(index++) - '0');
+            digits++;
+        }
+        return (char) value;
+    }
+
+    private char parseHex(int digits) {
+        char value = (char) Integer.parseInt(regex.substring(index, index + digits), 16);
+        index += digits;
+        return value;
+    }
+
+    private char[] parseClass() {
+        boolean negate = false;
+        if (peek() == '^') {
+            negate = true;
+            index++;
+        }
+        if (peek() == ']')
+            throw unsupported("leading ']' in class");
+        char[] result = CharRanges.EMPTY;
+        //上一个单字符，可以作为区间的起点
+        int previous = -1;
+        while (true) {
+            char c = regex.charAt(index++);
+            if (c == ']')
+                break;
+            if (c == '[' || (c == '&' && peek() == '&'))
+                throw unsupported("nested class");
+            if (c == '-' && previous >= 0 && peek() != ']') {
+                char hi;
+                char next = regex.charAt(index++);
+                if (next == '[')
+                    throw unsupported("nested class");
+                if (next == '\\') {
+                    if (isClassEscape(peek()))
+                        throw unsupported("class as range bound");
+                    hi = parseEscapedChar();
+                } else {
+                    hi = next;
+                }
+                literal(hi);
+                //跨过代理区的区间不包含增补字符，自动机无法与其他字符集合区分
+                if (regular && previous < Character.MIN_SURROGATE && hi > Character.MAX_SURROGATE)
+                    throw unsupported("range across surrogates");
+                result = CharRanges.union(result, CharRanges.range((char) previous, hi));
+                previous = -1;
+                if (peek() == '-' && regex.charAt(index + 1) != ']')
+                    throw unsupported("range after range");
+                continue;
+            }
+            if (c == '-' && previous < 0 && result.length > 0 && peek() != ']')
+                throw unsupported("ambiguous '-' in class");
+            if (c == '\\') {
+                char e = peek();
+                if (isClassEscape(e)) {
+                    index++;
+                    result = CharRanges.union(result, classEscape(e));
+                    previous = -1;
+                    continue;
+                }
+                if (e == 'Q' || e == 'E' || e == 'b' || e == 'B')
+                    throw unsupported("escape \\" + e + " in class");
+                c = parseEscapedChar();
+            }
+            result = CharRanges.union(result, literal(c));
+            previous = c;
+        }
+        return negate ? CharRanges.negate(result) : result;
+    }
+
+    private static boolean isClassEscape(char c) {
+        return c == 'd' || c == 'D' || c == 'w' || c == 'W' || c == 's' || c == 'S';
+    }
+
+    private static char[] classEscape(char c) {
+        switch (c) {
+            case 'd':
+                return CharRanges.DIGIT;
+            case 'D':
+                return CharRanges.negate(CharRanges.DIGIT);
+            case 'w':
+                return CharRanges.WORD;
+            case 'W':
+                return CharRanges.negate(CharRanges.WORD);
+            case 's':
+                return CharRanges.SPACE;
+            default:
+                return CharRanges.negate(CharRanges.SPACE);
+        }
+    }
+
+    private char[] literal(char c) {
+        if (Character.isSurrogate(c))
+            throw unsupported("supplementary character");
+        return CharRanges.of(c);
+    }
+
+    private int parseNumber() {
+        int start = index;
+        while (more() && Character.isDigit(peek())) {
+            index++;
+        }
+        if (start == index)
+            throw unsupported("illegal repetition");
+        return Integer.parseInt(regex.substring(start, index));
+    }
+
+    private void expect(char c) {
+        if (!more() || regex.charAt(index) != c)
+            throw unsupported("expect '" + c + "'");
+        index++;
+    }
+
+    private boolean more() {
+        return index < regex.length();
+    }
+
+    private char peek() {
+        return more() ? regex.charAt(index) : '\0';
+    }
+
+    private UnsupportedRegexException unsupported(String reason) {
+        return new UnsupportedRegexException(regex, index, reason);
+    }
+}
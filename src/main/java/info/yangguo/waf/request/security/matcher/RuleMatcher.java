@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Description:
+ * <p>
+ * 一个filter下所有规则的匹配器，配置变更时构建，线程安全。
+ */
+public interface RuleMatcher {
+    /**
+     * 按规则顺序返回第一个命中的规则下标
+     *
+     * @param input   待匹配的内容
+     * @param confirm 对规则执行java.util.regex匹配，匹配器无法独立判定的规则通过它确认
+     * @return 命中的规则下标，没有命中返回-1
+     */
+    default int find(CharSequence input, IntPredicate confirm) {
+        return find(input, confirm, index -> true);
+    }
+
+    /**
+     * 按规则顺序返回第一个命中的规则下标
+     *
+     * @param input   待匹配的内容
+     * @param confirm 对规则执行java.util.regex匹配，匹配器无法独立判定的规则通过它确认
+     * @param accept  匹配器不执行正则就判定命中(字面量、DFA)时调用，返回false表示该规则不能命中(例如已被RuleGuard禁用)，继续查找后面的规则
+     * @return 命中的规则下标，没有命中返回-1
+     */
+    int find(CharSequence input, IntPredicate confirm, IntPredicate accept);
+}
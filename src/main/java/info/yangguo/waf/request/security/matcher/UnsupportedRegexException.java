@@ -0,0 +1,29 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.request.security.matcher;
+
+/**
+ * Description:
+ * <p>
+ * RegexParser不支持的正则语法，调用方需要回退到java.util.regex。
+ */
+class UnsupportedRegexException extends RuntimeException {
+    private static final long serialVersionUID = -2839431726046415217L;
+
+    UnsupportedRegexException(String regex, int index, String reason) {
+        super(reason + " near index " + index + ": " + regex);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.script;
+
+import info.yangguo.waf.Constant;
+import info.yangguo.waf.request.security.limiter.CounterTable;
+import info.yangguo.waf.request.security.limiter.KeyHash;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Description:
+ * <p>
+ * 脚本使用的计数器，例如按IP统计登录失败次数。每个脚本一个实例，按脚本名称保存，脚本重新加载之后计数仍然有效。
+ * <p>
+ * 基于CounterTable实现，不加锁，容量固定。计数按滑动窗口估算，超过两个窗口没有更新的key自动过期，不需要清理线程。
+ * 同一个key使用不同的窗口长度时按不同的key计数。
+ */
+public final class ScriptCounters {
+    private static final ConcurrentMap<String, ScriptCounters> counters = new ConcurrentHashMap<>();
+    private static final int CAPACITY;
+
+    static {
+        String capacityConf = Constant.wafConfs.get("waf.security.script.counters.capacity");
+        CAPACITY = capacityConf == null ? 65536 : Integer.parseInt(capacityConf);
+    }
+
+    private final CounterTable table = new CounterTable(CAPACITY);
+
+    private ScriptCounters() {
+    }
+
+    public static ScriptCounters of(String script) {
+        return counters.computeIfAbsent(script, key -> new ScriptCounters());
+    }
+
+    private static long hash(String key, long windowMillis) {
+        return KeyHash.finish(KeyHash.append(windowMillis, key));
+    }
+
+    /**
+     * @param key          计数key
+     * @param windowMillis 窗口长度，单位毫秒
+     * @return 计数加一之后窗口内的估算值
+     */
+    public long increment(String key, long windowMillis) {
+        return add(key, windowMillis, 1);
+    }
+
+    /**
+     * @param key          计数key
+     * @param windowMillis 窗口长度，单位毫秒
+     * @param delta        增加的次数
+     * @return 计数之后窗口内的估算值
+     */
+    public long add(String key, long windowMillis, long delta) {
+        return table.addAndEstimate(hash(key, windowMillis), System.currentTimeMillis(), windowMillis, delta);
+    }
+
+    /**
+     * @param key          计数key
+     * @param windowMillis 窗口长度，单位毫秒
+     * @return 窗口内的估算值，key不存在或者已过期时返回0
+     */
+    public long get(String key, long windowMillis) {
+        return table.estimate(hash(key, windowMillis), System.currentTimeMillis(), windowMillis);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.script;
+
+import info.yangguo.waf.request.RequestView;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static io.netty.util.CharsetUtil.UTF_8;
+
+/**
+ * Description:
+ * <p>
+ * 提供给脚本的只读请求视图，在Netty线程中由RequestView构建，脚本不需要再解析uri、参数和cookie。
+ * 脚本在ScriptExecutor的线程中执行，所以这里只保存构建时的快照，不再读取RequestView。
+ */
+public final class ScriptRequest {
+    private final HttpRequest originalRequest;
+    private final String method;
+    private final String uri;
+    private final String path;
+    private final String query;
+    private final Map<String, String> args;
+    private final Map<String, String> cookies;
+    private final Map<String, String> headers;
+    private final String realIp;
+    private final String wafRoute;
+    private final String userAgent;
+
+    public ScriptRequest(RequestView requestView) {
+        this.originalRequest = requestView.getOriginalRequest();
+        this.method = originalRequest.method().name();
+        this.uri = requestView.getUri();
+        this.path = requestView.getPath();
+        this.query = requestView.getQuery();
+        this.args = parseArgs(query);
+        this.cookies = parseCookies(originalRequest.headers().get(HttpHeaderNames.COOKIE));
+        this.headers = parseHeaders(originalRequest);
+        this.realIp = requestView.getRealIp();
+        this.wafRoute = requestView.getWafRoute();
+        this.userAgent = requestView.getUserAgent();
+    }
+
+    private static Map<String, String> parseArgs(String query) {
+        if (query == null)
+            return Collections.emptyMap();
+        Map<String, String> args = new HashMap<>();
+        for (NameValuePair pair : URLEncodedUtils.parse(query, UTF_8)) {
+            args.putIfAbsent(pair.getName(), pair.getValue() == null ? "" : pair.getValue());
+        }
+        return Collections.unmodifiableMap(args);
+    }
+
+    private static Map<String, String> parseCookies(String header) {
+        if (header == null)
+            return Collections.emptyMap();
+        Map<String, String> cookies = new HashMap<>();
+        for (String cookie : header.split(";")) {
+            int index = cookie.indexOf('=');
+            if (index > 0)
+                cookies.putIfAbsent(cookie.substring(0, index).trim(), cookie.substring(index + 1).trim());
+        }
+        return Collections.unmodifiableMap(cookies);
+    }
+
+    private static Map<String, String> parseHeaders(HttpRequest request) {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, String> header : request.headers()) {
+            headers.putIfAbsent(header.getKey(), header.getValue());
+        }
+        return Collections.unmodifiableMap(headers);
+    }
+
+    public HttpRequest getOriginalRequest() {
+        return originalRequest;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return uri中?之前的部分
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return uri中?之后的部分，没有时返回null
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * @param name 参数名称，区分大小写
+     * @return 解码之后的第一个参数值，没有值时返回空串，参数不存在时返回null
+     */
+    public String getArg(String name) {
+        return args.get(name);
+    }
+
+    /**
+     * @return 解码之后的参数，每个参数只保留第一个值，不可修改
+     */
+    public Map<String, String> getArgs() {
+        return args;
+    }
+
+    /**
+     * @param name cookie名称，区分大小写
+     * @return 第一个Cookie header中对应cookie的原始值，没有时返回null
+     */
+    public String getCookie(String name) {
+        return cookies.get(name);
+    }
+
+    /**
+     * @return 第一个Cookie header中的cookie，不可修改
+     */
+    public Map<String, String> getCookies() {
+        return cookies;
+    }
+
+    /**
+     * @return header的第一个值，没有时返回null
+     */
+    public String getHeader(String name) {
+        return originalRequest.headers().get(name);
+    }
+
+    /**
+     * @return 每个header的第一个值，名称不区分大小写，不可修改
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getRealIp() {
+        return realIp;
+    }
+
+    public String getWafRoute() {
+        return wafRoute;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.script;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Description:
+ * <p>
+ * 不可变的脚本集合，脚本变更时在配置线程中整体编译，然后通过一次volatile写替换，请求线程看不到编译了一半的集合。
+ * 内容没有变化的脚本直接复用上一个版本的ScriptEntry；编译失败的脚本保留上一个版本，没有上一个版本时忽略。
+ */
+public final class ScriptSet {
+    private static final Logger logger = LoggerFactory.getLogger(ScriptSet.class);
+    public static final ScriptSet EMPTY = new ScriptSet(0, ImmutableMap.of());
+
+    private final long version;
+    private final Map<String, ScriptEntry> scripts;
+    private final List<ScriptEntry> entries;
+
+    private ScriptSet(long version, Map<String, ScriptEntry> scripts) {
+        this.version = version;
+        this.scripts = scripts;
+        this.entries = ImmutableList.copyOf(scripts.values());
+    }
+
+    /**
+     * @param version  新集合的版本
+     * @param sources  脚本名称和内容
+     * @param previous 上一个版本
+     */
+    public static ScriptSet compile(long version, Map<String, String> sources, ScriptSet previous) {
+        ImmutableMap.Builder<String, ScriptEntry> builder = ImmutableMap.builder();
+        //按名称排序，执行顺序与版本无关
+        new TreeMap<>(sources).forEach((name, source) -> {
+            ScriptEntry old = previous.scripts.get(name);
+            if (old != null && old.getScript().equals(source)) {
+                builder.put(name, old);
+                return;
+            }
+            try {
+                builder.put(name, new ScriptEntry(name, source));
+            } catch (Exception e) {
+                logger.warn("Script[{}] compile failure, {}", name, old == null ? "ignored" : "previous version is kept", e);
+                if (old != null)
+                    builder.put(name, old);
+            }
+        });
+        return new ScriptSet(version, builder.build());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return 按名称排序的脚本
+     */
+    public List<ScriptEntry> getEntries() {
+        return entries;
+    }
+
+    public ScriptEntry get(String name) {
+        return scripts.get(name);
+    }
+}
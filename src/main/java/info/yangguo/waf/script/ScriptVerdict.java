@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.script;
+
+/**
+ * Description:
+ * <p>
+ * 脚本的执行结果，每个请求每个脚本一个实例，脚本调用block()拦截请求。
+ * ScriptExecutor超时之后脚本线程仍可能写入，所以字段使用volatile。
+ */
+public final class ScriptVerdict {
+    private volatile boolean blocked;
+    private volatile String reason;
+
+    public void block() {
+        blocked = true;
+    }
+
+    /**
+     * @param reason 拦截原因，记录在hack日志中
+     */
+    public void block(String reason) {
+        this.reason = reason;
+        blocked = true;
+    }
+
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+}
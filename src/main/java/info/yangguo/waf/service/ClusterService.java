@@ -28,6 +28,13 @@ public interface ClusterService {
      */
     Map<String, SecurityConfig> getSecurityConfigs();
 
+    /**
+     * 获取预编译之后的security配置信息，请求过程中使用
+     *
+     * @return
+     */
+    Map<String, CompiledSecurityConfig> getCompiledSecurityConfigs();
+
     /**
      * 设置security filter开关
      *
@@ -43,7 +50,7 @@ public interface ClusterService {
      * @param item
      * @param config
      */
-    void setSecurityConfigItem(Optional<String> filterName, Optional<String> item, Optional<BasicConfig> config);
+    void setSecurityConfigItem(Optional<String> filterName, Optional<String> item, Optional<SecurityItemBasicConfig> config);
 
     /**
      * 删除security item
@@ -191,4 +198,26 @@ public interface ClusterService {
      * @param wafRoute
      */
     void deleteTranslateConfig(Optional<String> wafRoute);
+
+    /**
+     * 获取script配置信息
+     *
+     * @return 脚本名称和内容
+     */
+    Map<String, String> getScriptConfigs();
+
+    /**
+     * 设置script
+     *
+     * @param name
+     * @param script
+     */
+    void setScriptConfig(Optional<String> name, Optional<String> script);
+
+    /**
+     * 删除script
+     *
+     * @param name
+     */
+    void deleteScriptConfig(Optional<String> name);
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018-present yangguo@outlook.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.yangguo.waf.service;
+
+import com.google.common.collect.Maps;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.model.SecurityConfig;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * security配置的预编译结果。
+ * <p>
+ * TreeCache初始化完成时全量编译一次，之后每次变更只重新编译发生变化的拦截器，其他拦截器沿用之前的编译结果。
+ * 每次编译都会生成新的Map整体替换，请求过程中读取到的始终是完整的一份配置。
+ */
+public class SecurityConfigCompiler {
+    private volatile Map<String, CompiledSecurityConfig> compiledConfigs = Collections.emptyMap();
+    /**
+     * 编译版本，每个拦截器编译时递增，VerdictCache的key包含这个版本
+     */
+    private long version = 0;
+
+    public Map<String, CompiledSecurityConfig> getCompiledConfigs() {
+        return compiledConfigs;
+    }
+
+    /**
+     * 全量编译
+     */
+    public synchronized void compileAll(Collection<SecurityConfig> configs) {
+        Map<String, CompiledSecurityConfig> compiled = Maps.newHashMapWithExpectedSize(configs.size());
+        for (SecurityConfig config : configs) {
+            compiled.put(config.getFilterName(), CompiledSecurityConfig.compile(config, ++version));
+        }
+        compiledConfigs = Collections.unmodifiableMap(compiled);
+    }
+
+    /**
+     * 只重新编译一个拦截器
+     */
+    public synchronized void compile(SecurityConfig config) {
+        Map<String, CompiledSecurityConfig> compiled = Maps.newHashMap(compiledConfigs);
+        compiled.put(config.getFilterName(), CompiledSecurityConfig.compile(config, ++version));
+        compiledConfigs = Collections.unmodifiableMap(compiled);
+    }
+
+    public synchronized void remove(String filterName) {
+        if (!compiledConfigs.containsKey(filterName))
+            return;
+        Map<String, CompiledSecurityConfig> compiled = Maps.newHashMap(compiledConfigs);
+        compiled.remove(filterName);
+        compiledConfigs = Collections.unmodifiableMap(compiled);
+    }
+}
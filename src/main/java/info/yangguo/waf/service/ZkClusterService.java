@@ -23,15 +23,20 @@ import info.yangguo.waf.config.ClusterProperties;
 import info.yangguo.waf.config.ContextHolder;
 import info.yangguo.waf.model.*;
 import info.yangguo.waf.request.security.*;
+import info.yangguo.waf.request.security.limiter.ClusterCounter;
 import info.yangguo.waf.response.ClickjackResponseProcess;
 import info.yangguo.waf.response.ResponseProcess;
 import info.yangguo.waf.util.JsonUtil;
 import org.apache.commons.io.FileUtils;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
 import org.apache.curator.framework.recipes.cache.TreeCache;
 import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.nodes.PersistentNode;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.utils.ZKPaths;
 import org.apache.zookeeper.CreateMode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +44,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.util.*;
@@ -54,15 +60,23 @@ public class ZkClusterService implements ClusterService {
     private static final String rewritePath = "/waf/config/rewrite";
     private static final String redirectPath = "/waf/config/redirect";
     private static final String forwardPath = "/waf/config/translate";
+    private static final String scriptPath = "/waf/config/script";
+    private static final String clusterNodesPath = "/waf/cluster/nodes";
     private static final String ENC = "UTF-8";
 
     private static CuratorFramework client;
     Map<String, SecurityConfig> requestConfigMap = Maps.newHashMap();
+    final SecurityConfigCompiler securityConfigCompiler = new SecurityConfigCompiler();
+    /**
+     * security的TreeCache是否已经初始化完成，只在TreeCache listener中修改
+     */
+    boolean securityInitialized = false;
     Map<String, ResponseConfig> responseConfigMap = Maps.newHashMap();
     Map<String, WeightedRoundRobinScheduling> upstreamServerMap = Maps.newHashMap();
     Map<String, BasicConfig> rewriteConfigrMap = Maps.newHashMap();
     Map<String, BasicConfig> redirectConfigrMap = Maps.newHashMap();
     Map<String, ForwardConfig> forwardConfigMap = Maps.newHashMap();
+    volatile Map<String, String> scriptConfigMap = Collections.emptyMap();
 
     public ZkClusterService() throws Exception {
         ClusterProperties.ZkProperty zkProperty = ((ClusterProperties) ContextHolder.applicationContext.getBean("clusterProperties")).getZk();
@@ -117,29 +131,31 @@ public class ZkClusterService implements ClusterService {
         TreeCache requestTreeCache = TreeCache.newBuilder(client, securityPath).setCacheData(true).build();
         requestTreeCache.start();
         requestTreeCache.getListenable().addListener((client, event) -> {
-            if (TreeCacheEvent.Type.NODE_UPDATED.equals(event.getType())
-                    || TreeCacheEvent.Type.NODE_ADDED.equals(event.getType())
-                    || TreeCacheEvent.Type.NODE_REMOVED.equals(event.getType())
-                    || TreeCacheEvent.Type.INITIALIZED.equals(event.getType())) {
+            if (TreeCacheEvent.Type.INITIALIZED.equals(event.getType())) {
+                //初始化完成时统一预编译一次，请求过程中不再编译正则
                 requestTreeCache.getCurrentChildren(securityPath).entrySet().stream().forEach(requestEntry -> {
-                    String filterName = requestEntry.getKey();
-                    String filterPath = requestEntry.getValue().getPath();
-                    BasicConfig filterConfig = (BasicConfig) JsonUtil.fromJson(new String(requestEntry.getValue().getData()), BasicConfig.class);
-
-                    List<SecurityConfigItem> securityConfigItems = Lists.newArrayList();
-                    requestTreeCache.getCurrentChildren(filterPath).entrySet().stream().forEach(itemEntry -> {
-                        String regex = null;
-                        try {
-                            regex = URLDecoder.decode(itemEntry.getKey(), ENC);
-                        } catch (UnsupportedEncodingException e) {
-                            LOGGER.error("Decode regex:[{}] ", itemEntry.getKey());
-                        }
-                        BasicConfig regexConfig = (BasicConfig) JsonUtil.fromJson(new String(itemEntry.getValue().getData()), BasicConfig.class);
-                        securityConfigItems.add(SecurityConfigItem.builder().name(regex).config(regexConfig).build());
-                    });
-
-                    requestConfigMap.put(filterName, SecurityConfig.builder().filterName(filterName).config(filterConfig).securityConfigItems(securityConfigItems).build());
+                    requestConfigMap.put(requestEntry.getKey(), loadSecurityConfig(requestTreeCache, requestEntry.getKey(), requestEntry.getValue()));
                 });
+                securityConfigCompiler.compileAll(requestConfigMap.values());
+                securityInitialized = true;
+                ConfigLocalCache.setRequestConfig(requestConfigMap);
+            } else if (securityInitialized
+                    && (TreeCacheEvent.Type.NODE_UPDATED.equals(event.getType())
+                    || TreeCacheEvent.Type.NODE_ADDED.equals(event.getType())
+                    || TreeCacheEvent.Type.NODE_REMOVED.equals(event.getType()))) {
+                //初始化之前的NODE_ADDED由INITIALIZED统一处理，之后只重新编译发生变化的拦截器
+                String filterName = getFilterName(event.getData().getPath());
+                if (filterName == null)
+                    return;
+                ChildData filterData = requestTreeCache.getCurrentData(securityPath + separator + filterName);
+                if (filterData == null) {
+                    requestConfigMap.remove(filterName);
+                    securityConfigCompiler.remove(filterName);
+                } else {
+                    SecurityConfig securityConfig = loadSecurityConfig(requestTreeCache, filterName, filterData);
+                    requestConfigMap.put(filterName, securityConfig);
+                    securityConfigCompiler.compile(securityConfig);
+                }
                 ConfigLocalCache.setRequestConfig(requestConfigMap);
             }
         });
@@ -306,6 +322,85 @@ public class ZkClusterService implements ClusterService {
             }
         });
 
+
+        if (client.checkExists().forPath(scriptPath) == null) {
+            client.create().forPath(scriptPath);
+        }
+        TreeCache scriptTreeCache = TreeCache.newBuilder(client, scriptPath).setCacheData(true).build();
+        scriptTreeCache.start();
+        scriptTreeCache.getListenable().addListener((client, event) -> {
+            if (TreeCacheEvent.Type.NODE_UPDATED.equals(event.getType())
+                    || TreeCacheEvent.Type.NODE_ADDED.equals(event.getType())
+                    || TreeCacheEvent.Type.NODE_REMOVED.equals(event.getType())
+                    || TreeCacheEvent.Type.INITIALIZED.equals(event.getType())) {
+                Map<String, String> scripts = Maps.newHashMap();
+                scriptTreeCache.getCurrentChildren(scriptPath).entrySet().stream().forEach(scriptEntry -> {
+                    try {
+                        scripts.put(URLDecoder.decode(scriptEntry.getKey(), ENC), new String(scriptEntry.getValue().getData(), ENC));
+                    } catch (UnsupportedEncodingException e) {
+                        LOGGER.error("Decode script:[{}] ", scriptEntry.getKey());
+                    }
+                });
+                scriptConfigMap = Collections.unmodifiableMap(scripts);
+                //在监听线程中编译，编译完成之后整体替换
+                ScriptSecurity.setClusterScripts(scripts);
+                ConfigLocalCache.setScriptConfig(scripts);
+            }
+        });
+
+
+        //开启集群CC计数时，本节点注册为临时节点，所有节点的列表即为交换计数增量的peer
+        Optional<ClusterCounter> clusterCounter = CCSecurity.getClusterCounter();
+        if (clusterCounter.isPresent()) {
+            if (client.checkExists().forPath(clusterNodesPath) == null) {
+                client.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT).forPath(clusterNodesPath);
+            }
+            InetSocketAddress address = clusterCounter.get().getAddress();
+            String nodePath = ZKPaths.makePath(clusterNodesPath, address.getHostString() + ":" + address.getPort());
+            PersistentNode node = new PersistentNode(client, CreateMode.EPHEMERAL, false, nodePath, new byte[0]);
+            node.start();
+            PathChildrenCache nodesCache = new PathChildrenCache(client, clusterNodesPath, false);
+            nodesCache.start();
+            nodesCache.getListenable().addListener((client, event) -> {
+                List<InetSocketAddress> peers = nodesCache.getCurrentData().stream().map(childData -> {
+                    String[] nodeInfo = ZKPaths.getNodeFromPath(childData.getPath()).split(":");
+                    return new InetSocketAddress(nodeInfo[0], Integer.parseInt(nodeInfo[1]));
+                }).collect(Collectors.toList());
+                clusterCounter.get().setPeers(peers);
+            });
+        }
+    }
+
+    private static SecurityConfig loadSecurityConfig(TreeCache requestTreeCache, String filterName, ChildData filterData) {
+        BasicConfig filterConfig = (BasicConfig) JsonUtil.fromJson(new String(filterData.getData()), BasicConfig.class);
+
+        List<SecurityConfigItem> securityConfigItems = Lists.newArrayList();
+        Map<String, ChildData> items = requestTreeCache.getCurrentChildren(filterData.getPath());
+        if (items != null) {
+            items.entrySet().stream().forEach(itemEntry -> {
+                String regex = null;
+                try {
+                    regex = URLDecoder.decode(itemEntry.getKey(), ENC);
+                } catch (UnsupportedEncodingException e) {
+                    LOGGER.error("Decode regex:[{}] ", itemEntry.getKey());
+                }
+                SecurityItemBasicConfig regexConfig = (SecurityItemBasicConfig) JsonUtil.fromJson(new String(itemEntry.getValue().getData()), SecurityItemBasicConfig.class);
+                securityConfigItems.add(SecurityConfigItem.builder().name(regex).config(regexConfig).build());
+            });
+        }
+        return SecurityConfig.builder().filterName(filterName).config(filterConfig).securityConfigItems(securityConfigItems).build();
+    }
+
+    /**
+     * @param path 拦截器或者拦截器下item的路径
+     * @return 路径所属的拦截器，securityPath本身返回null
+     */
+    private static String getFilterName(String path) {
+        if (path == null || !path.startsWith(securityPath + separator))
+            return null;
+        String filterName = path.substring(securityPath.length() + 1);
+        int index = filterName.indexOf(separator);
+        return index < 0 ? filterName : filterName.substring(0, index);
     }
 
     @Override
@@ -313,6 +408,11 @@ public class ZkClusterService implements ClusterService {
         return requestConfigMap;
     }
 
+    @Override
+    public Map<String, CompiledSecurityConfig> getCompiledSecurityConfigs() {
+        return securityConfigCompiler.getCompiledConfigs();
+    }
+
     @Override
     public void setSecurityConfig(Optional<String> filterName, Optional<BasicConfig> config) {
         try {
@@ -333,7 +433,7 @@ public class ZkClusterService implements ClusterService {
     }
 
     @Override
-    public void setSecurityConfigItem(Optional<String> filterName, Optional<String> item, Optional<BasicConfig> config) {
+    public void setSecurityConfigItem(Optional<String> filterName, Optional<String> item, Optional<SecurityItemBasicConfig> config) {
         try {
             if (filterName.isPresent() && item.isPresent() && config.isPresent()) {
                 String filterPath = securityPath + separator + filterName.get();
@@ -643,6 +743,45 @@ public class ZkClusterService implements ClusterService {
         });
     }
 
+    @Override
+    public Map<String, String> getScriptConfigs() {
+        return scriptConfigMap;
+    }
+
+    @Override
+    public void setScriptConfig(Optional<String> name, Optional<String> script) {
+        try {
+            if (name.isPresent() && script.isPresent()) {
+                String path = scriptPath + separator + URLEncoder.encode(name.get(), ENC);
+                byte[] data = script.get().getBytes(ENC);
+                if (client.checkExists().forPath(path) == null) {
+                    client.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT).forPath(path, data);
+                    LOGGER.info("Path[{}]|Script[{}] has been created.", path, name.get());
+                } else {
+                    client.setData().forPath(path, data);
+                    LOGGER.info("Path[{}]|Script[{}] has been set.", path, name.get());
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void deleteScriptConfig(Optional<String> name) {
+        try {
+            if (name.isPresent()) {
+                String path = scriptPath + separator + URLEncoder.encode(name.get(), ENC);
+                if (client.checkExists().forPath(path) != null) {
+                    client.delete().forPath(path);
+                    LOGGER.info("Path[{}]|Script[{}] has been deleted.", path, name.get());
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void initFilter(Class filterClass) {
         String path;
         if (Security.class.isAssignableFrom(filterClass)) {
@@ -773,6 +912,18 @@ public class ZkClusterService implements ClusterService {
         } catch (Exception e) {
             LOGGER.warn("security config sync fail");
         }
+
+        try {
+            if (client.checkExists().forPath(scriptPath) == null) {
+                ConfigLocalCache
+                        .getScriptConfig()
+                        .entrySet()
+                        .stream()
+                        .forEach(entry -> setScriptConfig(Optional.of(entry.getKey()), Optional.of(entry.getValue())));
+            }
+        } catch (Exception e) {
+            LOGGER.warn("script config sync fail");
+        }
     }
 
 
@@ -787,6 +938,7 @@ public class ZkClusterService implements ClusterService {
         private static String rewriteCacheFile = cachePath + "/rewrite-config.json";
         private static String redirectCacheFile = cachePath + "/redirect-config.json";
         private static String forwardCacheFile = cachePath + "/translate-config.json";
+        private static String scriptCacheFile = cachePath + "/script-config.json";
 
         public static Map<String, SecurityConfig> getRequestConfig() {
             Map<String, SecurityConfig> config = Maps.newHashMap();
@@ -935,5 +1087,29 @@ public class ZkClusterService implements ClusterService {
 
             return config;
         }
+
+        public static void setScriptConfig(Map<String, String> config) {
+            try {
+                FileUtils.write(new File(scriptCacheFile), JsonUtil.toJson(config, true));
+            } catch (IOException e) {
+                LOGGER.error("script local cache setting is fail", e);
+            }
+        }
+
+        public static Map<String, String> getScriptConfig() {
+            Map<String, String> config = Maps.newHashMap();
+            File file = new File(scriptCacheFile);
+            if (file.exists()) {
+                try {
+                    config.putAll(JsonUtil.fromJson(FileUtils.readFileToString(file), new TypeReference<Map<String, String>>() {
+                    }));
+                } catch (Exception e) {
+                    file.delete();
+                    LOGGER.warn("format of script local config is incorrect", e);
+                }
+            }
+
+            return config;
+        }
     }
 }
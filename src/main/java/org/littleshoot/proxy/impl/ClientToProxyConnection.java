@@ -18,6 +18,7 @@ package org.littleshoot.proxy.impl;
 
 import com.google.common.io.BaseEncoding;
 import info.yangguo.waf.WafHttpHeaderNames;
+import info.yangguo.waf.request.ConnectionFilter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
@@ -160,6 +161,10 @@ public class ClientToProxyConnection extends ProxyConnection<HttpRequest> {
                                 }
                             });
         }
+        //放在ssl之前，被拒绝的连接不需要TLS握手和HTTP解码
+        if (ConnectionFilter.isEnabled()) {
+            pipeline.addFirst("connectionFilter", ConnectionFilter.INSTANCE);
+        }
         this.globalTrafficShapingHandler = globalTrafficShapingHandler;
 
         LOG.debug("Created ClientToProxyConnection");
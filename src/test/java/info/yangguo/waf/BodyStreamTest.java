@@ -0,0 +1,68 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.BodyStream;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class BodyStreamTest {
+    @Test
+    public void splitCharacterIsDecodedOnce() {
+        byte[] bytes = "a中文b".getBytes(StandardCharsets.UTF_8);
+        BodyStream stream = new BodyStream();
+        //"中"的3个字节被切成两段
+        String first = stream.decode(Unpooled.wrappedBuffer(Arrays.copyOfRange(bytes, 0, 2)), false);
+        String second = stream.decode(Unpooled.wrappedBuffer(Arrays.copyOfRange(bytes, 2, 3)), false);
+        String third = stream.decode(Unpooled.wrappedBuffer(Arrays.copyOfRange(bytes, 3, bytes.length)), true);
+        Assert.assertEquals("a", first);
+        Assert.assertEquals("", second);
+        Assert.assertEquals("中文b", third);
+    }
+
+    @Test
+    public void truncatedCharacterIsFlushedOnLastChunk() {
+        byte[] bytes = "中".getBytes(StandardCharsets.UTF_8);
+        BodyStream stream = new BodyStream();
+        Assert.assertEquals("", stream.decode(Unpooled.wrappedBuffer(Arrays.copyOfRange(bytes, 0, 2)), false));
+        Assert.assertEquals("�", stream.decode(Unpooled.wrappedBuffer(new byte[0]), true));
+    }
+
+    @Test
+    public void windowKeepsTail() {
+        BodyStream stream = new BodyStream();
+        Assert.assertEquals("select * fr", stream.window("select * fr", 4));
+        //跨chunk的"from"出现在拼接之后的内容中
+        Assert.assertEquals("* from users", stream.window("om users", 4));
+        Assert.assertEquals("sers;", stream.window(";", 4));
+        Assert.assertEquals("b", new BodyStream().window("b", 0));
+    }
+
+    @Test
+    public void pairsWaitForSeparator() {
+        BodyStream stream = new BodyStream();
+        Assert.assertEquals("a=1", stream.pairs("a=1&b=un", false, 4, 64));
+        Assert.assertEquals("", stream.pairs("ion", false, 4, 64));
+        Assert.assertEquals("b=union&c=2", stream.pairs("&c=2&d", false, 4, 64));
+        Assert.assertEquals("d=3", stream.pairs("=3", true, 4, 64));
+    }
+
+    @Test
+    public void longPairIsBounded() {
+        BodyStream stream = new BodyStream();
+        Assert.assertEquals("", stream.pairs("a=1234", false, 2, 8));
+        //超过maxPending之后先返回，只保留末尾的overlap个字符
+        Assert.assertEquals("a=123456789", stream.pairs("56789", false, 2, 8));
+        Assert.assertEquals("89x", stream.pairs("x", true, 2, 8));
+    }
+
+    @Test
+    public void longPairAfterSeparatorIsReturned() {
+        BodyStream stream = new BodyStream();
+        //&之后的部分超过maxPending时，开头部分也要返回匹配
+        Assert.assertEquals("a=1&b=union select", stream.pairs("a=1&b=union select", false, 2, 8));
+        Assert.assertEquals("ct&c=2", stream.pairs("&c=2", true, 2, 8));
+    }
+}
@@ -0,0 +1,37 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.security.matcher.CidrTrie;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CidrTrieTest {
+    @Test
+    public void longestPrefix() {
+        CidrTrie trie = new CidrTrie();
+        Assert.assertTrue(trie.add("10.0.0.0/8", 0));
+        Assert.assertTrue(trie.add("10.1.0.0/16", 1));
+        Assert.assertTrue(trie.add("10.1.2.3", 2));
+        Assert.assertTrue(trie.add("2001:db8::/32", 3));
+        Assert.assertTrue(trie.add("::1", 4));
+
+        Assert.assertEquals(0, trie.lookup("10.200.0.1"));
+        Assert.assertEquals(1, trie.lookup("10.1.200.1"));
+        Assert.assertEquals(2, trie.lookup("10.1.2.3"));
+        Assert.assertEquals(-1, trie.lookup("11.0.0.1"));
+        Assert.assertEquals(3, trie.lookup("2001:db8:1::1"));
+        Assert.assertEquals(4, trie.lookup("0:0:0:0:0:0:0:1"));
+        Assert.assertEquals(2, trie.lookup("::ffff:10.1.2.3"));
+        Assert.assertEquals(-1, trie.lookup("unknown"));
+        Assert.assertEquals(5, trie.size());
+    }
+
+    @Test
+    public void rejectNonCidr() {
+        CidrTrie trie = new CidrTrie();
+        Assert.assertFalse(trie.add("192\\.168\\..*", 0));
+        Assert.assertFalse(trie.add("10.0.0.0/33", 0));
+        Assert.assertFalse(trie.add("10.0.0.0/-1", 0));
+        Assert.assertFalse(trie.add("256.0.0.1", 0));
+        Assert.assertEquals(0, trie.size());
+    }
+}
@@ -0,0 +1,63 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.security.limiter.ClusterCounter;
+import info.yangguo.waf.request.security.limiter.CounterTable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+public class ClusterCounterTest {
+    private static final long WINDOW = 3600_000L;
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws Exception {
+        CounterTable remote = new CounterTable(1024);
+        InetSocketAddress senderAddress = new InetSocketAddress("127.0.0.1", freePort());
+        InetSocketAddress receiverAddress = new InetSocketAddress("127.0.0.1", freePort());
+        //sender每毫秒发送一次增量，与record()并发
+        ClusterCounter sender = new ClusterCounter(new CounterTable(1024), WINDOW, senderAddress, 1);
+        ClusterCounter receiver = new ClusterCounter(remote, WINDOW, receiverAddress, 60_000);
+        try {
+            sender.setPeers(Arrays.asList(senderAddress, receiverAddress));
+            receiver.setPeers(Arrays.asList(senderAddress, receiverAddress));
+            int threads = 4;
+            int records = 20000;
+            CountDownLatch latch = new CountDownLatch(threads);
+            for (int i = 0; i < threads; i++) {
+                new Thread(() -> {
+                    for (int j = 0; j < records; j++) {
+                        sender.record(j % 8 + 1);
+                    }
+                    latch.countDown();
+                }).start();
+            }
+            latch.await();
+            long expected = (long) threads * records;
+            long deadline = System.currentTimeMillis() + 5000;
+            long total = 0;
+            while (System.currentTimeMillis() < deadline) {
+                total = 0;
+                for (long key = 1; key <= 8; key++) {
+                    total += remote.estimate(key, System.currentTimeMillis(), WINDOW);
+                }
+                if (total >= expected)
+                    break;
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(expected, total);
+        } finally {
+            sender.close();
+            receiver.close();
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
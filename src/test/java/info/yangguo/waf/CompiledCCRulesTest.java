@@ -0,0 +1,85 @@
+package info.yangguo.waf;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import info.yangguo.waf.model.*;
+import info.yangguo.waf.request.security.CCSecurity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class CompiledCCRulesTest {
+    private static SecurityConfigItem item(String wafRoute, Map<String, Object> thresholds, List<String> wafRoutes) {
+        return SecurityConfigItem.builder()
+                .name(wafRoute)
+                .config(SecurityItemBasicConfig.builder().isStart(true).extension(thresholds).wafRoutes(wafRoutes).build())
+                .build();
+    }
+
+    private static CompiledCCRules compile(Object dimension, SecurityConfigItem... items) {
+        Map<String, Object> extension = Maps.newHashMap();
+        if (dimension != null)
+            extension.put(CCSecurity.DIMENSION, dimension);
+        return CompiledSecurityConfig.compile(SecurityConfig.builder()
+                .filterName(CCSecurity.class.getName())
+                .config(BasicConfig.builder().isStart(true).extension(extension).build())
+                .securityConfigItems(Lists.newArrayList(items))
+                .build(), 1).getCcRules();
+    }
+
+    @Test
+    public void sortedByThreshold() {
+        Map<String, Object> thresholds = Maps.newLinkedHashMap();
+        thresholds.put("/.*", 100);
+        thresholds.put("/api/.*", 10);
+        thresholds.put("/static/.*", 100);
+        thresholds.put("/bad", "x");
+        CompiledCCRules ccRules = compile(null, item("a.com", thresholds, null));
+
+        CompiledCCRules.Rule[] rules = ccRules.getRules("a.com");
+        Assert.assertEquals(3, rules.length);
+        Assert.assertEquals("/api/.*", rules[0].getRegex());
+        Assert.assertEquals(10, rules[0].getThreshold());
+        //阈值相同时保持配置顺序
+        Assert.assertEquals("/.*", rules[1].getRegex());
+        Assert.assertEquals("/static/.*", rules[2].getRegex());
+        Assert.assertTrue(rules[0].matches("/api/user"));
+        Assert.assertFalse(rules[0].matches("/index"));
+        Assert.assertEquals(0, ccRules.getRules("b.com").length);
+        Assert.assertEquals(0, ccRules.getRules(null).length);
+    }
+
+    @Test
+    public void routeScopedItem() {
+        CompiledCCRules ccRules = compile(null,
+                item("a.com", Collections.singletonMap("/.*", 100), null),
+                item("b.com", Collections.singletonMap("/.*", 5), Lists.newArrayList("b.com")));
+        Assert.assertEquals(100, ccRules.getRules("a.com")[0].getThreshold());
+        Assert.assertEquals(1, ccRules.getRules("b.com").length);
+        Assert.assertEquals(5, ccRules.getRules("b.com")[0].getThreshold());
+    }
+
+    @Test
+    public void seedChangesWithThreshold() {
+        long seed = compile(null, item("a.com", Collections.singletonMap("/.*", 100), null)).getRules("a.com")[0].getSeed();
+        Assert.assertEquals(seed, compile(null, item("a.com", Collections.singletonMap("/.*", 100), null)).getRules("a.com")[0].getSeed());
+        Assert.assertNotEquals(seed, compile(null, item("a.com", Collections.singletonMap("/.*", 50), null)).getRules("a.com")[0].getSeed());
+    }
+
+    @Test
+    public void dimension() {
+        Assert.assertEquals(CompiledCCRules.Dimension.ROUTE, compile(null).getDimension());
+        Assert.assertEquals(CompiledCCRules.Dimension.ROUTE, compile("route").getDimension());
+        Assert.assertEquals(CompiledCCRules.Dimension.IP, compile("ip").getDimension());
+        Assert.assertEquals(CompiledCCRules.Dimension.IP_ROUTE, compile("ip_route").getDimension());
+        CompiledCCRules header = compile("header:X-Token");
+        Assert.assertEquals(CompiledCCRules.Dimension.HEADER, header.getDimension());
+        Assert.assertEquals("X-Token", header.getDimensionName());
+        CompiledCCRules cookie = compile("cookie:sid");
+        Assert.assertEquals(CompiledCCRules.Dimension.COOKIE, cookie.getDimension());
+        Assert.assertEquals("sid", cookie.getDimensionName());
+    }
+}
@@ -0,0 +1,86 @@
+package info.yangguo.waf;
+
+import com.google.common.collect.Lists;
+import info.yangguo.waf.model.*;
+import info.yangguo.waf.request.security.IpSecurity;
+import info.yangguo.waf.request.security.UrlSecurity;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class CompiledSecurityConfigTest {
+    private static SecurityConfigItem item(String regex, boolean isStart, List<String> wafRoutes) {
+        return SecurityConfigItem.builder()
+                .name(regex)
+                .config(SecurityItemBasicConfig.builder().isStart(isStart).wafRoutes(wafRoutes).build())
+                .build();
+    }
+
+    private static CompiledSecurityConfig compile(SecurityConfigItem... items) {
+        return compile(UrlSecurity.class, items);
+    }
+
+    private static CompiledSecurityConfig compile(Class filter, SecurityConfigItem... items) {
+        return CompiledSecurityConfig.compile(SecurityConfig.builder()
+                .filterName(filter.getName())
+                .config(BasicConfig.builder().isStart(true).build())
+                .securityConfigItems(Lists.newArrayList(items))
+                .build(), 1);
+    }
+
+    @Test
+    public void routeRules() {
+        CompiledSecurityConfig config = compile(
+                item("global", true, null),
+                item("onlyb", true, Lists.newArrayList("b.com")),
+                item("bandc", true, Lists.newArrayList("b.com", "c.com")),
+                item("disabled", false, Lists.newArrayList("b.com")));
+
+        //没有单独配置的route使用全局规则集
+        Assert.assertSame(config.getGlobalRules(), config.getRules(null));
+        Assert.assertSame(config.getGlobalRules(), config.getRules("a.com"));
+        Assert.assertEquals("global", config.getRules("a.com").find("/global").getName());
+        Assert.assertNull(config.getRules("a.com").find("/onlyb"));
+        Assert.assertNull(config.getRules("a.com").find("/bandc"));
+
+        //route规则集先匹配全局规则，再匹配自身的规则
+        CompiledRuleSet b = config.getRules("b.com");
+        Assert.assertSame(config.getGlobalRules(), b.getParent());
+        Assert.assertEquals("global", b.find("/global/onlyb").getName());
+        Assert.assertEquals("onlyb", b.find("/onlyb").getName());
+        Assert.assertEquals("bandc", b.find("/bandc").getName());
+        Assert.assertNull(b.find("/disabled"));
+        Assert.assertEquals(3, b.stream().count());
+
+        CompiledRuleSet c = config.getRules("c.com");
+        Assert.assertNull(c.find("/onlyb"));
+        Assert.assertEquals("bandc", c.find("/bandc").getName());
+    }
+
+    @Test
+    public void matchesInRoute() {
+        CompiledSecurityConfig config = compile(item("/global", true, null), item("/b/.*", true, Lists.newArrayList("b.com")));
+        Assert.assertEquals("/global", config.getRules("b.com").matches("/global").getName());
+        Assert.assertEquals("/b/.*", config.getRules("b.com").matches("/b/x").getName());
+        Assert.assertNull(config.getRules("a.com").matches("/b/x"));
+    }
+
+    @Test
+    public void ipItemsAreExact() {
+        CompiledSecurityConfig config = compile(IpSecurity.class,
+                item("10.0.0.1", true, null),
+                item("172.16.0.0/12", true, null),
+                item("192\\.168\\.1\\.\\d+", true, null));
+        CompiledRuleSet rules = config.getGlobalRules();
+        Assert.assertEquals("10.0.0.1", rules.findIp("10.0.0.1").getName());
+        //按正则find时10.0.0.1会命中10.0.0.10~10.0.0.19，放入CidrTrie之后是精确地址
+        Assert.assertTrue(Pattern.compile("10.0.0.1").matcher("10.0.0.10").find());
+        Assert.assertNull(rules.findIp("10.0.0.10"));
+        Assert.assertNull(rules.findIp("110.0.0.1"));
+        Assert.assertEquals("172.16.0.0/12", rules.findIp("172.31.255.1").getName());
+        //不是IP/CIDR的item仍然按正则匹配
+        Assert.assertEquals("192\\.168\\.1\\.\\d+", rules.findIp("192.168.1.25").getName());
+    }
+}
@@ -0,0 +1,93 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.security.limiter.CounterTable;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CounterTableTest {
+    @Test
+    public void capacityRoundsUp() {
+        Assert.assertEquals(1024, new CounterTable(1000).capacity());
+        Assert.assertEquals(1024, new CounterTable(1024).capacity());
+    }
+
+    @Test
+    public void keysAreCountedSeparately() {
+        CounterTable table = new CounterTable(1024);
+        long now = 1_000_000L;
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(table.tryAcquire(1L, now, 1000, 5));
+            Assert.assertTrue(table.tryAcquire(2L, now, 1000, 5));
+        }
+        Assert.assertFalse(table.tryAcquire(1L, now, 1000, 5));
+        Assert.assertFalse(table.tryAcquire(2L, now, 1000, 5));
+        Assert.assertEquals(2, table.used());
+        Assert.assertEquals(2, table.live(now, 1000));
+    }
+
+    @Test
+    public void expiredEntriesAreReused() {
+        CounterTable table = new CounterTable(1);
+        long now = 1_000_000L;
+        Assert.assertTrue(table.tryAcquire(1L, now, 1000, 1));
+        Assert.assertFalse(table.tryAcquire(1L, now, 1000, 1));
+        //两个窗口之后entry过期，可以给其他key使用
+        Assert.assertTrue(table.tryAcquire(2L, now + 2000, 1000, 1));
+        Assert.assertFalse(table.tryAcquire(2L, now + 2000, 1000, 1));
+        Assert.assertEquals(1, table.used());
+        Assert.assertEquals(1, table.reuses());
+        Assert.assertEquals(0, table.evictions());
+    }
+
+    @Test
+    public void fullTableEvictsLowestCount() {
+        CounterTable table = new CounterTable(2);
+        long now = 1_000_000L;
+        Assert.assertTrue(table.tryAcquire(1L, now, 1000, 10));
+        Assert.assertTrue(table.tryAcquire(1L, now, 1000, 10));
+        Assert.assertTrue(table.tryAcquire(2L, now, 1000, 10));
+        Assert.assertTrue(table.tryAcquire(3L, now, 1000, 10));
+        Assert.assertEquals(1, table.evictions());
+        //计数多的key保留
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(table.tryAcquire(1L, now, 1000, 10));
+        }
+        Assert.assertFalse(table.tryAcquire(1L, now, 1000, 10));
+    }
+
+    @Test
+    public void tableHoldsManyKeys() {
+        CounterTable table = new CounterTable(1 << 16);
+        long now = 1_000_000L;
+        for (long key = 1; key <= 20000; key++) {
+            Assert.assertTrue(table.tryAcquire(key * 0x9E3779B97F4A7C15L, now, 1000, 1));
+        }
+        for (long key = 1; key <= 20000; key++) {
+            Assert.assertFalse(table.tryAcquire(key * 0x9E3779B97F4A7C15L, now, 1000, 1));
+        }
+        Assert.assertEquals(0, table.evictions());
+    }
+
+    @Test
+    public void remoteDeltasShareLimit() {
+        CounterTable table = new CounterTable(1024);
+        long now = 1_000_000L;
+        table.add(1L, now, 1000, now / 1000, 9);
+        Assert.assertTrue(table.tryAcquire(1L, now, 1000, 10));
+        Assert.assertFalse(table.tryAcquire(1L, now, 1000, 10));
+        Assert.assertTrue(table.tryAcquire(2L, now, 1000, 10));
+    }
+
+    @Test
+    public void addAndEstimate() {
+        CounterTable table = new CounterTable(1024);
+        long now = 1_000_000L;
+        Assert.assertEquals(0, table.estimate(1L, now, 1000));
+        for (int i = 1; i <= 4; i++) {
+            Assert.assertEquals(i, table.addAndEstimate(1L, now, 1000, 1));
+        }
+        Assert.assertEquals(4, table.estimate(1L, now + 999, 1000));
+        Assert.assertEquals(2, table.estimate(1L, now + 1500, 1000));
+        Assert.assertEquals(0, table.estimate(2L, now, 1000));
+    }
+}
@@ -0,0 +1,110 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.security.matcher.DfaMatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class DfaMatcherTest {
+    private static final List<String> RULES = Arrays.asList(
+            "select.+(from|limit)",
+            "(?:(union(.*?)select))",
+            "sleep\\((\\s*)(\\d*)(\\s*)\\)",
+            "(?:etc\\/\\W*passwd)",
+            "\\.(bak|inc|old|mdb|sql|backup|java|class)$",
+            "\\bunion\\b",
+            "^/admin");
+
+    private static int sequentialFind(List<Pattern> patterns, String input) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(input).find())
+                return i;
+        }
+        return -1;
+    }
+
+    @Test
+    public void sameResultAsSequentialFind() {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String rule : RULES) {
+            patterns.add(Pattern.compile(rule));
+        }
+        DfaMatcher matcher = DfaMatcher.compile(RULES);
+        //\b不能用自动机表达，需要回退
+        Assert.assertEquals(RULES.size() - 1, matcher.getDfaRuleCount());
+        String[] inputs = new String[]{
+                "",
+                "a",
+                "/index.html",
+                "/admin/index.html",
+                "/index.bak",
+                "/index.bak\n",
+                "/index.bak\r\n",
+                "/index.bak\n\n",
+                "q=select * from users",
+                "q=1 union all select 2",
+                "q=union",
+                "x=sleep( 1 )",
+                "../../etc/passwd",
+                "emoji😀select 1 from"
+        };
+        for (String input : inputs) {
+            Assert.assertEquals(input, sequentialFind(patterns, input), matcher.find(input, i -> patterns.get(i).matcher(input).find()));
+        }
+    }
+
+    @Test
+    public void linearTime() {
+        DfaMatcher matcher = DfaMatcher.compile(Arrays.asList("(a+)+b", "(x+x+)+y"));
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            input.append('a');
+        }
+        Assert.assertEquals(-1, matcher.find(input, i -> {
+            throw new IllegalStateException("should not fall back");
+        }));
+    }
+
+    @Test
+    public void rejectedRuleContinues() {
+        DfaMatcher matcher = DfaMatcher.compile(Arrays.asList("a.c", "abc", "xyz"));
+        Assert.assertEquals(0, matcher.find("zabcz", i -> false, i -> true));
+        //DFA命中的规则被禁用时，后面的规则逐个确认
+        Assert.assertEquals(1, matcher.find("zabcz", i -> i == 1, i -> i != 0));
+        Assert.assertEquals(-1, matcher.find("zabcz", i -> false, i -> i != 0));
+    }
+
+    @Test
+    public void surrogatesStayInDfa() {
+        List<String> rules = Arrays.asList("a.b", "x[^y]{2}z", "\\W\\W$", "^.{3}$", "q\\D+r", "[\\u0100-\\uFFFF]");
+        List<Pattern> patterns = new ArrayList<>();
+        for (String rule : rules) {
+            patterns.add(Pattern.compile(rule));
+        }
+        DfaMatcher matcher = DfaMatcher.compile(rules);
+        //跨过代理区的区间回退
+        Assert.assertEquals(rules.size() - 1, matcher.getDfaRuleCount());
+        String[] inputs = new String[]{
+                "a\uD83D\uDE00b",
+                "a\uD83Db",
+                "a\uDE00b",
+                "x\uD83D\uDE00\uD83D\uDE01z",
+                "x\uD83D\uDE00z",
+                "\uD83D\uDE00\uD83D\uDE01",
+                "\uD83D\uDE00\uD83D\uDE01\uD83D\uDE02",
+                "\uDE00\uD83D",
+                "q\uD83D\uDE00r",
+                "\uD83D\uDE00select"
+        };
+        for (String input : inputs) {
+            Assert.assertEquals(input, sequentialFind(patterns, input), matcher.find(input, i -> {
+                Assert.assertEquals("only the unsupported rule falls back", rules.size() - 1, i);
+                return patterns.get(i).matcher(input).find();
+            }));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.security.matcher.ExactMatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+public class ExactMatcherTest {
+    private static final List<String> RULES = Arrays.asList(
+            "exe",
+            "^jsp$",
+            "ph.*",
+            "php",
+            "asp\\z",
+            "\\Qa.b\\E",
+            "(?i)bat",
+            "bat",
+            null,
+            "sh");
+
+    @Test
+    public void sameResultAsSequentialMatches() {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String rule : RULES) {
+            patterns.add(rule == null ? null : Pattern.compile(rule));
+        }
+        ExactMatcher matcher = ExactMatcher.compile(RULES);
+        String[] inputs = new String[]{"exe", "exe\n", "jsp", "php", "phtml", "asp", "a.b", "axb", "BAT", "bat", "sh", "shx", ""};
+        for (String input : inputs) {
+            int expected = -1;
+            for (int i = 0; i < patterns.size(); i++) {
+                if (patterns.get(i) != null && patterns.get(i).matcher(input).matches()) {
+                    expected = i;
+                    break;
+                }
+            }
+            Assert.assertEquals(input, expected, matcher.matches(input, i -> patterns.get(i).matcher(input).matches()));
+        }
+    }
+
+    @Test
+    public void rejectedLiteralContinues() {
+        ExactMatcher matcher = ExactMatcher.compile(Arrays.asList("php", "ph.", "x"));
+        Assert.assertEquals(0, matcher.matches("php", i -> i == 1, i -> true));
+        //字面量规则被禁用时继续匹配后面的正则规则
+        Assert.assertEquals(1, matcher.matches("php", i -> i == 1, i -> false));
+        Assert.assertEquals(-1, matcher.matches("php", i -> false, i -> false));
+    }
+
+    @Test
+    public void duplicatedLiteral() {
+        ExactMatcher matcher = ExactMatcher.compile(Arrays.asList("php", "x.", "^php$"));
+        Assert.assertEquals(0, matcher.matches("php", i -> false, i -> true));
+        //第一个规则被禁用时，相同字面量的后一个规则仍然命中
+        Assert.assertEquals(2, matcher.matches("php", i -> false, i -> i != 0));
+        Assert.assertEquals(-1, matcher.matches("php", i -> false, i -> false));
+    }
+}
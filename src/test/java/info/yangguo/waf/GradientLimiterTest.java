@@ -0,0 +1,78 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.security.limiter.GradientLimiter;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class GradientLimiterTest {
+    private static final long MILLIS = 1_000_000L;
+
+    /**
+     * 占满当前上限之后全部以指定的响应时间返回
+     */
+    private void round(GradientLimiter limiter, long rttNanos) {
+        int acquired = 0;
+        while (limiter.tryAcquire())
+            acquired++;
+        for (int i = 0; i < acquired; i++) {
+            limiter.release(rttNanos, false);
+        }
+    }
+
+    @Test
+    public void rejectsAboveLimit() {
+        GradientLimiter limiter = new GradientLimiter(10, 5, 100);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(limiter.tryAcquire());
+        }
+        Assert.assertFalse(limiter.tryAcquire());
+        limiter.release();
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertEquals(10, limiter.getInflight());
+    }
+
+    @Test
+    public void growsWhileLatencyIsStable() {
+        GradientLimiter limiter = new GradientLimiter(10, 5, 100);
+        for (int i = 0; i < 20; i++) {
+            round(limiter, 10 * MILLIS);
+        }
+        Assert.assertTrue(limiter.getLimit() > 20);
+        Assert.assertEquals(0, limiter.getInflight());
+        Assert.assertEquals(10.0, limiter.getRtt(), 0.001);
+    }
+
+    @Test
+    public void shrinksWhenBackendSlowsDown() {
+        GradientLimiter limiter = new GradientLimiter(50, 5, 100);
+        for (int i = 0; i < 10; i++) {
+            round(limiter, 10 * MILLIS);
+        }
+        int before = limiter.getLimit();
+        for (int i = 0; i < 10; i++) {
+            round(limiter, 100 * MILLIS);
+        }
+        Assert.assertTrue(limiter.getLimit() < before / 2);
+        Assert.assertTrue(limiter.getLimit() >= 5);
+    }
+
+    @Test
+    public void dropsBackOff() {
+        GradientLimiter limiter = new GradientLimiter(100, 5, 100);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(limiter.tryAcquire());
+            limiter.release(0, true);
+        }
+        Assert.assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    public void idleTrafficDoesNotGrowLimit() {
+        GradientLimiter limiter = new GradientLimiter(20, 5, 100);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(limiter.tryAcquire());
+            limiter.release(10 * MILLIS, false);
+        }
+        Assert.assertEquals(20, limiter.getLimit());
+    }
+}
@@ -0,0 +1,79 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.security.limiter.BanList;
+import info.yangguo.waf.request.security.limiter.CountMinSketch;
+import info.yangguo.waf.request.security.limiter.HeavyHitters;
+import info.yangguo.waf.request.security.limiter.KeyHash;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class HeavyHittersTest {
+    private static long hash(String key) {
+        return KeyHash.finish(KeyHash.append(0, key));
+    }
+
+    @Test
+    public void sketchNeverUnderestimates() {
+        CountMinSketch sketch = new CountMinSketch(1024);
+        for (int i = 0; i < 5000; i++) {
+            sketch.add(hash("noise" + i));
+        }
+        for (int i = 0; i < 100; i++) {
+            sketch.add(hash("hot"));
+        }
+        Assert.assertTrue(sketch.estimate(hash("hot")) >= 100);
+        //4行1024列，5000个噪声key的估算误差不会太大
+        Assert.assertTrue(sketch.estimate(hash("hot")) < 150);
+        sketch.clear();
+        Assert.assertEquals(0, sketch.estimate(hash("hot")));
+    }
+
+    @Test
+    public void topKeepsHeaviestKeys() {
+        HeavyHitters hitters = new HeavyHitters(1000, 1024, 2);
+        long now = 1_000_000L;
+        String[] keys = {"a", "b", "c"};
+        int[] counts = {30, 5, 20};
+        for (int k = 0; k < keys.length; k++) {
+            for (int i = 0; i < counts[k]; i++) {
+                int estimate = hitters.add(hash(keys[k]), now);
+                if (hitters.isCandidate(estimate))
+                    hitters.offer(hash(keys[k]), keys[k], estimate);
+            }
+        }
+        List<HeavyHitters.Hitter> top = hitters.top();
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals("a", top.get(0).getKey());
+        Assert.assertEquals(30, top.get(0).getCount());
+        Assert.assertEquals("c", top.get(1).getKey());
+    }
+
+    @Test
+    public void newWindowStartsFromZero() {
+        HeavyHitters hitters = new HeavyHitters(1000, 1024, 10);
+        long now = 1_000_000L;
+        for (int i = 0; i < 10; i++) {
+            hitters.add(hash("a"), now);
+        }
+        Assert.assertEquals(1, hitters.add(hash("a"), now + 1000));
+        Assert.assertEquals(0, hitters.top().size());
+    }
+
+    @Test
+    public void bansExpireAndCanBeRevoked() {
+        BanList banList = new BanList();
+        long now = 1_000_000L;
+        Assert.assertTrue(banList.isEmpty());
+        banList.ban(hash("1.1.1.1"), "ip", "1.1.1.1", 100, now + 1000);
+        banList.ban(hash("2.2.2.2"), "ip", "2.2.2.2", 100, now + 1000);
+        Assert.assertTrue(banList.isBanned(hash("1.1.1.1"), now));
+        Assert.assertFalse(banList.isBanned(hash("3.3.3.3"), now));
+        Assert.assertTrue(banList.revoke("2.2.2.2"));
+        Assert.assertFalse(banList.revoke("2.2.2.2"));
+        Assert.assertEquals(1, banList.list(now).size());
+        Assert.assertFalse(banList.isBanned(hash("1.1.1.1"), now + 1000));
+        Assert.assertTrue(banList.isEmpty());
+    }
+}
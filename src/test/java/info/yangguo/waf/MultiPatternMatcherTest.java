@@ -0,0 +1,113 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.security.matcher.MultiPatternMatcher;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+public class MultiPatternMatcherTest {
+    private static final List<String> RULES = Arrays.asList(
+            "\\.\\./",
+            "select.+(from|limit)",
+            "(?:(union(.*?)select))",
+            "having|rongjitest",
+            "sleep\\((\\s*)(\\d*)(\\s*)\\)",
+            "(?:(?:current_)user|database|schema|connection_id)\\s*\\(",
+            "\\$_(get|post|cookie|files|session|env|phplib|globals|server)\\[",
+            "(?i)benchmark",
+            "(a)\\1x",
+            "^abc$");
+
+    private static int sequentialFind(List<Pattern> patterns, String input) {
+        for (int i = 0; i < patterns.size(); i++) {
+            if (patterns.get(i).matcher(input).find())
+                return i;
+        }
+        return -1;
+    }
+
+    @Test
+    public void sameResultAsSequentialFind() {
+        List<Pattern> patterns = new ArrayList<>();
+        for (String rule : RULES) {
+            patterns.add(Pattern.compile(rule));
+        }
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(RULES);
+        String[] inputs = new String[]{
+                "id=1",
+                "id=1 union all select 1,2",
+                "q=select * from users",
+                "path=../../etc/passwd",
+                "a=sleep( 5 )",
+                "a=database ()",
+                "x=$_get[a]",
+                "x=BenchMark",
+                "x=aax",
+                "abc",
+                "abc\n",
+                "xabc",
+                "having union select from"
+        };
+        for (String input : inputs) {
+            Assert.assertEquals(input, sequentialFind(patterns, input), matcher.find(input, i -> patterns.get(i).matcher(input).find()));
+        }
+    }
+
+    @Test
+    public void invalidRuleNeverMatches() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(Arrays.asList(null, "abc"));
+        Assert.assertEquals(1, matcher.find("abc", i -> i == 1));
+        Assert.assertEquals(-1, matcher.find("xyz", i -> true));
+    }
+
+    @Test
+    public void literalRuleSkipsConfirm() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(Arrays.asList("a.c", "abc", "x\\.y"));
+        Assert.assertEquals(1, matcher.find("zabcz", i -> false));
+        Assert.assertEquals(2, matcher.find("x.y", i -> false));
+        Assert.assertEquals(0, matcher.find("abc", i -> i == 0));
+        Assert.assertEquals(-1, matcher.find("xyz", i -> false));
+    }
+
+    @Test
+    public void rejectedLiteralContinues() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(Arrays.asList("abc", "ab.", "abc"));
+        //字面量规则被禁用时继续查找后面的规则
+        Assert.assertEquals(1, matcher.find("abc", i -> i == 1, i -> i != 0));
+        Assert.assertEquals(2, matcher.find("abc", i -> false, i -> i == 2));
+        Assert.assertEquals(-1, matcher.find("abc", i -> false, i -> false));
+    }
+
+    @Test
+    public void manyOverlappingLiterals() {
+        //分支数超过顺序查找的上限，并且包含非ASCII字符
+        String alphabet = "abcdefghijkl中文";
+        Random random = new Random(1);
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            StringBuilder rule = new StringBuilder();
+            for (int j = 1 + random.nextInt(6); j > 0; j--) {
+                rule.append(alphabet.charAt(random.nextInt(3 + i % (alphabet.length() - 2))));
+            }
+            rules.add(rule.toString());
+        }
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(rules);
+        for (int i = 0; i < 500; i++) {
+            StringBuilder input = new StringBuilder();
+            for (int j = random.nextInt(40); j > 0; j--) {
+                input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            int expected = -1;
+            for (int j = 0; j < rules.size() && expected < 0; j++) {
+                if (input.indexOf(rules.get(j)) >= 0)
+                    expected = j;
+            }
+            Assert.assertEquals(input.toString(), expected, matcher.find(input, index -> false));
+        }
+    }
+}
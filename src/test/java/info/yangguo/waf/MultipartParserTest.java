@@ -0,0 +1,97 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.MultipartParser;
+import io.netty.buffer.Unpooled;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MultipartParserTest {
+    private static final String BODY = "--abc\r\n" +
+            "Content-Disposition: form-data; name=\"desc\"\r\n" +
+            "\r\n" +
+            "filename=\"fake.jsp\"\r\n" +
+            "--abc\r\n" +
+            "content-disposition: form-data; name=\"file\"; filename=\"shell.JSP\"\r\n" +
+            "Content-Type: application/octet-stream\r\n" +
+            "\r\n" +
+            "\r\n--ab\r\r\n--abcd-\r\n" +
+            "--abc\r\n" +
+            "Content-Disposition: form-data; name=\"f2\"; filename*=UTF-8''%E4%B8%AD.php\r\n" +
+            "\r\n" +
+            "x\r\n" +
+            "--abc--\r\n" +
+            "--abc\r\n" +
+            "Content-Disposition: form-data; name=\"f3\"; filename=\"epilogue.asp\"\r\n";
+
+    @Test
+    public void boundaryFromContentType() {
+        Assert.assertEquals("abc", MultipartParser.boundary("multipart/form-data; boundary=abc"));
+        Assert.assertEquals("a b", MultipartParser.boundary("multipart/form-data; charset=utf-8; Boundary=\"a b\""));
+        Assert.assertNull(MultipartParser.boundary("multipart/form-data"));
+        Assert.assertNull(MultipartParser.boundary(null));
+    }
+
+    @Test
+    public void wholeBody() {
+        MultipartParser parser = new MultipartParser("abc", 1024);
+        Assert.assertEquals(Arrays.asList("shell.JSP", "中.php"), parser.parse(Unpooled.wrappedBuffer(BODY.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void everySplitPoint() {
+        byte[] bytes = BODY.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i <= bytes.length; i++) {
+            MultipartParser parser = new MultipartParser("abc", 1024);
+            List<String> filenames = new ArrayList<>(parser.parse(Unpooled.wrappedBuffer(Arrays.copyOfRange(bytes, 0, i))));
+            filenames.addAll(parser.parse(Unpooled.wrappedBuffer(Arrays.copyOfRange(bytes, i, bytes.length))));
+            Assert.assertEquals("split at " + i, Arrays.asList("shell.JSP", "中.php"), filenames);
+        }
+    }
+
+    @Test
+    public void paddingAroundFilename() {
+        String padding = new String(new char[9 * 1024]).replace('\0', 'a');
+        //filename前后的超长参数都不会影响提取，引号内的;不会被当作参数分隔符
+        String body = "--abc\r\nContent-Disposition: form-data; name=\"" + padding + "\"; filename=\"a.jsp\"\r\n\r\n" +
+                "\r\n--abc\r\nContent-Disposition: form-data; name=\"f\"; filename=\"b.jsp\"; pad=\"" + padding + "\"\r\n\r\n" +
+                "\r\n--abc\r\nContent-Disposition: form-data; name=\"x;filename=c.jpg\"; filename=d.php; pad=" + padding + "\r\n\r\n";
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        List<String> expected = Arrays.asList("a.jsp", "b.jsp", "d.php");
+        Assert.assertEquals(expected, new MultipartParser("abc", 64).parse(Unpooled.wrappedBuffer(bytes)));
+        for (int i = 0; i <= bytes.length; i += 509) {
+            MultipartParser parser = new MultipartParser("abc", 64);
+            List<String> filenames = new ArrayList<>(parser.parse(Unpooled.wrappedBuffer(Arrays.copyOfRange(bytes, 0, i))));
+            filenames.addAll(parser.parse(Unpooled.wrappedBuffer(Arrays.copyOfRange(bytes, i, bytes.length))));
+            Assert.assertEquals("split at " + i, expected, filenames);
+        }
+    }
+
+    @Test
+    public void longFilenameKeepsTail() {
+        String name = new String(new char[100]).replace('\0', 'a') + ".jsp";
+        String body = "--abc\r\nContent-Disposition: form-data; name=\"f\"; filename=\"" + name + "\"\r\n\r\n";
+        List<String> filenames = new MultipartParser("abc", 16).parse(Unpooled.wrappedBuffer(body.getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals(1, filenames.size());
+        Assert.assertEquals("jsp", MultipartParser.extension(filenames.get(0)));
+    }
+
+    @Test
+    public void escapedQuoteAndWindowsPath() {
+        String body = "--abc\r\nContent-Disposition: form-data; name=\"f\"; filename=\"C:\\dir\\a\\\"b.jsp\"\r\n\r\n";
+        Assert.assertEquals(Arrays.asList("C:\\dir\\a\"b.jsp"), new MultipartParser("abc", 64).parse(Unpooled.wrappedBuffer(body.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void extension() {
+        Assert.assertEquals("jsp", MultipartParser.extension("a.b.jsp"));
+        Assert.assertEquals("jsp", MultipartParser.extension("shell.jsp. "));
+        Assert.assertEquals("jsp", MultipartParser.extension("C:\\dir.x\\shell.jsp"));
+        Assert.assertNull(MultipartParser.extension("C:\\dir.x\\shell"));
+        Assert.assertNull(MultipartParser.extension("shell"));
+    }
+}
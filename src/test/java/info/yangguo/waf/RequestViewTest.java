@@ -0,0 +1,79 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.RequestView;
+import io.netty.handler.codec.http.*;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class RequestViewTest {
+    private static HttpRequest request(String uri) {
+        return new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+    }
+
+    @Test
+    public void uri() {
+        RequestView view = new RequestView(request("/a/b?Name=Value&flag&x=%41"));
+        Assert.assertEquals("/a/b?Name=Value&flag&x=%41", view.getUri());
+        Assert.assertEquals("/a/b", view.getPath());
+        Assert.assertEquals("Name=Value&flag&x=%41", view.getQuery());
+        Assert.assertEquals(Arrays.asList("name=value", "flag=", "x=a"), view.getArgs());
+
+        view = new RequestView(request("/a"));
+        Assert.assertEquals("/a", view.getPath());
+        Assert.assertNull(view.getQuery());
+        Assert.assertEquals(Collections.emptyList(), view.getArgs());
+    }
+
+    @Test
+    public void headers() {
+        HttpRequest request = request("/");
+        request.headers().add(HttpHeaderNames.COOKIE, "Sid=AbC; theme=dark");
+        request.headers().add(HttpHeaderNames.USER_AGENT, "curl");
+        request.headers().add(HttpHeaderNames.CONTENT_TYPE, "Multipart/Form-Data; boundary=xyz");
+        request.headers().add(WafHttpHeaderNames.X_REAL_IP, "10.0.0.1");
+        request.headers().add(WafHttpHeaderNames.X_WAF_ROUTE, "example.com");
+        RequestView view = new RequestView(request);
+        Assert.assertEquals(Arrays.asList("sid=abc", " theme=dark"), view.getCookies());
+        Assert.assertEquals("AbC", view.getCookie("Sid"));
+        Assert.assertNull(view.getCookie("sid"));
+        Assert.assertEquals("curl", view.getUserAgent());
+        Assert.assertEquals("multipart/form-data", view.getMimeType());
+        Assert.assertEquals("10.0.0.1", view.getRealIp());
+        Assert.assertEquals("example.com", view.getWafRoute());
+        Assert.assertNotNull(view.getMultipartParser(1024));
+        Assert.assertSame(view.getMultipartParser(1024), view.getMultipartParser(1024));
+        Assert.assertSame(view.getBodyStream(), view.getBodyStream());
+    }
+
+    @Test
+    public void noHeaders() {
+        RequestView view = new RequestView(request("/"));
+        Assert.assertEquals(Collections.emptyList(), view.getCookies());
+        Assert.assertEquals("", view.getMimeType());
+        Assert.assertNull(view.getRealIp());
+        Assert.assertNull(view.getClientIp());
+        Assert.assertNull(view.getMultipartParser(1024));
+    }
+
+    @Test
+    public void clientIp() {
+        HttpRequest request = request("/");
+        RequestView view = new RequestView(request, new InetSocketAddress("192.168.1.2", 8080));
+        Assert.assertNull(view.getRealIp());
+        Assert.assertEquals("192.168.1.2", view.getClientIp());
+
+        //对端不是可信代理时忽略X-Real-IP
+        request.headers().add(WafHttpHeaderNames.X_REAL_IP, "10.0.0.1");
+        view = new RequestView(request, new InetSocketAddress("192.168.1.2", 8080));
+        Assert.assertEquals("10.0.0.1", view.getRealIp());
+        Assert.assertEquals("192.168.1.2", view.getClientIp());
+
+        //waf.gateway.trusted_proxies=127.0.0.1
+        view = new RequestView(request, new InetSocketAddress("127.0.0.1", 8080));
+        Assert.assertEquals("10.0.0.1", view.getClientIp());
+    }
+}
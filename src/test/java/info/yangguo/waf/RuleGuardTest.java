@@ -0,0 +1,70 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.security.RuleGuard;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+public class RuleGuardTest {
+    private static final String FILTER = RuleGuardTest.class.getName();
+    private static final Pattern CATASTROPHIC = Pattern.compile("(.*a){12}b");
+    private static final String INPUT = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+
+    private static boolean run(RuleGuard guard, boolean failClosed) {
+        return guard.test(INPUT, 10000, failClosed, guarded -> CATASTROPHIC.matcher(guarded).find());
+    }
+
+    @Test
+    public void withinBudget() {
+        RuleGuard guard = RuleGuard.of(FILTER, "a+");
+        long timeouts = RuleGuard.timeouts();
+        Assert.assertTrue(guard.test("xaaa", 10000, false, guarded -> Pattern.compile("a+").matcher(guarded).find()));
+        Assert.assertEquals(timeouts, RuleGuard.timeouts());
+    }
+
+    @Test
+    public void failOpenIsMissAndDisables() {
+        RuleGuard guard = RuleGuard.of(FILTER, "open");
+        long timeouts = RuleGuard.timeouts();
+        Assert.assertFalse(run(guard, false));
+        //当前线程的超时次数增加，VerdictCache据此不缓存本次结果
+        Assert.assertEquals(timeouts + 1, RuleGuard.timeouts());
+        for (int i = 0; i < 1000 && !guard.isDisabled(); i++) {
+            run(guard, false);
+        }
+        Assert.assertTrue(guard.isDisabled());
+        //禁用之后即使能匹配也返回false
+        Assert.assertFalse(guard.test("b", 10000, false, guarded -> true));
+
+        Assert.assertTrue(RuleGuard.reset(FILTER, "open"));
+        Assert.assertFalse(guard.isDisabled());
+        Assert.assertTrue(guard.test("b", 10000, false, guarded -> true));
+    }
+
+    @Test
+    public void failClosedIsHitAndNeverDisabled() {
+        RuleGuard guard = RuleGuard.of(FILTER, "closed");
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(run(guard, true));
+        }
+        Assert.assertFalse(guard.isDisabled());
+    }
+
+    @Test
+    public void unlimitedBudget() {
+        RuleGuard guard = RuleGuard.of(FILTER, "unlimited");
+        long timeouts = RuleGuard.timeouts();
+        Assert.assertTrue(guard.test("ab", 0, false, guarded -> guarded.toString().contains("b")));
+        Assert.assertEquals(timeouts, RuleGuard.timeouts());
+    }
+
+    @Test
+    public void failPolicy() {
+        Assert.assertTrue(RuleGuard.isFailClosed("closed", false));
+        Assert.assertFalse(RuleGuard.isFailClosed("open", true));
+        Assert.assertTrue(RuleGuard.isFailClosed(null, true));
+        Assert.assertFalse(RuleGuard.isFailClosed("other", false));
+        Assert.assertFalse(RuleGuard.reset(FILTER, "missing"));
+    }
+}
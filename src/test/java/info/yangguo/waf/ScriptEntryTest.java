@@ -0,0 +1,100 @@
+package info.yangguo.waf;
+
+import com.google.common.collect.Lists;
+import info.yangguo.waf.request.RequestView;
+import info.yangguo.waf.script.ScriptEntry;
+import info.yangguo.waf.script.ScriptRequest;
+import info.yangguo.waf.script.ScriptVerdict;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ScriptEntryTest {
+    private static final String SCRIPT = "if (request.args.get('id') == '1') verdict.block('id')\n"
+            + "if (request.path == '/result') result.set(true)";
+
+    private static boolean execute(ScriptEntry entry, String uri, boolean staticMode, ScriptVerdict verdict) {
+        HttpRequest httpRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri);
+        return entry.execute(new ScriptRequest(new RequestView(httpRequest)), httpRequest, verdict, staticMode);
+    }
+
+    @Test
+    public void sandboxAndStaticMode() {
+        ScriptEntry entry = new ScriptEntry("ScriptEntryTest.groovy", SCRIPT);
+        Assert.assertTrue(entry.isStaticCompiled());
+        for (boolean staticMode : new boolean[]{false, true}) {
+            ScriptVerdict verdict = new ScriptVerdict();
+            Assert.assertTrue(execute(entry, "/a?id=1", staticMode, verdict));
+            Assert.assertEquals("id", verdict.getReason());
+            Assert.assertTrue(execute(entry, "/result", staticMode, new ScriptVerdict()));
+            //每次执行使用新的Binding，上一次的结果不会残留
+            Assert.assertFalse(execute(entry, "/a?id=2", staticMode, new ScriptVerdict()));
+        }
+    }
+
+    @Test
+    public void requestMaps() {
+        ScriptEntry entry = new ScriptEntry("ScriptEntryTest-maps.groovy",
+                "if (request.cookies.get('sid') == 'x' && request.headers.get('x-test') == 'y') verdict.block()");
+        Assert.assertTrue(entry.isStaticCompiled());
+        for (boolean staticMode : new boolean[]{false, true}) {
+            HttpRequest httpRequest = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/");
+            httpRequest.headers().add("Cookie", "sid=x").add("X-Test", "y");
+            Assert.assertTrue(entry.execute(new ScriptRequest(new RequestView(httpRequest)), httpRequest, new ScriptVerdict(), staticMode));
+        }
+    }
+
+    @Test
+    public void notStaticCompiledRunsInSandbox() {
+        //java.util.List#each不在白名单中，只能以sandbox模式执行
+        ScriptEntry entry = new ScriptEntry("ScriptEntryTest-each.groovy", "[request.path].each { if (it == '/x') verdict.block() }");
+        Assert.assertFalse(entry.isStaticCompiled());
+        Assert.assertFalse(execute(entry, "/x", true, new ScriptVerdict()));
+        Assert.assertFalse(execute(entry, "/x", false, new ScriptVerdict()));
+    }
+
+    @Test(expected = CompilationFailedException.class)
+    public void compileFailure() {
+        new ScriptEntry("ScriptEntryTest-broken.groovy", "if (");
+    }
+
+    @Test
+    public void countersSurviveReload() {
+        String name = "ScriptEntryTest-counters.groovy";
+        String script = "if (counters.increment(request.realIp ?: 'none', 60000) > 2) verdict.block()";
+        ScriptEntry entry = new ScriptEntry(name, script);
+        Assert.assertSame(entry.getCounters(), new ScriptEntry(name, script + "\n").getCounters());
+        Assert.assertFalse(execute(entry, "/", false, new ScriptVerdict()));
+        Assert.assertFalse(execute(new ScriptEntry(name, script), "/", false, new ScriptVerdict()));
+        Assert.assertTrue(execute(new ScriptEntry(name, script), "/", false, new ScriptVerdict()));
+    }
+
+    @Test
+    public void concurrentExecution() throws Exception {
+        ScriptEntry entry = new ScriptEntry("ScriptEntryTest-concurrent.groovy", SCRIPT);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = Lists.newArrayList();
+            for (int i = 0; i < 400; i++) {
+                String uri = i % 2 == 0 ? "/a?id=1" : "/a?id=2";
+                boolean staticMode = i % 4 < 2;
+                futures.add(executor.submit((Callable<Boolean>) () -> execute(entry, uri, staticMode, new ScriptVerdict())));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Assert.assertEquals(i % 2 == 0, futures.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package info.yangguo.waf;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+import info.yangguo.waf.request.RequestView;
+import info.yangguo.waf.request.security.ScriptExecutor;
+import info.yangguo.waf.script.ScriptEntry;
+import info.yangguo.waf.script.ScriptRequest;
+import info.yangguo.waf.script.ScriptVerdict;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ScriptExecutorTest {
+    private static final ScriptEntry PASS = new ScriptEntry("pass", "result.set(false)");
+    private static final ScriptEntry BLOCK = new ScriptEntry("block", "if (request.path == '/a') verdict.block('path')");
+    private static final ScriptEntry LOOP = new ScriptEntry("loop", "while (true) { request.getUri() }");
+    private static final ScriptEntry ERROR = new ScriptEntry("error", "request.uri.substring(100)");
+
+    private static String execute(ScriptExecutor executor, List<ScriptEntry> entries, long timeout, boolean failClosed) {
+        HttpRequest httpRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/a?b=c");
+        return executor.execute(entries, new ScriptRequest(new RequestView(httpRequest)), httpRequest, false, timeout, failClosed);
+    }
+
+    @Test
+    public void firstBlockWins() {
+        ScriptExecutor executor = new ScriptExecutor(2, 16);
+        Assert.assertNull(execute(executor, Lists.newArrayList(PASS), 1000, true));
+        Assert.assertEquals("block:path", execute(executor, Lists.newArrayList(PASS, BLOCK, LOOP), 1000, false));
+    }
+
+    @Test
+    public void timeoutCoversAllScripts() {
+        ScriptExecutor executor = new ScriptExecutor(2, 16);
+        long start = System.currentTimeMillis();
+        Assert.assertNull(execute(executor, Lists.newArrayList(PASS, LOOP, BLOCK), 200, false));
+        Assert.assertEquals("loop:timeout", execute(executor, Lists.newArrayList(PASS, LOOP, BLOCK), 200, true));
+        //每个请求只等待一次timeout
+        Assert.assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+
+    @Test
+    public void error() {
+        ScriptExecutor executor = new ScriptExecutor(2, 16);
+        //fail为open时出错的脚本被跳过，后面的脚本继续执行
+        Assert.assertEquals("block:path", execute(executor, Lists.newArrayList(ERROR, BLOCK), 1000, false));
+        Assert.assertEquals("error:error", execute(executor, Lists.newArrayList(ERROR, BLOCK), 1000, true));
+    }
+
+    @Test
+    public void rejected() throws Exception {
+        ScriptExecutor executor = new ScriptExecutor(1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ScriptEntry blocking = new ScriptEntry("blocking", "result.set(false)") {
+            @Override
+            public boolean execute(ScriptRequest request, HttpObject httpObject, ScriptVerdict verdict, boolean staticMode) {
+                started.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+                return false;
+            }
+        };
+        //占用唯一的线程
+        Thread running = new Thread(() -> execute(executor, Lists.newArrayList(blocking), 0, false));
+        running.start();
+        started.await();
+        //超时取消的任务从队列中移除，不会占满队列
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("queued:timeout", execute(executor, Lists.newArrayList(BLOCK), 50, true));
+        }
+        //一个不限时的任务占满队列之后拒绝新的任务
+        AtomicReference<String> queuedResult = new AtomicReference<>();
+        Thread queued = new Thread(() -> queuedResult.set(execute(executor, Lists.newArrayList(BLOCK), 0, true)));
+        queued.start();
+        //提交之后在future.get()中等待
+        while (queued.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        Assert.assertEquals("rejected", execute(executor, Lists.newArrayList(BLOCK), 10, true));
+        Assert.assertNull(execute(executor, Lists.newArrayList(BLOCK), 10, false));
+        release.countDown();
+        running.join();
+        queued.join();
+        Assert.assertEquals("block:path", queuedResult.get());
+        Assert.assertEquals("block:path", execute(executor, Lists.newArrayList(BLOCK), 1000, true));
+    }
+}
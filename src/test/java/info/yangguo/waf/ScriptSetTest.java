@@ -0,0 +1,49 @@
+package info.yangguo.waf;
+
+import com.google.common.collect.ImmutableMap;
+import info.yangguo.waf.script.ScriptSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.stream.Collectors;
+
+public class ScriptSetTest {
+    @Test
+    public void compile() {
+        ScriptSet first = ScriptSet.compile(1, ImmutableMap.of(
+                "b.groovy", "verdict.block()",
+                "a.groovy", "result.set(false)"), ScriptSet.EMPTY);
+        Assert.assertEquals(1, first.getVersion());
+        //按名称排序
+        Assert.assertEquals("a.groovy,b.groovy", first.getEntries().stream().map(entry -> entry.getName()).collect(Collectors.joining(",")));
+
+        ScriptSet second = ScriptSet.compile(2, ImmutableMap.of(
+                "a.groovy", "result.set(false)",
+                "b.groovy", "verdict.block('changed')",
+                "c.groovy", "verdict.block()"), first);
+        //内容没有变化的脚本复用上一个版本
+        Assert.assertSame(first.get("a.groovy"), second.get("a.groovy"));
+        Assert.assertNotSame(first.get("b.groovy"), second.get("b.groovy"));
+        Assert.assertEquals(3, second.getEntries().size());
+        //上一个版本不受影响
+        Assert.assertEquals(2, first.getEntries().size());
+        Assert.assertEquals("verdict.block()", first.get("b.groovy").getScript());
+
+        ScriptSet third = ScriptSet.compile(3, ImmutableMap.of("c.groovy", "verdict.block()"), second);
+        Assert.assertEquals(1, third.getEntries().size());
+        Assert.assertNull(third.get("a.groovy"));
+        Assert.assertTrue(ScriptSet.compile(4, ImmutableMap.of(), third).isEmpty());
+    }
+
+    @Test
+    public void compileFailureKeepsPrevious() {
+        ScriptSet first = ScriptSet.compile(1, ImmutableMap.of("a.groovy", "verdict.block()"), ScriptSet.EMPTY);
+        ScriptSet second = ScriptSet.compile(2, ImmutableMap.of(
+                "a.groovy", "if (",
+                "b.groovy", "if ("), first);
+        //编译失败时保留上一个版本，没有上一个版本时忽略
+        Assert.assertSame(first.get("a.groovy"), second.get("a.groovy"));
+        Assert.assertNull(second.get("b.groovy"));
+        Assert.assertEquals(1, second.getEntries().size());
+    }
+}
@@ -0,0 +1,60 @@
+package info.yangguo.waf;
+
+import com.google.common.collect.Lists;
+import info.yangguo.waf.model.*;
+import info.yangguo.waf.request.security.ArgsSecurity;
+import info.yangguo.waf.request.security.UrlSecurity;
+import info.yangguo.waf.service.SecurityConfigCompiler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+public class SecurityConfigCompilerTest {
+    private static SecurityConfig config(String filterName, boolean isStart, String... regexes) {
+        SecurityConfig config = SecurityConfig.builder()
+                .filterName(filterName)
+                .config(BasicConfig.builder().isStart(isStart).build())
+                .securityConfigItems(Lists.newArrayList())
+                .build();
+        for (String regex : regexes) {
+            config.getSecurityConfigItems().add(SecurityConfigItem.builder()
+                    .name(regex)
+                    .config(SecurityItemBasicConfig.builder().isStart(true).build())
+                    .build());
+        }
+        return config;
+    }
+
+    @Test
+    public void compileOnlyChangedFilter() {
+        SecurityConfigCompiler compiler = new SecurityConfigCompiler();
+        Assert.assertTrue(compiler.getCompiledConfigs().isEmpty());
+
+        String args = ArgsSecurity.class.getName();
+        String url = UrlSecurity.class.getName();
+        compiler.compileAll(Lists.newArrayList(config(args, true, "select.+from"), config(url, true, "\\.svn")));
+        Map<String, CompiledSecurityConfig> first = compiler.getCompiledConfigs();
+        Assert.assertEquals(2, first.size());
+        Assert.assertNotNull(first.get(args).getRules(null).find("1 select a from b"));
+
+        compiler.compile(config(args, true, "union.+select"));
+        Map<String, CompiledSecurityConfig> second = compiler.getCompiledConfigs();
+        //整体替换，之前取到的配置不受影响
+        Assert.assertNotSame(first, second);
+        Assert.assertNotNull(first.get(args).getRules(null).find("1 select a from b"));
+        Assert.assertNull(second.get(args).getRules(null).find("1 select a from b"));
+        Assert.assertNotNull(second.get(args).getRules(null).find("1 union all select"));
+        //没有变化的拦截器沿用之前的编译结果
+        Assert.assertSame(first.get(url), second.get(url));
+        Assert.assertTrue(second.get(args).getVersion() > first.get(args).getVersion());
+
+        compiler.compile(config(args, false, "union.+select"));
+        Assert.assertFalse(compiler.getCompiledConfigs().get(args).isStart());
+
+        compiler.remove(args);
+        Assert.assertNull(compiler.getCompiledConfigs().get(args));
+        Assert.assertSame(first.get(url), compiler.getCompiledConfigs().get(url));
+        Assert.assertEquals(2, second.size());
+    }
+}
@@ -0,0 +1,93 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.request.security.limiter.SlidingWindow;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SlidingWindowTest {
+    @Test
+    public void limitWithinWindow() {
+        AtomicLong counter = new AtomicLong();
+        long now = 1_000_000L;
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(SlidingWindow.tryAcquire(counter, now, 1000, 10));
+        }
+        Assert.assertFalse(SlidingWindow.tryAcquire(counter, now + 999, 1000, 10));
+    }
+
+    @Test
+    public void previousWindowDecays() {
+        AtomicLong counter = new AtomicLong();
+        long now = 1_000_000L;
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(SlidingWindow.tryAcquire(counter, now, 1000, 10));
+        }
+        //下一个窗口开始时上一个窗口的计数全部有效
+        Assert.assertFalse(SlidingWindow.tryAcquire(counter, now + 1000, 1000, 10));
+        //过了一半之后上一个窗口只计算一半
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(SlidingWindow.tryAcquire(counter, now + 1500, 1000, 10));
+        }
+        Assert.assertFalse(SlidingWindow.tryAcquire(counter, now + 1500, 1000, 10));
+        //间隔超过一个窗口之后重新计数
+        Assert.assertTrue(SlidingWindow.tryAcquire(counter, now + 3000, 1000, 1));
+        Assert.assertFalse(SlidingWindow.tryAcquire(counter, now + 3000, 1000, 1));
+    }
+
+    @Test
+    public void staleClockDoesNotReset() {
+        AtomicLong counter = new AtomicLong();
+        long now = 1_000_000L;
+        Assert.assertTrue(SlidingWindow.tryAcquire(counter, now + 1000, 1000, 2));
+        Assert.assertTrue(SlidingWindow.tryAcquire(counter, now + 999, 1000, 2));
+        Assert.assertFalse(SlidingWindow.tryAcquire(counter, now + 1000, 1000, 2));
+    }
+
+    @Test
+    public void rejectedRequestsAreNotCounted() {
+        long state = 0;
+        for (int i = 0; i < 3; i++) {
+            state = SlidingWindow.next(state, 5000, 1000, 3);
+            Assert.assertTrue(state != SlidingWindow.REJECTED);
+        }
+        Assert.assertEquals(SlidingWindow.REJECTED, SlidingWindow.next(state, 5000, 1000, 3));
+        Assert.assertEquals(5, SlidingWindow.window(state));
+    }
+
+    @Test
+    public void mergeCountsRemoteRequests() {
+        long now = 1_000_000L;
+        long window = now / 1000;
+        long state = SlidingWindow.merge(0, now, 1000, window, 8);
+        Assert.assertEquals(8, SlidingWindow.count(state));
+        state = SlidingWindow.next(state, now, 1000, 10);
+        state = SlidingWindow.next(state, now, 1000, 10);
+        Assert.assertEquals(SlidingWindow.REJECTED, SlidingWindow.next(state, now, 1000, 10));
+    }
+
+    @Test
+    public void mergeKeepsWindowOfDelta() {
+        long now = 1_000_000L;
+        long window = now / 1000;
+        //上一个窗口的增量计入previous，当前窗口开始时全部有效
+        long state = SlidingWindow.merge(0, now, 1000, window - 1, 10);
+        Assert.assertEquals(0, SlidingWindow.count(state));
+        Assert.assertEquals(SlidingWindow.REJECTED, SlidingWindow.next(state, now, 1000, 10));
+        //过旧的增量直接丢弃
+        Assert.assertEquals(state, SlidingWindow.merge(state, now, 1000, window - 2, 10));
+        //时钟超前的节点发来的增量计入当前窗口
+        Assert.assertEquals(5, SlidingWindow.count(SlidingWindow.merge(state, now, 1000, window + 1, 5)));
+    }
+
+    @Test
+    public void estimateDecaysPreviousWindow() {
+        long now = 1_000_000L;
+        long window = now / 1000;
+        long state = SlidingWindow.merge(0, now, 1000, window, 10);
+        Assert.assertEquals(10, SlidingWindow.estimate(state, now, 1000));
+        Assert.assertEquals(5, SlidingWindow.estimate(state, now + 1500, 1000));
+        Assert.assertEquals(0, SlidingWindow.estimate(state, now + 2000, 1000));
+    }
+}
@@ -0,0 +1,39 @@
+package info.yangguo.waf;
+
+import info.yangguo.waf.script.ScriptEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StaticSandboxTest {
+    private static boolean isStatic(String script) {
+        return new ScriptEntry("StaticSandboxTest", script).isStaticCompiled();
+    }
+
+    @Test
+    public void accepted() {
+        //循环中有ThreadInterrupt插入的中断检查
+        Assert.assertTrue(isStatic("while (request.path == '/x') {}\n"
+                + "for (int i = 0; i < 3; i++) { result.set(request.uri.length() > 100) }\n"
+                + "if (request.args.get('a') == '1') verdict.block('a')"));
+    }
+
+    @Test
+    public void currentThreadInScript() {
+        Assert.assertFalse(isStatic("Thread.currentThread().interrupt()"));
+        Assert.assertFalse(isStatic("if (Thread.currentThread().isInterrupted()) verdict.block()"));
+        Assert.assertFalse(isStatic("Thread.currentThread().contextClassLoader = null"));
+    }
+
+    @Test
+    public void property() {
+        Assert.assertFalse(isStatic("def type = request.class"));
+        Assert.assertFalse(isStatic("def loader = request.uri.class.classLoader"));
+        Assert.assertFalse(isStatic("def bytes = request.uri.bytes"));
+        Assert.assertFalse(isStatic("def binding = this.binding"));
+    }
+
+    @Test
+    public void methodPointer() {
+        Assert.assertFalse(isStatic("def method = request.&getClass"));
+    }
+}
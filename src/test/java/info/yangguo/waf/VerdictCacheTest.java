@@ -0,0 +1,99 @@
+package info.yangguo.waf;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import info.yangguo.waf.model.BasicConfig;
+import info.yangguo.waf.model.CompiledSecurityConfig;
+import info.yangguo.waf.model.SecurityConfig;
+import info.yangguo.waf.request.RequestView;
+import info.yangguo.waf.request.security.RuleGuard;
+import info.yangguo.waf.request.security.UrlSecurity;
+import info.yangguo.waf.request.security.VerdictCache;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+public class VerdictCacheTest {
+    private static final UrlSecurity FILTER = new UrlSecurity();
+
+    private static CompiledSecurityConfig config(long version) {
+        return CompiledSecurityConfig.compile(SecurityConfig.builder()
+                .filterName(UrlSecurity.class.getName())
+                .config(BasicConfig.builder().isStart(true).build())
+                .securityConfigItems(Lists.newArrayList())
+                .build(), version);
+    }
+
+    private static RequestView view(String uri) {
+        return new RequestView(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, uri));
+    }
+
+    private static String get(String uri, CompiledSecurityConfig config, AtomicInteger evaluations, String verdict) {
+        return VerdictCache.get(FILTER, view(uri), config, () -> {
+            evaluations.incrementAndGet();
+            return verdict;
+        });
+    }
+
+    @Test
+    public void cached() {
+        CompiledSecurityConfig config = config(1);
+        AtomicInteger evaluations = new AtomicInteger();
+        Assert.assertEquals("rule", get("/VerdictCacheTest/cached", config, evaluations, "rule"));
+        Assert.assertEquals("rule", get("/VerdictCacheTest/cached", config, evaluations, "other"));
+        Assert.assertEquals(1, evaluations.get());
+        //没有命中的结果同样缓存
+        Assert.assertNull(get("/VerdictCacheTest/cached?a=b", config, evaluations, null));
+        Assert.assertNull(get("/VerdictCacheTest/cached?a=b", config, evaluations, "rule"));
+        Assert.assertEquals(2, evaluations.get());
+    }
+
+    @Test
+    public void versionIsPartOfKey() {
+        AtomicInteger evaluations = new AtomicInteger();
+        Assert.assertNull(get("/VerdictCacheTest/version", config(1), evaluations, null));
+        Assert.assertEquals("rule", get("/VerdictCacheTest/version", config(2), evaluations, "rule"));
+        Assert.assertEquals(2, evaluations.get());
+    }
+
+    @Test
+    public void longUriIsNotCached() {
+        CompiledSecurityConfig config = config(1);
+        AtomicInteger evaluations = new AtomicInteger();
+        String uri = "/VerdictCacheTest/" + Strings.repeat("a", 1024);
+        get(uri, config, evaluations, null);
+        get(uri, config, evaluations, null);
+        Assert.assertEquals(2, evaluations.get());
+    }
+
+    @Test
+    public void timeoutIsNotCached() {
+        CompiledSecurityConfig config = config(1);
+        RuleGuard guard = RuleGuard.of(VerdictCacheTest.class.getName(), "(.*a){12}b");
+        Pattern pattern = Pattern.compile("(.*a){12}b");
+        AtomicInteger evaluations = new AtomicInteger();
+        for (int i = 0; i < 2; i++) {
+            VerdictCache.get(FILTER, view("/VerdictCacheTest/timeout"), config, () -> {
+                evaluations.incrementAndGet();
+                guard.test(Strings.repeat("a", 40), 10000, true, input -> pattern.matcher(input).find());
+                return "rule";
+            });
+        }
+        Assert.assertEquals(2, evaluations.get());
+    }
+
+    @Test
+    public void invalidateAll() {
+        CompiledSecurityConfig config = config(1);
+        AtomicInteger evaluations = new AtomicInteger();
+        get("/VerdictCacheTest/invalidate", config, evaluations, null);
+        VerdictCache.invalidateAll();
+        get("/VerdictCacheTest/invalidate", config, evaluations, null);
+        Assert.assertEquals(2, evaluations.get());
+    }
+}
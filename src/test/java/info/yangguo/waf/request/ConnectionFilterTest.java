@@ -0,0 +1,80 @@
+package info.yangguo.waf.request;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import info.yangguo.waf.config.ContextHolder;
+import info.yangguo.waf.model.*;
+import info.yangguo.waf.request.security.IpSecurity;
+import info.yangguo.waf.request.security.WIpSecurity;
+import info.yangguo.waf.service.ClusterService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class ConnectionFilterTest {
+    private final Map<String, CompiledSecurityConfig> configs = Maps.newHashMap();
+
+    private static SecurityConfigItem item(String ip, boolean connection, List<String> wafRoutes) {
+        Map<String, Object> extension = connection ? Collections.singletonMap(CompiledSecurityConfig.CONNECTION, "true") : null;
+        return SecurityConfigItem.builder()
+                .name(ip)
+                .config(SecurityItemBasicConfig.builder().isStart(true).extension(extension).wafRoutes(wafRoutes).build())
+                .build();
+    }
+
+    private void put(Class filter, boolean isStart, SecurityConfigItem... items) {
+        configs.put(filter.getName(), CompiledSecurityConfig.compile(SecurityConfig.builder()
+                .filterName(filter.getName())
+                .config(BasicConfig.builder().isStart(isStart).build())
+                .securityConfigItems(Lists.newArrayList(items))
+                .build(), 1));
+        ContextHolder.setClusterService((ClusterService) Proxy.newProxyInstance(ClusterService.class.getClassLoader(), new Class[]{ClusterService.class},
+                (proxy, method, args) -> "getCompiledSecurityConfigs".equals(method.getName()) ? configs : null));
+    }
+
+    private static boolean accept(String ip) {
+        return ConnectionFilter.INSTANCE.accept(null, new InetSocketAddress(ip, 80));
+    }
+
+    @After
+    public void tearDown() {
+        ContextHolder.setClusterService(null);
+    }
+
+    @Test
+    public void onlyConnectionRules() {
+        put(IpSecurity.class, true,
+                item("1.2.3.4", true, null),
+                item("5.6.7.0/24", false, null),
+                item("9.9.9.9", true, Lists.newArrayList("a.com")));
+        Assert.assertFalse(accept("1.2.3.4"));
+        //没有标记connection的规则由SecurityFilter按X-Real-IP判断
+        Assert.assertTrue(accept("5.6.7.8"));
+        //指定了wafRoutes的规则依赖请求中的route
+        Assert.assertTrue(accept("9.9.9.9"));
+        Assert.assertTrue(accept("10.0.0.1"));
+    }
+
+    @Test
+    public void notStarted() {
+        put(IpSecurity.class, false, item("1.2.3.4", true, null));
+        Assert.assertTrue(accept("1.2.3.4"));
+    }
+
+    @Test
+    public void whitelist() {
+        put(IpSecurity.class, true, item("1.2.3.0/24", true, null));
+        put(WIpSecurity.class, true, item("1.2.3.4", false, null));
+        Assert.assertTrue(accept("1.2.3.4"));
+        Assert.assertFalse(accept("1.2.3.5"));
+
+        put(WIpSecurity.class, false, item("1.2.3.4", false, null));
+        Assert.assertFalse(accept("1.2.3.4"));
+    }
+}
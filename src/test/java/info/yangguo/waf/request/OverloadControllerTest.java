@@ -0,0 +1,102 @@
+package info.yangguo.waf.request;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import info.yangguo.waf.config.ContextHolder;
+import info.yangguo.waf.model.BasicConfig;
+import info.yangguo.waf.model.WeightedRoundRobinScheduling;
+import info.yangguo.waf.service.ClusterService;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class OverloadControllerTest {
+    private final DefaultEventExecutor executor = new DefaultEventExecutor();
+
+    @Before
+    public void setUp() {
+        Map<String, WeightedRoundRobinScheduling> upstreams = Maps.newHashMap();
+        upstreams.put("low.com:80", scheduling(OverloadController.PRIORITY_LOW));
+        upstreams.put("critical.com:80", scheduling(OverloadController.PRIORITY_CRITICAL));
+        upstreams.put("normal.com:80", scheduling(null));
+        ContextHolder.setClusterService((ClusterService) Proxy.newProxyInstance(ClusterService.class.getClassLoader(), new Class[]{ClusterService.class},
+                (proxy, method, args) -> "getUpstreamConfig".equals(method.getName()) ? upstreams : null));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownGracefully(0, 0, TimeUnit.MILLISECONDS);
+        ContextHolder.setClusterService(null);
+    }
+
+    private static WeightedRoundRobinScheduling scheduling(String priority) {
+        Map<String, Object> extension = priority == null ? null : Collections.singletonMap(OverloadController.PRIORITY, priority);
+        return new WeightedRoundRobinScheduling(Lists.newArrayList(), BasicConfig.builder().isStart(true).extension(extension).build());
+    }
+
+    private boolean shed(String upstream) {
+        HttpResponse response = OverloadController.shed(executor, upstream);
+        if (response != null)
+            Assert.assertEquals(HttpResponseStatus.SERVICE_UNAVAILABLE, response.status());
+        return response != null;
+    }
+
+    @Test
+    public void shedByPriority() throws Exception {
+        OverloadController.register(executor);
+        Assert.assertFalse(shed("low.com:80"));
+
+        //阻塞event loop，探测任务无法执行
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            blocked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        blocked.await();
+        long now = System.nanoTime();
+        OverloadController.sample(now);
+
+        //超过阈值(50ms)，只丢弃low
+        OverloadController.sample(now + TimeUnit.MILLISECONDS.toNanos(60));
+        Assert.assertTrue(shed("low.com:80"));
+        Assert.assertFalse(shed("normal.com:80"));
+        Assert.assertFalse(shed("unknown.com:80"));
+        Assert.assertFalse(shed("critical.com:80"));
+
+        //超过4倍阈值，丢弃low和normal
+        OverloadController.sample(now + TimeUnit.MILLISECONDS.toNanos(250));
+        Assert.assertTrue(shed("low.com:80"));
+        Assert.assertTrue(shed("normal.com:80"));
+        Assert.assertTrue(shed("unknown.com:80"));
+        Assert.assertTrue(shed(null));
+        Assert.assertFalse(shed("critical.com:80"));
+
+        //event loop恢复之后不再丢弃
+        release.countDown();
+        for (int i = 0; i < 100 && shed("low.com:80"); i++) {
+            Thread.sleep(20);
+            OverloadController.sample(System.nanoTime());
+        }
+        Assert.assertFalse(shed("low.com:80"));
+    }
+
+    @Test
+    public void unregisteredExecutor() {
+        Assert.assertNull(OverloadController.shed(new DefaultEventExecutor(), "low.com:80"));
+    }
+}
@@ -0,0 +1,59 @@
+package info.yangguo.waf.request;
+
+import com.google.common.collect.Lists;
+import info.yangguo.waf.request.security.*;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class SecurityFilterSchedulerTest {
+    private static Security find(List<Security> filters, Class type) {
+        return filters.stream().filter(filter -> filter.getClass() == type).findFirst().get();
+    }
+
+    private static void record(Security filter, long costNanos, int calls, int hits) {
+        for (int i = 0; i < calls; i++) {
+            SecurityFilterScheduler.getTimer(filter).update(costNanos, TimeUnit.NANOSECONDS);
+            if (i < hits)
+                SecurityFilterScheduler.hit(filter);
+        }
+    }
+
+    @Test
+    public void reorderWithinSegments() {
+        List<Security> before = SecurityFilterScheduler.getFilters();
+        RequestView requestView = new RequestView(new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/"));
+        Assert.assertSame(before, requestView.getSecurityFilters());
+        record(find(before, UaSecurity.class), TimeUnit.MILLISECONDS.toNanos(1), 200, 0);
+        record(find(before, UrlSecurity.class), TimeUnit.MICROSECONDS.toNanos(100), 200, 0);
+        record(find(before, ArgsSecurity.class), TimeUnit.MICROSECONDS.toNanos(100), 200, 0);
+        record(find(before, CookieSecurity.class), TimeUnit.MICROSECONDS.toNanos(1), 200, 200);
+        //不可排序的拦截器即使又便宜又经常命中也不会移动
+        record(find(before, PostSecurity.class), 1, 200, 200);
+        record(find(before, ScriptSecurity.class), 1, 200, 200);
+
+        SecurityFilterScheduler.reorder();
+        List<Security> after = SecurityFilterScheduler.getFilters();
+        Assert.assertEquals(before.size(), after.size());
+        for (int i = 0; i < before.size(); i++) {
+            if (!before.get(i).isReorderable())
+                Assert.assertSame(before.get(i), after.get(i));
+        }
+        int ua = after.indexOf(find(after, UaSecurity.class));
+        int url = after.indexOf(find(after, UrlSecurity.class));
+        int args = after.indexOf(find(after, ArgsSecurity.class));
+        int cookie = after.indexOf(find(after, CookieSecurity.class));
+        Assert.assertTrue(cookie < url);
+        //得分相同时保持原来的顺序
+        Assert.assertTrue(url < args);
+        Assert.assertTrue(args < ua);
+        Assert.assertEquals(Lists.newArrayList(before.subList(0, 5)), Lists.newArrayList(after.subList(0, 5)));
+        //排序之前开始的请求，之后的HttpContent仍然使用原来的顺序
+        Assert.assertSame(before, requestView.getSecurityFilters());
+    }
+}